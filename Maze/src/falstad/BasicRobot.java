@@ -27,7 +27,7 @@ import generation.CardinalDirection;
  * 
  * Collaborators:
  * RobotDriver to control the robot
- * MazeController to drive through 
+ * RobotMaze to drive through, e.g. the MazeController
  * 
  * @author Ben Zhang
  *
@@ -51,7 +51,7 @@ public class BasicRobot implements Robot {
 	 Moving forward one step (one cell): 5
 	 */
 
-	private MazeController maze;
+	private RobotMaze maze;
 	protected float battery;
 	protected boolean stopped;
 	
@@ -147,16 +147,16 @@ public class BasicRobot implements Robot {
 	}
 
 	@Override
-	public void setMaze(MazeController maze) {
+	public void setMaze(RobotMaze maze) {
 		//System.out.println("Setting maze again to " + maze);
 		this.maze = maze;
 	}
 	
 	/**
-	 * Gets the current MazeController.
-	 * @return maze controller this robot is attached to
+	 * Gets the current maze.
+	 * @return maze this robot is attached to
 	 */
-	protected MazeController getMaze(){
+	protected RobotMaze getMaze(){
 		return this.maze;
 	}
 
@@ -121,9 +121,9 @@ public abstract class BasicRobotDriver implements RobotDriver {
 	
 	/**
 	 * Allow for subclasses to have a custom setup for driving using data from a completed maze
-	 * @param controller the maze controller to examine for setup
+	 * @param controller the maze to examine for setup
 	 */
-	public void setupUsingMaze(MazeController controller){
+	public void setupUsingMaze(RobotMaze controller){
 		// setup only necessary for certain implementations of driving
 	}
 	
@@ -0,0 +1,319 @@
+package falstad;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of input commands that a dedicated thread, the game loop, hands over to a handler one after the other,
+ * such that the thread that delivers the input, e.g. the AWT event thread with key presses, returns immediately.
+ *
+ * Commands are rotations by a number of quarter turns or other keys. A rotation that follows a rotation
+ * which has not been handled yet is coalesced with it into a single rotation, turns that cancel each other
+ * out are dropped altogether. The queue holds a bounded number of commands, input beyond it is dropped,
+ * such that a key that is held down does not build up a backlog that takes a while to play out.
+ *
+ * The latency from the input of a command to the end of the first frame that shows it is recorded,
+ * the drawer of frames reports each frame with frameDrawn. A frame shows the commands that had been 
+ * carried out when it began, a command that is carried out while a frame is drawn waits for the next one.
+ *
+ * The MazeController queues the key presses in the playing screen and handles them on the game loop.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class CommandQueue {
+	/**
+	 * Kinds of commands, a rotation has the number of quarter turns as its value, a key has the key.
+	 */
+	public enum Kind { ROTATE, KEY }
+
+	/**
+	 * Carries out commands on the game loop.
+	 */
+	public interface Handler {
+		/**
+		 * Carries out a command.
+		 * @param kind of command
+		 * @param value number of quarter turns in [-1,2] for a rotation, the key for a key
+		 */
+		void execute(Kind kind, int value);
+	}
+
+	/**
+	 * Queued command, the value of a rotation changes when the next one is coalesced with it.
+	 */
+	private static final class Command {
+		final Kind kind;
+		int value;
+		final long time; // System.nanoTime of the input
+		long applied; // System.nanoTime when the command has been carried out
+
+		Command(Kind kind, int value, long time) {
+			this.kind = kind;
+			this.value = value;
+			this.time = time;
+		}
+	}
+
+	private final Handler handler;
+	private final int capacity;
+
+	private final Object lock = new Object();
+	// guarded by lock
+	private final ArrayDeque<Command> commands = new ArrayDeque<Command>();
+	private boolean running;
+	private boolean executing; // true while the game loop carries out a command
+	// commands that have been carried out but not drawn, at most capacity of them, the oldest is dropped without a latency
+	private final ArrayDeque<Command> unshown = new ArrayDeque<Command>();
+	private Thread thread;
+
+	// statistics, guarded by lock
+	private long executed;
+	private long coalesced;
+	private long dropped;
+	private long latencies; // number of latencies measured
+	private long totalLatencyNanos;
+	private long maxLatencyNanos;
+
+	/**
+	 * Constructor
+	 * @param handler carries out the commands, is called on the game loop
+	 * @param capacity maximum number of commands that wait in the queue
+	 */
+	public CommandQueue(Handler handler, int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		this.handler = handler;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Starts the game loop, does nothing if it is running.
+	 */
+	public void start() {
+		synchronized (lock) {
+			if (running)
+				return;
+			running = true;
+			thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					loop();
+				}
+			}, "Game loop");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the game loop after the current command, commands that have not been carried out are dropped.
+	 */
+	public void stop() {
+		synchronized (lock) {
+			running = false;
+			commands.clear();
+			unshown.clear();
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * @return true if the game loop is running
+	 */
+	public boolean isRunning() {
+		synchronized (lock) {
+			return running;
+		}
+	}
+
+	/**
+	 * Queues a rotation, coalesces it with the last command in the queue if that is a rotation as well.
+	 * @param quarterTurns number of quarter turns, positive to increase the angle
+	 * @return true if the rotation is queued or coalesced, false if it is dropped because the queue is full
+	 */
+	public boolean rotate(int quarterTurns) {
+		synchronized (lock) {
+			final Command last = commands.peekLast();
+			if (null != last && Kind.ROTATE == last.kind) {
+				last.value = normalize(last.value + quarterTurns);
+				if (0 == last.value)
+					commands.removeLast(); // turns cancel each other out
+				coalesced++;
+				return true;
+			}
+			return offer(Kind.ROTATE, normalize(quarterTurns));
+		}
+	}
+
+	/**
+	 * Queues a key.
+	 * @param key as for MazeController.keyDown
+	 * @return true if the key is queued, false if it is dropped because the queue is full
+	 */
+	public boolean key(int key) {
+		synchronized (lock) {
+			return offer(Kind.KEY, key);
+		}
+	}
+
+	/**
+	 * Records the latency of the commands that had been carried out when a frame began,
+	 * to be called after the frame has been drawn.
+	 * @param frameBegin System.nanoTime when the frame began, before it read what to show
+	 */
+	public void frameDrawn(long frameBegin) {
+		synchronized (lock) {
+			final long now = System.nanoTime();
+			while (!unshown.isEmpty() && unshown.peekFirst().applied - frameBegin <= 0) {
+				final long latency = now - unshown.removeFirst().time;
+				latencies++;
+				totalLatencyNanos += latency;
+				maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+			}
+		}
+	}
+
+	/**
+	 * Waits until all queued commands have been carried out.
+	 * @param timeout maximum time to wait
+	 * @param unit of timeout
+	 * @return true if the queue is empty and no command is carried out, false if the time has passed
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 */
+	public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+		final long end = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (lock) {
+			while (!commands.isEmpty() || executing) {
+				final long wait = end - System.nanoTime();
+				if (wait <= 0)
+					return false;
+				TimeUnit.NANOSECONDS.timedWait(lock, wait);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Adds a command at the end of the queue if there is room for it.
+	 */
+	private boolean offer(Kind kind, int value) {
+		if (commands.size() >= capacity) {
+			dropped++;
+			return false;
+		}
+		if (Kind.ROTATE == kind && 0 == value)
+			return true; // nothing to do
+		commands.addLast(new Command(kind, value, System.nanoTime()));
+		lock.notifyAll();
+		return true;
+	}
+
+	/**
+	 * @return number of quarter turns in [-1,2] that is the same rotation as the given one
+	 */
+	private static int normalize(int quarterTurns) {
+		final int q = ((quarterTurns % 4) + 4) % 4;
+		return (3 == q) ? -1 : q;
+	}
+
+	/**
+	 * Carries out the commands in the order of the queue.
+	 */
+	private void loop() {
+		while (true) {
+			final Command command;
+			synchronized (lock) {
+				while (running && commands.isEmpty()) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						running = false;
+					}
+				}
+				if (!running)
+					return;
+				command = commands.removeFirst();
+				executing = true;
+			}
+			try {
+				handler.execute(command.kind, command.value);
+			}
+			finally {
+				synchronized (lock) {
+					executing = false;
+					executed++;
+					command.applied = System.nanoTime();
+					if (unshown.size() >= capacity)
+						unshown.removeFirst();
+					unshown.addLast(command);
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of commands carried out since start or the last reset of the statistics
+	 */
+	public long getExecutedCount() {
+		synchronized (lock) {
+			return executed;
+		}
+	}
+
+	/**
+	 * @return number of rotations that were coalesced with a queued rotation
+	 */
+	public long getCoalescedCount() {
+		synchronized (lock) {
+			return coalesced;
+		}
+	}
+
+	/**
+	 * @return number of commands that were dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		synchronized (lock) {
+			return dropped;
+		}
+	}
+
+	/**
+	 * @return average time from the input of a command to the end of the frame that shows it in nanoseconds,
+	 * 0 if no latency has been measured
+	 */
+	public long getAverageLatencyNanos() {
+		synchronized (lock) {
+			return (0 == latencies) ? 0 : totalLatencyNanos / latencies;
+		}
+	}
+
+	/**
+	 * @return longest time from the input of a command to the end of the frame that shows it in nanoseconds
+	 */
+	public long getMaxLatencyNanos() {
+		synchronized (lock) {
+			return maxLatencyNanos;
+		}
+	}
+
+	/**
+	 * Resets the statistics.
+	 */
+	public void resetStatistics() {
+		synchronized (lock) {
+			executed = coalesced = dropped = latencies = totalLatencyNanos = maxLatencyNanos = 0;
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (lock) {
+			return "CommandQueue: " + executed + " commands, " + coalesced + " coalesced, " + dropped + " dropped, "
+					+ String.format("%.2f ms average latency, %.2f ms max",
+							(0 == latencies) ? 0.0 : totalLatencyNanos / 1e6 / latencies, maxLatencyNanos / 1e6);
+		}
+	}
+}
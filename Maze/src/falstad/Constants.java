@@ -35,6 +35,12 @@ public class Constants {
 	public static final int MAP_UNIT = 128;
 	public static final int VIEW_OFFSET = MAP_UNIT/8;
 	public static final int STEP_SIZE = MAP_UNIT/4;
+	// Rate at which the RenderScheduler of the MazeController draws frames
+	public static final int FRAMES_PER_SECOND = 60;
+	// Number of view directions in a full turn that a rotation is animated with, a multiple of 4, see ViewDirections
+	public static final int ROTATION_STEPS = 360;
+	// Rate at which frames are drawn while a driver moves in turbo mode, see MazeController.setTurboMode
+	public static final int TURBO_FRAMES_PER_SECOND = 10;
 	// Skill-level 
 	// The user picks a skill level between 0 - 9, a-f 
 	// The following arrays transform this into corresponding dimensions (x,y) for the resulting maze as well as the number of rooms and parts
@@ -43,6 +49,12 @@ public class Constants {
 	public static int[] SKILL_ROOMS = { 0,  2,  2,  3,  4,  5, 10, 10, 20, 45, 45, 50, 50,  60,  80, 160 };
 	public static int[] SKILL_PARTCT = { 60, 600, 900, 1200, 2100, 2700, 3300,
 	5000, 6000, 13500, 19800, 25000, 29000, 45000, 85000, 85000*4 };
+	// Mazes with at least this many cells get a BSP tree that is partitioned on demand, see BSPLazyNode
+	public static final int LAZY_BSP_MIN_CELLS = 10000;
+	// Lazy BSP nodes within this distance of the current position get expanded in the background 
+	public static final int LAZY_BSP_PREFETCH_RADIUS = 8*MAP_UNIT;
+	// Mazes with at least this many cells get their wall segments scanned by several threads, see BSPBuilder
+	public static final int PARALLEL_SEGMENTS_MIN_CELLS = 2500;
 	// Directions:
 	// columns mean right, bottom, left, top (as implemented in getBit())
 	// note that multiplication with -1 to a column switches directions
@@ -51,6 +63,31 @@ public class Constants {
 	// Possible states of the GUI
 	// these are states of an automaton that the graphical user interface implements
 	public enum StateGUI { STATE_TITLE, STATE_GENERATING, STATE_PLAY, STATE_FINISH; }
+	// Backends for the first person view: Java2D polygons (FirstPersonDrawer) or 
+	// writing pixels directly (RasterFirstPersonDrawer) without or with antialiased edges,
+	// optionally in parallel strips of columns (ParallelFirstPersonDrawer),
+	// or casting rays through the grid of cells without a BSP tree (RaycastDrawer)
+	public enum RenderMode { 
+		JAVA2D("Java2D"), RASTER("Raster"), RASTER_AA("RasterAA"), RASTER_PARALLEL("Parallel"), RAYCAST("Raycast"); 
+		
+		private final String name; // name on the command line
+
+		RenderMode(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @param name as given on the command line of the MazeApplication, case is ignored
+		 * @return the render mode with the given name, null if there is none
+		 */
+		public static RenderMode forName(String name) {
+			for (RenderMode mode : values()) {
+				if (mode.name.equalsIgnoreCase(name))
+					return mode;
+			}
+			return null;
+		}
+	}
 	// fixing a value matching the escape key
 	final static int ESCAPE = 27;
 	
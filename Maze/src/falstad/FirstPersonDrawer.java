@@ -5,18 +5,16 @@ package falstad;
 
 import falstad.Constants.StateGUI;
 import generation.BSPBranch;
+import generation.BSPLazyNode;
 import generation.BSPLeaf;
 import generation.BSPNode;
-import generation.CardinalDirection;
-import generation.Cells;
 import generation.MazeBuilder;
+import generation.PotentiallyVisibleSet;
 import generation.Seg;
-import generation.Wall;
 
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.RenderingHints;
 import java.util.ArrayList;
 
@@ -38,7 +36,7 @@ public class FirstPersonDrawer extends DefaultViewer {
 	private int map_unit = 128;
 	private int step_size = map_unit/4;
 	// map scale may be adjusted by user input, controlled in MazeController
-	private Cells seencells ; // cells whose walls are currently visible
+	private SeenWalls seencells ; // walls that have been visible
 	// node is determined in MazeBuilder when creating the maze, helps to decide visibility
 	private BSPNode bsp_root ;
 	
@@ -61,9 +59,21 @@ public class FirstPersonDrawer extends DefaultViewer {
 	private int view_dy ; // set in redraw_play
 	// set of ranges
 	private RangeSet rset ; // set in redraw_play
+	// nodes visible per cell, null as long as it is not available
+	private volatile PotentiallyVisibleSet pvs ;
+	private PotentiallyVisibleSet framePvs ; // pvs for the current frame
+	private int pvsCell ; // index of the cell of (viewx, viewy) in framePvs
+	
+	// scratch objects, reused for every segment and bounding box such that drawing a frame does not allocate
+	private final RangePair rp = new RangePair(0, 0, 0, 0);
+	private final long[] clip = new long[4]; // clip parameters, see clip3d
+	private final int[] xps = new int[4]; // polygon coordinates
+	private final int[] yps = new int[4];
 	
 	// debug stuff
-	private boolean deepdebug = false;
+	// compile time constants, so debug output is removed from the render loop when switched off
+	private static final boolean DEBUG = false; // trace of each segment that is drawn
+	private static final boolean DEEP_DEBUG = false; // trace of the tree traversal
 	private boolean all_visible = false;
 	private int traverse_node_ct;
 	private int traverse_ssector_ct;
@@ -81,7 +91,7 @@ public class FirstPersonDrawer extends DefaultViewer {
 	 * @param seencells
 	 * @param bsp_root
 	 */
-	public FirstPersonDrawer(int width, int height, int map_unit, int step_size, Cells seencells, BSPNode bsp_root) {
+	public FirstPersonDrawer(int width, int height, int map_unit, int step_size, SeenWalls seencells, BSPNode bsp_root) {
 		// store given parameter values
 		view_width = width ;
 		view_height = height ;
@@ -118,19 +128,22 @@ public class FirstPersonDrawer extends DefaultViewer {
 		//dbg("viewer.redraw called");
 		if (state != StateGUI.STATE_PLAY)
 			return ;
-		// new adjustment
-		// old: this.gc = gc ; // gc was simple Graphics object
-		// now
-		//System.out.println("FirstPersonDrawer: Using Rendering Hint");
-		this.gc = (Graphics2D) gc ;
-		// became necessary when lines of polygons that were not horizontal or vertical
-		// looked ragged
-		this.gc.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-				RenderingHints.VALUE_ANTIALIAS_ON);
-		this.gc.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-		
-
+		// update graphics
+		beginFrame(gc);
+		drawWalls(px, py, view_dx, view_dy, walk_step, view_offset, rset, ang, 0, view_width-1);
+		endFrame(gc);
+	}
+	
+	/**
+	 * Draws the walls that are visible in the screen columns from xmin to xmax, the background is not drawn.
+	 * Columns are independent of each other, so the view can be split into strips that are 
+	 * drawn by separate instances on separate threads, see ParallelFirstPersonDrawer.
+	 * Parameters are the same as for redraw.
+	 * @param xmin first screen column to draw
+	 * @param xmax last screen column to draw
+	 */
+	void drawWalls(int px, int py, int view_dx, int view_dy, int walk_step, int view_offset, RangeSet rset, int ang, 
+			int xmin, int xmax) {
 		this.rset = rset ;
 		this.view_dx = view_dx ;
 		this.view_dy = view_dy ;
@@ -139,15 +152,10 @@ public class FirstPersonDrawer extends DefaultViewer {
 		// calculate view
 		viewx = (px*map_unit+map_unit/2) + viewd_unscale(view_dx*(step_size*walk_step-view_offset));
 		viewy = (py*map_unit+map_unit/2) + viewd_unscale(view_dy*(step_size*walk_step-view_offset));
-		// update graphics
-		// draw background figure: black on bottom half, grey on top half
-		gc.setColor(Color.black);
-		gc.fillRect(0, 0, view_width, view_height/2);
-		gc.setColor(Color.darkGray);
-		gc.fillRect(0, view_height/2, view_width, view_height/2);
-		// set color to white and draw what ever can be seen from the current position
-		gc.setColor(Color.white);
-		rset.set(0, view_width-1); // reset set of ranges to set with single new element (0,width-1)
+		framePvs = pvs ;
+		if (null != framePvs)
+			pvsCell = framePvs.getCellIndex(Math.floorDiv(viewx, map_unit), Math.floorDiv(viewy, map_unit)) ;
+		rset.set(xmin, xmax); // reset set of ranges to set with single new element (xmin,xmax)
 		// debug: reset counters
 		traverse_node_ct = traverse_ssector_ct =
 			drawrect_ct = drawrect_late_ct = drawrect_segment_ct = 0;
@@ -155,6 +163,60 @@ public class FirstPersonDrawer extends DefaultViewer {
 		drawAllVisibleSectors(bsp_root);
 	}
 	
+	/**
+	 * Provides the set of nodes that are visible from each cell, subtrees that are not visible
+	 * from the current cell are skipped from the next frame on. 
+	 * Can be called from another thread once the set has been computed.
+	 * @param pvs potentially visible set for the tree of this drawer, null to draw without
+	 */
+	public void setPotentiallyVisibleSet(PotentiallyVisibleSet pvs) {
+		this.pvs = pvs ;
+	}
+	
+	///////////////// Methods that decide how a frame is put on the screen //////////////////
+	// Subclasses can override these to draw with a different backend, see RasterFirstPersonDrawer
+	/**
+	 * Prepares the given graphics object and draws the background of the frame.
+	 * @param gc graphics handler for the buffer image that this class draws on
+	 */
+	protected void beginFrame(Graphics gc) {
+		if (this.gc != gc) {
+			this.gc = (Graphics2D) gc ;
+			// became necessary when lines of polygons that were not horizontal or vertical
+			// looked ragged, only needs to be done once for a graphics object
+			this.gc.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+					RenderingHints.VALUE_ANTIALIAS_ON);
+			this.gc.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		}
+		// draw background figure: black on bottom half, grey on top half
+		gc.setColor(Color.black);
+		gc.fillRect(0, 0, view_width, view_height/2);
+		gc.setColor(Color.darkGray);
+		gc.fillRect(0, view_height/2, view_width, view_height/2);
+	}
+	
+	/**
+	 * Draws a visible part of a wall. The part covers the screen columns from xps[0] to xps[2]-1,
+	 * its upper edge runs from (xps[0],yps[0]) to (xps[3],yps[3]), 
+	 * its lower edge from (xps[1],yps[1]) to (xps[2],yps[2]).
+	 * @param xps x coordinates of the four corners, with xps[0] == xps[1] and xps[2] == xps[3]
+	 * @param yps y coordinates of the four corners
+	 * @param col color of the wall
+	 */
+	protected void fillWall(int[] xps, int[] yps, Color col) {
+		gc.setColor(col);
+		gc.fillPolygon(xps, yps, 4);
+	}
+	
+	/**
+	 * Completes the frame after all visible walls have been drawn.
+	 * @param gc graphics handler for the buffer image that this class draws on
+	 */
+	protected void endFrame(Graphics gc) {
+		// nothing to do, walls are drawn on gc directly
+	}
+	
 	////////////////////////////// internal, private methods ///////////////////////////////
 	/**
 	 * Recursive method to explore tree of BSP nodes and draw all segments in leaf nodes 
@@ -164,6 +226,10 @@ public class FirstPersonDrawer extends DefaultViewer {
 	private void drawAllVisibleSectors(BSPNode nn) {
 		traverse_node_ct++; // debug
 		
+		// a lazy node gets split when it is first reached with a visible bounding box
+		if (nn instanceof BSPLazyNode)
+			nn = ((BSPLazyNode) nn).expand();
+		
 		// Anchor, stop recursion at leaf nodes
 		if (nn.isIsleaf()) {
 			drawAllSegmentsOfASector((BSPLeaf) nn);
@@ -174,7 +240,7 @@ public class FirstPersonDrawer extends DefaultViewer {
 		BSPBranch n = (BSPBranch) nn;
 		
 		// debug code
-		if (deepdebug) {
+		if (DEEP_DEBUG) {
 			dbg("                               ".substring(0, nesting) +
 					"traverse_node "+n.getX()+" "+n.getY()+" "+n.getDx()+" "+n.getDy()+" "+
 					n.getLowerBoundX()+" "+n.getLowerBoundY()+" "+n.getUpperBoundX()+" "+n.getUpperBoundY());
@@ -215,6 +281,8 @@ public class FirstPersonDrawer extends DefaultViewer {
 		// check a few simple cases up front
 		if (rset.isEmpty())
 			return false;
+		if (null != framePvs && !framePvs.mayBeVisible(pvsCell, b))
+			return false;
 		if (angle >= 45 && angle <= 135 && viewy > ymax)
 			return false;
 		if (angle >= 225 && angle <= 315 && viewy < ymin)
@@ -250,8 +318,8 @@ public class FirstPersonDrawer extends DefaultViewer {
 		int rp1z = -viewd_unscale(view_dx*p1x+view_dy*p1y);
 		int rp2x = -viewd_unscale(view_dy*p2x-view_dx*p2y);
 		int rp2z = -viewd_unscale(view_dx*p2x+view_dy*p2y);
-		RangePair rp = new RangePair(rp1x, rp1z, rp2x, rp2z);
-		if (!clip3d(rp))
+		rp.set(rp1x, rp1z, rp2x, rp2z);
+		if (!clip3d(rp, clip))
 			return false;
 		int x1 = rp.x1*zscale/rp.z1+(view_width/2);
 		int x2 = rp.x2*zscale/rp.z2+(view_width/2);
@@ -260,8 +328,7 @@ public class FirstPersonDrawer extends DefaultViewer {
 			x1 = x2;
 			x2 = xj;
 		}
-		Point p = new Point(x1, x2);
-		return (rset.intersect(p));
+		return (rset.intersect(x1, x2));
 	}
 
 	/**
@@ -272,7 +339,7 @@ public class FirstPersonDrawer extends DefaultViewer {
 		ArrayList<Seg> sl = n.getSlist();
 		// debug
 		traverse_ssector_ct++;
-		if (deepdebug) {
+		if (DEEP_DEBUG) {
 			dbg("                               ".substring(0, nesting) +
 					"traverse_ssector "+n.getLowerBoundX()+" "+n.getLowerBoundY()+" "+n.getUpperBoundX()+" "+n.getUpperBoundY());
 		}
@@ -283,7 +350,7 @@ public class FirstPersonDrawer extends DefaultViewer {
 			// before: drawSegment(seg, seg.getStartPositionX(), seg.getStartPositionY(), seg.getEndPositionX(), seg.getEndPositionY());
 			drawSegment(seg);
 			// debug
-			if (deepdebug) {
+			if (DEEP_DEBUG) {
 				dbg("                               ".substring(0, nesting) +
 						" traverse_ssector(" + i +") "+
 						seg.getStartPositionX()+" "+seg.getStartPositionY()+" "+
@@ -310,9 +377,8 @@ public class FirstPersonDrawer extends DefaultViewer {
 		drawrect_ct++; // debug, counter
 		
 
-		System.err.println("segment viewx is " + viewx);
-		System.err.println("segment viewy is " + viewy);
-		System.err.println("segment viewz is " + viewz);
+		if (DEBUG)
+			dbg("segment view is " + viewx + "," + viewy + "," + viewz);
 		ox1 -= viewx; 
 		y1 -= viewy; 
 		z1 -= viewz;
@@ -331,14 +397,14 @@ public class FirstPersonDrawer extends DefaultViewer {
 		x2 = -viewd_unscale(view_dy*ox2-view_dx*y2);
 		z2 = -viewd_unscale(view_dx*ox2+view_dy*y2);
 
-		RangePair rp = new RangePair(x1, z1, x2, z2);
-		if (!clip3d(rp)){
-			System.err.println("Failed clip3d with " + x1 + "," + z1 + "," + x2 + "," + z2 + "\n");
+		rp.set(x1, z1, x2, z2);
+		if (!clip3d(rp, clip)){
+			if (DEBUG)
+				dbg("Failed clip3d with " + x1 + "," + z1 + "," + x2 + "," + z2);
 			return;
 		}
-		else{
-			System.out.println("Passed clip3d with " + x1 + "," + z1 + "," + x2 + "," + z2 + "\n");
-		}
+		if (DEBUG)
+			dbg("Passed clip3d with " + x1 + "," + z1 + "," + x2 + "," + z2);
 
 		y11 = y11*zscale/rp.z1+(view_height/2); // constant from here
 		y12 = y12*zscale/rp.z1+(view_height/2); // constant from here
@@ -347,40 +413,39 @@ public class FirstPersonDrawer extends DefaultViewer {
 		x1 = rp.x1*zscale/rp.z1+(view_width/2); // constant from here
 		x2 = rp.x2*zscale/rp.z2+(view_width/2); // constant from here
 		if (x1 >= x2) /* reject backfaces */{
-			System.err.println("Failed backface with " + x1 + "," + x2);
+			if (DEBUG)
+				dbg("Failed backface with " + x1 + "," + x2);
 			return;
 		}
-		else{
-			System.out.println("Passed backface with " + x1 + "," + x2);
-		}
+		if (DEBUG)
+			dbg("Passed backface with " + x1 + "," + x2);
 		int x1i = x1;
 		int xd = x2-x1;
-		gc.setColor(seg.getColor());
+		final Color col = seg.getColor();
 		boolean drawn = false;
 		drawrect_late_ct++; // debug, counter
 		// loop variable is x1i, upper limit x2 is fixed
-		System.out.println("seg Reached loop");
 		while (x1i <= x2) {
-			System.out.println("seg Entered loop");
-			
 			// check if there is an intersection, 
 			// if there is none proceed exit the loop, 
 			// if there is one, get it as (x1i,x2i)
-			Point p = new Point(x1i, x2);
-			if (!rset.intersect(p))
+			if (!rset.intersect(x1i, x2))
 				break;
-			x1i = p.x;
-			int x2i = p.y;
+			x1i = rset.getIntersectionMin();
+			int x2i = rset.getIntersectionMax();
 			// let's work on the intersection (x1i,x2i)
-			int[] xps = { x1i, x1i, x2i+1, x2i+1 };
-			int[] yps = { y11+(x1i-x1)*(y21-y11)/xd,
-					y12+(x1i-x1)*(y22-y12)/xd+1,
-					y22+(x2i-x2)*(y22-y12)/xd+1,
-					y21+(x2i-x2)*(y21-y11)/xd };
+			xps[0] = x1i;
+			xps[1] = x1i;
+			xps[2] = x2i+1;
+			xps[3] = x2i+1;
+			yps[0] = y11+(x1i-x1)*(y21-y11)/xd;
+			yps[1] = y12+(x1i-x1)*(y22-y12)/xd+1;
+			yps[2] = y22+(x2i-x2)*(y22-y12)/xd+1;
+			yps[3] = y21+(x2i-x2)*(y21-y11)/xd;
 			// debug
 			//System.out.println("polygon-x: " + xps[0] + ", " + xps[1] + ", " + xps[2] + ", " + xps[3]) ;
 			//System.out.println("polygon-y: " + yps[0] + ", " + yps[1] + ", " + yps[2] + ", " + yps[3]) ;
-			gc.fillPolygon(xps, yps, 4);
+			fillWall(xps, yps, col);
 			// for debugging purposes, code will draw a red line around polygon
 			// this makes individual segments visible
 			/*
@@ -400,7 +465,7 @@ public class FirstPersonDrawer extends DefaultViewer {
 		}
 	}
 	/**
-	 * Set the seencells bit for all cells of a segment
+	 * Adds the walls of all cells of a segment to seencells
 	 * @param seg segment (only read access)
 	 */
 	private void udpateSeenCellsForSegment(Seg seg) {
@@ -419,23 +484,17 @@ public class FirstPersonDrawer extends DefaultViewer {
 		if (sdy < 0)
 			sy--;
 		
-		// define constants to avoid method calls in following loop
-		final int sdsx = MazeBuilder.getSign(sdx); 
-		final int sdsy = MazeBuilder.getSign(sdy); 
-		CardinalDirection cd = (sdx != 0) ? CardinalDirection.North : CardinalDirection.West ;
+		// the segment covers len cells from (sx,sy) on in the direction of (sdx,sdy),
+		// these are the north walls of a range of a row or the west walls of a range of a column
 		final int len = Math.abs(sdx + sdy);  
-		Wall wall = new Wall(0,0,CardinalDirection.East) ; // values don't matter
-		// true loop variables are (sx,sy), a position in the maze	
-		for (int i = 0; i != len; i++) {
-			// cd is either NORTH or WEST
-			// so we basically add a wall NORTH or WEST
-			// but only from one side for the given cell (not its neighbor)
-			wall.setWall(sx, sy, cd);
-			seencells.addWall(wall, false) ;
-			// move to neighbor cell in the direction of the segment
-			sx += sdsx;
-			sy += sdsy;
-		}
+		if (sdx > 0)
+			seencells.addNorthWalls(sx, sy, len) ;
+		else if (sdx < 0)
+			seencells.addNorthWalls(sx-len+1, sy, len) ;
+		else if (sdy > 0)
+			seencells.addWestWalls(sx, sy, len) ;
+		else if (sdy < 0)
+			seencells.addWestWalls(sx, sy-len+1, len) ;
 	}
 	////////////////////////////// static methods that do not rely on instance fields //////
 	/**
@@ -447,25 +506,31 @@ public class FirstPersonDrawer extends DefaultViewer {
 		return x >> 16;
 	}
 	/**
-	 * Helper method for clip3d
+	 * Helper method for clip3d, restricts the range [t1,t2] of the clip parameter t such that
+	 * denom*t <= num holds. Parameters are exact fractions t1 = clip[0]/clip[1] and t2 = clip[2]/clip[3] 
+	 * with positive denominators, so no floating point math is needed.
 	 * @param denom
 	 * @param num
-	 * @param fp is a parameter whose internal attributes p1 and p2 may be modified
-	 * @return
+	 * @param clip holds t1 and t2, entries may be modified
+	 * @return false if the range becomes empty
 	 */
-	static private boolean clipt(int denom, int num, FloatPair fp) {
+	static private boolean clipt(int denom, int num, long[] clip) {
 		if (denom > 0) {
-			double t = num * 1.0 / denom;
-			if (t > fp.p2)
+			// t = num/denom
+			if (num * clip[3] > clip[2] * denom) // t > t2
 				return false;
-			if (t > fp.p1)
-				fp.p1 = t;	 // update fp
+			if (num * clip[1] > clip[0] * denom) { // t > t1
+				clip[0] = num;
+				clip[1] = denom;
+			}
 		} else if (denom < 0) {
-			double t = num * 1.0 / denom;
-			if (t < fp.p1)
+			// t = (-num)/(-denom) with a positive denominator
+			if (-num * clip[1] < clip[0] * -denom) // t < t1
 				return false;
-			if (t < fp.p2)
-				fp.p2 = t; // update fp
+			if (-num * clip[3] < clip[2] * -denom) { // t < t2
+				clip[2] = -num;
+				clip[3] = -denom;
+			}
 		} else if (num > 0)
 			return false;
 		return true;
@@ -476,6 +541,17 @@ public class FirstPersonDrawer extends DefaultViewer {
 	 * @return
 	 */
 	static protected boolean clip3d(RangePair rp) {
+		return clip3d(rp, new long[4]);
+	}
+	/**
+	 * Helper method for bbox_visible and drawrect that works on a given scratch array.
+	 * Clipping is done in integer arithmetic, the clip parameters are kept as exact fractions 
+	 * and clipped coordinates are truncated towards zero as a cast from double would do.
+	 * @param rp may be modified 
+	 * @param clip scratch array of length 4, is overwritten, passed in such that repeated calls do not allocate
+	 * @return
+	 */
+	static protected boolean clip3d(RangePair rp, long[] clip) {
 		int x1 = rp.x1, z1 = rp.z1, x2 = rp.x2, z2 = rp.z2;
 
 		if (z1 > -4 && z2 > -4)
@@ -486,24 +562,39 @@ public class FirstPersonDrawer extends DefaultViewer {
 			return false;
 		int dx = x2-x1;
 		int dz = z2-z1;
-		FloatPair fp = new FloatPair(0, 1);
-		if (!clipt(-dx-dz, x1+z1, fp))
+		// t1 = 0, t2 = 1
+		clip[0] = 0;
+		clip[1] = 1;
+		clip[2] = 1;
+		clip[3] = 1;
+		if (!clipt(-dx-dz, x1+z1, clip))
 			return false;
-		if (!clipt( dx-dz,-x1+z1, fp))
+		if (!clipt( dx-dz,-x1+z1, clip))
 			return false;
-		if (!clipt(-dz, z1-4, fp))
+		if (!clipt(-dz, z1-4, clip))
 			return false;
 		// update internals of parameter rp
-		if (fp.p2 < 1) {
-			rp.x2 = (int) (x1 + fp.p2*dx);
-			rp.z2 = (int) (z1 + fp.p2*dz);
+		if (clip[2] < clip[3]) { // t2 < 1
+			rp.x2 = clipCoordinate(x1, dx, clip[2], clip[3]);
+			rp.z2 = clipCoordinate(z1, dz, clip[2], clip[3]);
 		}
-		if (fp.p1 > 0) {
-			rp.x1 += fp.p1*dx;
-			rp.z1 += fp.p1*dz;
+		if (clip[0] > 0) { // t1 > 0
+			rp.x1 = clipCoordinate(x1, dx, clip[0], clip[1]);
+			rp.z1 = clipCoordinate(z1, dz, clip[0], clip[1]);
 		}
 		return true;
 	}
+	/**
+	 * Helper method for clip3d, computes c+t*dc for t = num/den exactly and truncates it towards zero.
+	 * @param c coordinate of start point
+	 * @param dc difference to coordinate of end point
+	 * @param num numerator of t
+	 * @param den positive denominator of t
+	 * @return clipped coordinate
+	 */
+	static private int clipCoordinate(int c, int dc, long num, long den) {
+		return (int) ((c * den + num * dc) / den); // division truncates towards zero
+	}
 	
 	/**
 	 * Helper method for debugging 
@@ -520,10 +611,13 @@ public class FirstPersonDrawer extends DefaultViewer {
 	class RangePair {
 	    public int x1, z1, x2, z2;
 	    RangePair(int xx1, int zz1, int xx2, int zz2) {
+		set(xx1, zz1, xx2, zz2);
+	    } 
+	    void set(int xx1, int zz1, int xx2, int zz2) {
 		x1 = xx1;
 		z1 = zz1;
 		x2 = xx2;
 		z2 = zz2;
-	    } 
+	    }
 	}
 }
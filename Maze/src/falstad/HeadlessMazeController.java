@@ -0,0 +1,117 @@
+package falstad;
+
+import falstad.Constants.StateGUI;
+import falstad.Robot.Turn;
+import generation.CardinalDirection;
+import generation.MazeConfiguration;
+
+/**
+ * Maze for robots that only keeps track of the position and direction, without graphics.
+ * A move or turn changes the pose right away, there are no frames, no animations and no locks,
+ * such that a run of a driver costs only the sensing and movement logic of the robot and the driver.
+ * This allows for evaluating drivers on many mazes, e.g. on a server without a display.
+ * 
+ * The pose follows the same conventions as the MazeController: the robot starts at the starting position
+ * of the maze facing east, a left turn decreases the angle and a right turn increases it.
+ * A robot and its driver are set up with it as with a MazeController, 
+ * robot.setMaze(controller) and driver.setupUsingMaze(controller).
+ * 
+ * @author Ben Zhang
+ *
+ */
+public class HeadlessMazeController implements RobotMaze {
+	private final MazeConfiguration mazeConfig;
+	private StateGUI state;
+	private int px, py; // current position
+	private int direction; // current direction as an index into Constants.DIRS_X, DIRS_Y and MASKS, 0 is east
+	private int moves; // number of moves made
+	private int rotations; // number of rotations made
+
+	/**
+	 * Constructor, places the robot at the starting position of the maze facing east and starts to play.
+	 * @param mazeConfig maze to operate in
+	 */
+	public HeadlessMazeController(MazeConfiguration mazeConfig) {
+		this.mazeConfig = mazeConfig;
+		reset();
+	}
+
+	/**
+	 * Places the robot at the starting position of the maze facing east and starts to play again.
+	 */
+	public void reset() {
+		final int[] start = mazeConfig.getStartingPosition();
+		px = start[0];
+		py = start[1];
+		direction = 0;
+		moves = 0;
+		rotations = 0;
+		state = StateGUI.STATE_PLAY;
+	}
+
+	@Override
+	public int[] getCurrentPosition() {
+		return new int[] { px, py };
+	}
+
+	@Override
+	public CardinalDirection getCurrentDirection() {
+		return CardinalDirection.East.getDirection(Constants.DIRS_X[direction], Constants.DIRS_Y[direction]);
+	}
+
+	@Override
+	public void walk(boolean backwards) {
+		final int a = backwards ? (direction+2) & 3 : direction;
+		if (!mazeConfig.getMazecells().hasMaskedBitsFalse(px, py, Constants.MASKS[a]))
+			return;
+		px += Constants.DIRS_X[a];
+		py += Constants.DIRS_Y[a];
+		moves++;
+	}
+
+	@Override
+	public void rotate(Turn turn) {
+		switch (turn) {
+		case LEFT:
+			direction = (direction+3) & 3;
+			break;
+		case RIGHT:
+			direction = (direction+1) & 3;
+			break;
+		case AROUND:
+			direction = (direction+2) & 3;
+			break;
+		}
+		rotations++;
+	}
+
+	@Override
+	public void checkFinished() {
+		if (!mazeConfig.isValidPosition(px, py))
+			state = StateGUI.STATE_FINISH;
+	}
+
+	@Override
+	public MazeConfiguration getMazeConfiguration() {
+		return mazeConfig;
+	}
+
+	@Override
+	public StateGUI getState() {
+		return state;
+	}
+
+	/**
+	 * @return number of moves made since the start
+	 */
+	public int getMoveCount() {
+		return moves;
+	}
+
+	/**
+	 * @return number of rotations made since the start
+	 */
+	public int getRotationCount() {
+		return rotations;
+	}
+}
@@ -0,0 +1,417 @@
+package falstad;
+
+import falstad.Constants.RenderMode;
+import falstad.Constants.StateGUI;
+import generation.MazeConfiguration;
+import generation.MazeFactory;
+import generation.Order;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders the first person view and the map of a maze into a BufferedImage instead of a MazePanel,
+ * such that frames can be drawn without a screen, e.g. with -Djava.awt.headless=true on a build machine.
+ * The renderer follows a scripted path of poses, measures the time it takes to draw each frame
+ * and optionally writes the frames as PNG files. Encoding a PNG takes much longer than drawing a frame,
+ * so the frames are copied and encoded by a pool of threads while the next frames are drawn.
+ * The pool only takes a few frames ahead, if it falls behind the rendering thread encodes as well,
+ * which keeps the memory bounded but is not counted in the render time of a frame.
+ *
+ * The first person view is drawn by the same drawers as in the MazeController, selected by the render mode.
+ * The map is drawn on top of it if the map mode is set.
+ *
+ * The main method renders the path from the starting position to the exit of a deterministic maze,
+ * see main for its parameters.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class HeadlessRenderer {
+	// steps of Constants.STEP_SIZE that make up a move from one cell to the next
+	private static final int WALK_STEPS = Constants.MAP_UNIT / Constants.STEP_SIZE;
+	// view directions of the angles of the poses, poses have angles in whole degrees
+	private static final ViewDirections DIRECTIONS = new ViewDirections(Constants.ROTATION_STEPS);
+
+	/**
+	 * Position and direction of a single frame with the same meaning as in the MazeController.
+	 */
+	public static final class Pose {
+		private final int x;
+		private final int y;
+		private final int angle;
+		private final int walkStep;
+
+		/**
+		 * Constructor
+		 * @param x cell on the horizontal axis
+		 * @param y cell on the vertical axis
+		 * @param angle direction of view in degrees, 0 is east, 90 is south
+		 * @param walkStep steps made from the cell in the direction of view, negative for steps backwards
+		 */
+		public Pose(int x, int y, int angle, int walkStep) {
+			this.x = x;
+			this.y = y;
+			this.angle = ((angle % 360) + 360) % 360;
+			this.walkStep = walkStep;
+		}
+
+		public int getX() {
+			return x;
+		}
+
+		public int getY() {
+			return y;
+		}
+
+		public int getAngle() {
+			return angle;
+		}
+
+		public int getWalkStep() {
+			return walkStep;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Pose))
+				return false;
+			Pose other = (Pose) obj;
+			return x == other.x && y == other.y && angle == other.angle && walkStep == other.walkStep;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((x*31 + y)*31 + angle)*31 + walkStep;
+		}
+
+		@Override
+		public String toString() {
+			return "(" + x + "," + y + ") " + angle + " degrees, step " + walkStep;
+		}
+	}
+
+	private final SeenWalls seencells;
+	private final Viewer firstPerson;
+	private final MapDrawer map;
+	private final BufferedImage image;
+	private final Graphics2D graphics; // reused for all frames
+	private final RangeSet rset = new RangeSet();
+
+	private boolean mapMode;
+	private boolean showMaze;
+	private boolean showSolution;
+
+	/**
+	 * Constructor
+	 * @param mazeConfig maze to draw
+	 * @param renderMode selects the drawer of the first person view
+	 * @param width of the image
+	 * @param height of the image
+	 */
+	public HeadlessRenderer(MazeConfiguration mazeConfig, RenderMode renderMode, int width, int height) {
+		seencells = new SeenWalls(mazeConfig.getWidth()+1, mazeConfig.getHeight()+1);
+		firstPerson = MazeController.createFirstPersonView(renderMode, mazeConfig, seencells, width, height);
+		map = new MapDrawer(width, height, Constants.MAP_UNIT, Constants.STEP_SIZE, seencells, 10, mazeConfig);
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+		// same hints as the buffer of the MazePanel
+		graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+	}
+
+	/**
+	 * Selects what is drawn on top of the first person view, as with the keys m, z and s in the MazeController.
+	 * @param mapMode true to draw the map
+	 * @param showMaze true to draw all walls of the map, otherwise only the walls that have been seen
+	 * @param showSolution true to draw the path to the exit on the map
+	 */
+	public void setMapMode(boolean mapMode, boolean showMaze, boolean showSolution) {
+		this.mapMode = mapMode;
+		this.showMaze = showMaze;
+		this.showSolution = showSolution;
+	}
+
+	/**
+	 * @return the image that holds the last frame, it is overwritten by the next frame
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Draws a single frame into the image.
+	 * @param pose position and direction to draw
+	 * @return time it took to draw the frame in nanoseconds
+	 */
+	public long render(Pose pose) {
+		final int viewdx = DIRECTIONS.getDx(DIRECTIONS.toSteps(pose.getAngle()));
+		final int viewdy = DIRECTIONS.getDy(DIRECTIONS.toSteps(pose.getAngle()));
+		final long begin = System.nanoTime();
+		firstPerson.redraw(graphics, StateGUI.STATE_PLAY, pose.getX(), pose.getY(), viewdx, viewdy,
+				pose.getWalkStep(), Constants.VIEW_OFFSET, rset, pose.getAngle());
+		if (mapMode) {
+			map.draw_map(graphics, pose.getX(), pose.getY(), pose.getWalkStep(), viewdx, viewdy, showMaze, showSolution);
+			map.draw_currentlocation(graphics, viewdx, viewdy);
+		}
+		return System.nanoTime() - begin;
+	}
+
+	/**
+	 * Draws a frame for each pose of the path. If a directory is given, frame i is written to it
+	 * as frame00000.png with i in place of the zeros, by the given number of encoding threads.
+	 * Returns when all frames have been drawn and written.
+	 * @param path poses to draw in order
+	 * @param directory to write the frames to, null to not write them
+	 * @param encoders number of threads that encode frames, at least 1, ignored without a directory
+	 * @return time it took to draw each frame in nanoseconds, in the order of the path
+	 * @throws IOException if a frame could not be written
+	 * @throws InterruptedException if the thread is interrupted while waiting for the frames to be written
+	 */
+	public long[] render(List<Pose> path, File directory, int encoders) throws IOException, InterruptedException {
+		final long[] nanos = new long[path.size()];
+		if (null == directory) {
+			for (int i = 0; i < nanos.length; i++)
+				nanos[i] = render(path.get(i));
+			return nanos;
+		}
+		if (encoders < 1)
+			throw new IllegalArgumentException("Number of encoders must be positive: " + encoders);
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create directory " + directory);
+		// a few frames per thread are queued, the rendering thread encodes the frame itself if the queue is full
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(encoders, encoders, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(2*encoders), new ThreadFactory() {
+			private int count = 0;
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "PNG encoder " + count++);
+				t.setDaemon(true);
+				return t;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+		final List<Future<Void>> written = new ArrayList<Future<Void>>(nanos.length);
+		try {
+			for (int i = 0; i < nanos.length; i++) {
+				nanos[i] = render(path.get(i));
+				final BufferedImage frame = copy();
+				final File file = new File(directory, String.format("frame%05d.png", i));
+				written.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						if (!ImageIO.write(frame, "png", file))
+							throw new IOException("No PNG writer available");
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : written)
+				f.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException("Writing a frame failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return nanos;
+	}
+
+	/**
+	 * @return a copy of the image that is not touched by the following frames
+	 */
+	private BufferedImage copy() {
+		final BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		final int[] src = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		final int[] dst = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+		System.arraycopy(src, 0, dst, 0, src.length);
+		return result;
+	}
+
+	/**
+	 * Turns a script of moves into the poses of its frames, starting at the starting position facing east.
+	 * The script consists of the characters f and b to move forward and backward by one cell and l and r
+	 * to rotate by 90 degrees, l increases the angle as the left arrow key in the MazeController does.
+	 * Each move or rotation takes the given number of frames, the first pose of the path is the starting position.
+	 * Moves into a wall are skipped as in the MazeController, the path ends when a move leaves the maze.
+	 * @param mazeConfig maze to move in
+	 * @param moves script of moves
+	 * @param framesPerMove number of frames for each move or rotation, at least 1
+	 * @return poses of the frames in order
+	 */
+	public static List<Pose> scriptPath(MazeConfiguration mazeConfig, String moves, int framesPerMove) {
+		if (framesPerMove < 1)
+			throw new IllegalArgumentException("Frames per move must be positive: " + framesPerMove);
+		final int[] start = mazeConfig.getStartingPosition();
+		int x = start[0];
+		int y = start[1];
+		int angle = 0;
+		final List<Pose> path = new ArrayList<Pose>();
+		path.add(new Pose(x, y, angle, 0));
+		for (int i = 0; i < moves.length(); i++) {
+			final char move = Character.toLowerCase(moves.charAt(i));
+			if ('l' == move || 'r' == move) {
+				final int turn = ('l' == move) ? 90 : -90;
+				for (int k = 1; k <= framesPerMove; k++)
+					path.add(new Pose(x, y, angle + turn*k/framesPerMove, 0));
+				angle = (angle + turn + 360) % 360;
+			}
+			else if ('f' == move || 'b' == move) {
+				final int dir = ('f' == move) ? 1 : -1;
+				// same check as in MazeController.checkMove
+				int a = angle/90;
+				if (-1 == dir)
+					a = (a+2) & 3;
+				if (!mazeConfig.getMazecells().hasMaskedBitsFalse(x, y, Constants.MASKS[a]))
+					continue;
+				// frames show the old position with the steps made so far, the last one the new position
+				for (int k = 1; k < framesPerMove; k++)
+					path.add(new Pose(x, y, angle, dir*(WALK_STEPS*k/framesPerMove)));
+				x += dir*Constants.DIRS_X[angle/90];
+				y += dir*Constants.DIRS_Y[angle/90];
+				if (!mazeConfig.isValidPosition(x, y))
+					break;
+				path.add(new Pose(x, y, angle, 0));
+			}
+			else
+				throw new IllegalArgumentException("Unknown move '" + moves.charAt(i) + "' in " + moves);
+		}
+		return path;
+	}
+
+	/**
+	 * Computes the script of moves that leads from the starting position out of the maze on the shortest path.
+	 * @param mazeConfig maze to move in
+	 * @return script of moves for scriptPath
+	 */
+	public static String movesToExit(MazeConfiguration mazeConfig) {
+		final StringBuilder moves = new StringBuilder();
+		final int[] start = mazeConfig.getStartingPosition();
+		int x = start[0];
+		int y = start[1];
+		int a = 0; // angle/90
+		while (mazeConfig.isValidPosition(x, y)) {
+			int next = -1;
+			// the exit cell has no neighbor that is closer, the opening to the outside is taken instead
+			final int[] closer = (1 == mazeConfig.getDistanceToExit(x, y)) ? null : mazeConfig.getNeighborCloserToExit(x, y);
+			for (int n = 0; n < 4 && next < 0; n++) {
+				final int nx = x + Constants.DIRS_X[n];
+				final int ny = y + Constants.DIRS_Y[n];
+				if (null != closer) {
+					if (nx == closer[0] && ny == closer[1])
+						next = n;
+				}
+				else if (!mazeConfig.isValidPosition(nx, ny) && mazeConfig.getMazecells().hasMaskedBitsFalse(x, y, Constants.MASKS[n]))
+					next = n; // at the exit, leave the maze
+			}
+			if (next < 0)
+				break; // no way out
+			switch ((next - a) & 3) {
+			case 1:
+				moves.append('l');
+				break;
+			case 2:
+				moves.append("ll");
+				break;
+			case 3:
+				moves.append('r');
+				break;
+			default:
+				break;
+			}
+			moves.append('f');
+			a = next;
+			x += Constants.DIRS_X[a];
+			y += Constants.DIRS_Y[a];
+		}
+		return moves.toString();
+	}
+
+	/**
+	 * Renders the path from the starting position to the exit of a deterministic maze and
+	 * prints the render time of each frame and a summary. Run with -Djava.awt.headless=true
+	 * on a machine without a screen.
+	 * @param args optional skill level in hex, f by default, optional render mode as for the
+	 * MazeApplication, java2d by default, optional directory for PNG frames, optional script of moves
+	 * instead of the path to the exit, optional "map" to draw the map with the solution on top
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		final int skill = (args.length > 0) ? Integer.parseInt(args[0], 16) : 15;
+		final RenderMode renderMode = RenderMode.forName((args.length > 1) ? args[1] : "java2d");
+		if (null == renderMode)
+			throw new IllegalArgumentException("Unknown render mode: " + args[1]);
+		final File directory = (args.length > 2 && !args[2].isEmpty()) ? new File(args[2]) : null;
+		final MazeConfiguration mazeConfig = generate(skill);
+		final String moves = (args.length > 3 && !args[3].isEmpty()) ? args[3] : movesToExit(mazeConfig);
+		final HeadlessRenderer renderer = new HeadlessRenderer(mazeConfig, renderMode,
+				Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT);
+		if (args.length > 4 && "map".equalsIgnoreCase(args[4]))
+			renderer.setMapMode(true, true, true);
+		final List<Pose> path = scriptPath(mazeConfig, moves, WALK_STEPS);
+		final long begin = System.nanoTime();
+		final long[] nanos = renderer.render(path, directory, Runtime.getRuntime().availableProcessors());
+		final long total = System.nanoTime() - begin;
+		for (int i = 0; i < nanos.length; i++)
+			System.out.println(String.format("frame %5d %-32s %8.3f ms", i, path.get(i), nanos[i] / 1e6));
+		final long[] sorted = nanos.clone();
+		Arrays.sort(sorted);
+		long sum = 0;
+		for (long n : sorted)
+			sum += n;
+		System.out.println("HeadlessRenderer: skill " + Integer.toHexString(skill) + ", " + renderMode + ", "
+				+ nanos.length + " frames"
+				+ String.format(", %.3f ms average, %.3f ms median, %.3f ms 95th percentile, %.3f ms max",
+						sum / 1e6 / Math.max(1, nanos.length),
+						sorted.length > 0 ? sorted[sorted.length/2] / 1e6 : 0.0,
+						sorted.length > 0 ? sorted[sorted.length*95/100] / 1e6 : 0.0,
+						sorted.length > 0 ? sorted[sorted.length-1] / 1e6 : 0.0)
+				+ ((null != directory) ? ", written to " + directory + " in " + total/1000000 + " ms" : ""));
+	}
+
+	/**
+	 * Generates a deterministic maze with the DFS builder.
+	 */
+	private static MazeConfiguration generate(final int skill) {
+		final MazeConfiguration[] result = new MazeConfiguration[1];
+		MazeFactory factory = new MazeFactory(true);
+		factory.order(new Order() {
+			@Override
+			public int getSkillLevel() {
+				return skill;
+			}
+			@Override
+			public Builder getBuilder() {
+				return Builder.DFS;
+			}
+			@Override
+			public boolean isPerfect() {
+				return false;
+			}
+			@Override
+			public void deliver(MazeConfiguration mazeConfig) {
+				result[0] = mazeConfig;
+			}
+			@Override
+			public void updateProgress(int percentage) {
+			}
+		});
+		factory.waitTillDelivered();
+		return result[0];
+	}
+}
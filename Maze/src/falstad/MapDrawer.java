@@ -5,10 +5,16 @@ package falstad;
 
 import falstad.Constants.StateGUI;
 import generation.CardinalDirection;
-import generation.Cells;
 import generation.MazeConfiguration;
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * This class encapsulates all functionality to draw a map of the overall maze, the set of visible walls, the solution.
@@ -31,7 +37,8 @@ public class MapDrawer extends DefaultViewer {
 	int map_unit = 128;
 	int map_scale = 10 ;
 	int step_size = map_unit/4;
-	Cells seencells ; 
+	SeenWalls seencells ; 
+	TileRevisions revisions ; // tell when cached images of the walls need to be drawn again
 
 	// contains all necessary information about current maze, i.e.
 	// cells: location of walls
@@ -41,6 +48,42 @@ public class MapDrawer extends DefaultViewer {
 
 	MazeController controller ;
 	
+	// cache of tiles with the walls of the map, see draw_tiles
+	boolean cacheTiles = true ;
+	private static final int TILE_PIXELS = 128 ; // minimum width and height of a tile
+	private static final int MAX_TILES = 64 ; // least recently used tiles are dropped beyond this number
+	private final Map<Integer, Tile> tiles = new LinkedHashMap<Integer, Tile>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest) {
+			return size() > MAX_TILES ;
+		}
+	};
+	private int tileScale ; // map scale the tiles are drawn at, 0 if there are none
+	private boolean tileShowMaze ;
+	private int tileSize ; // number of cells along a side of a tile
+	
+	// mipmaps of the walls of the whole map for scales below lodScale, see draw_mipmap,
+	// for those scales there is a level with as many pixels per cell, scaling a level would take longer
+	int lodScale = 3 ;
+	private static final int LOD_SCALE = 4 ; // pixels per cell of the first level
+	private BufferedImage[] mipmaps ; // level l has LOD_SCALE >> l pixels per cell, null until needed
+	private int[][] mipmapRevisions ; // revision of each region when it was drawn, -1 if it was not
+	private boolean mipmapShowMaze ;
+	
+	// path from the current position to the exit as a polyline of straight runs, see update_solution,
+	// vertex i is at (solution[2*i], solution[2*i+1]), vertex 0 is the exit and the last vertex the position
+	private int[] solution = new int[64] ;
+	private int solutionLength ; // number of vertices, 0 before the path is computed
+	
+	/**
+	 * The walls of a square of cells, drawn on a transparent image.
+	 */
+	private static final class Tile {
+		BufferedImage image ;
+		int revision ; // of the cells when the image was drawn
+	}
+	
 	/**
 	 * Constructor
 	 * @param width of display
@@ -51,16 +94,33 @@ public class MapDrawer extends DefaultViewer {
 	 * @param map_scale
 	 * @param c
 	 */
-	public MapDrawer(int width, int height, int map_unit, int step_size, Cells seencells, int map_scale, MazeController c){
+	public MapDrawer(int width, int height, int map_unit, int step_size, SeenWalls seencells, int map_scale, MazeController c){
 		//System.out.println("MapDrawer: using new maze config constructor") ;
+		this(width, height, map_unit, step_size, seencells, map_scale, c.getMazeConfiguration()) ;
+		controller = c ;
+	}
+	
+	/**
+	 * Constructor for a map without a controller, e.g. for the HeadlessRenderer.
+	 * The redraw method does not draw anything without a controller, 
+	 * the caller draws the map with draw_map and draw_currentlocation instead.
+	 * @param width of display
+	 * @param height of display
+	 * @param map_unit
+	 * @param step_size
+	 * @param seencells
+	 * @param map_scale
+	 * @param mazeConfig maze to draw
+	 */
+	public MapDrawer(int width, int height, int map_unit, int step_size, SeenWalls seencells, int map_scale, MazeConfiguration mazeConfig){
 		view_width = width ;
 		view_height = height ;
 		this.map_unit = map_unit ;
 		this.step_size = step_size ;
 		this.seencells = seencells ;
+		this.revisions = seencells ;
 		this.map_scale = map_scale ;
-		controller = c ;
-		mazeConfig = controller.getMazeConfiguration() ;
+		this.mazeConfig = mazeConfig ;
 		assert mazeConfig != null : "MapDrawer: maze configuration is null in given maze object!" ;
 	}
 	///////////////////// Methods to implement Viewer interface //////////////////////////////////////
@@ -130,34 +190,265 @@ public class MapDrawer extends DefaultViewer {
 		if (xmax >= mazew)  xmax = mazew;
 		if (ymax >= mazeh)  ymax = mazeh;
 		
-		// iterate over integer grid between min and max of x,y
-		for (int y = ymin; y <= ymax; y++)
-			for (int x = xmin; x <= xmax; x++) {
-				int nx1 = x*map_scale + offx;
-				int ny1 = view_height-1-(y*map_scale + offy);
-				int nx2 = nx1 + map_scale;
-				int ny2 = ny1 - map_scale;
-				boolean theCondition = (x >= mazew) ? false : ((y < mazeh) ?
-						mazeConfig.hasWall(x,y, CardinalDirection.North) :
-							mazeConfig.hasWall(x,y-1, CardinalDirection.South));
-
-				gc.setColor(seencells.hasWall(x,y, CardinalDirection.North) ? Color.white : Color.gray);
-				if ((seencells.hasWall(x,y, CardinalDirection.North) || showMaze) && theCondition)
-					gc.drawLine(nx1, ny1, nx2, ny1);
-				
-				theCondition = (y >= mazeh) ? false : ((x < mazew) ?
-						mazeConfig.hasWall(x,y, CardinalDirection.West) :
-							mazeConfig.hasWall((x-1),y, CardinalDirection.East));
-
-				gc.setColor(seencells.hasWall(x,y, CardinalDirection.West) ? Color.white : Color.gray);
-				if ((seencells.hasWall(x,y, CardinalDirection.West) || showMaze) && theCondition)
-					gc.drawLine(nx1, ny1, nx1, ny2);
-			}
+		if (map_scale < lodScale)
+			draw_mipmap(gc, xmin, xmax, ymin, ymax, offx, offy, showMaze) ;
+		else if (cacheTiles)
+			draw_tiles(gc, xmin, xmax, ymin, ymax, offx, offy, showMaze) ;
+		else
+			draw_walls(gc, xmin, xmax, ymin, ymax, offx, offy, map_scale, view_height-1, showMaze) ;
 		
 		if (showSolution) {
 			draw_solution(gc, offx, offy, px, py) ;
 		}
 	}
+	/**
+	 * Draws the walls on the north and west side of the cells in the given range, 
+	 * visible walls are drawn white, all other walls are drawn in grey if showMaze is true.
+	 * Neighboring walls of the same color along a row or column are merged into a single line,
+	 * the walls on the north side row by row, then the walls on the west side column by column.
+	 * If only visible walls are drawn, the cells in between are skipped with the iterators of seencells.
+	 * The cell (x,y) has its lower left corner at (x*scale + offx, bottom - (y*scale + offy)).
+	 * @param gc to draw on
+	 * @param scale pixels per cell
+	 * @param bottom row that corresponds to y = 0, the map is drawn upside down
+	 */
+	private void draw_walls(Graphics gc, int xmin, int xmax, int ymin, int ymax, int offx, int offy, int scale, int bottom, boolean showMaze) {
+		// walls on the north side, merged along each row
+		for (int y = ymin; y <= ymax; y++) {
+			final int ny1 = bottom-(y*scale + offy);
+			int start = -1; // first cell of the current run of walls, -1 if there is none
+			boolean startSeen = false; // color of the current run
+			for (int x = xmin; x <= xmax+1; x++) {
+				if (!showMaze && start < 0) {
+					// no run in progress: continue at the next visible wall of the row
+					final int next = seencells.nextNorthWall(x, y);
+					x = (next < 0 || next > xmax) ? xmax+1 : next;
+				}
+				final boolean seen = (x <= xmax) && seencells.hasNorthWall(x,y);
+				final boolean wall = (x <= xmax) && (seen || showMaze) && has_map_wall(x, y, CardinalDirection.North);
+				if (0 <= start && (!wall || seen != startSeen)) {
+					gc.setColor(startSeen ? Color.white : Color.gray);
+					gc.drawLine(start*scale + offx, ny1, x*scale + offx, ny1);
+					start = -1;
+				}
+				if (wall && start < 0) {
+					start = x;
+					startSeen = seen;
+				}
+			}
+		}
+		// walls on the west side, merged along each column
+		for (int x = xmin; x <= xmax; x++) {
+			final int nx1 = x*scale + offx;
+			int start = -1;
+			boolean startSeen = false;
+			for (int y = ymin; y <= ymax+1; y++) {
+				if (!showMaze && start < 0) {
+					final int next = seencells.nextWestWall(x, y);
+					y = (next < 0 || next > ymax) ? ymax+1 : next;
+				}
+				final boolean seen = (y <= ymax) && seencells.hasWestWall(x,y);
+				final boolean wall = (y <= ymax) && (seen || showMaze) && has_map_wall(x, y, CardinalDirection.West);
+				if (0 <= start && (!wall || seen != startSeen)) {
+					gc.setColor(startSeen ? Color.white : Color.gray);
+					gc.drawLine(nx1, bottom-(start*scale + offy), nx1, bottom-(y*scale + offy));
+					start = -1;
+				}
+				if (wall && start < 0) {
+					start = y;
+					startSeen = seen;
+				}
+			}
+		}
+	}
+	/**
+	 * Tells if the maze has a wall on the north or west side of the given cell. 
+	 * The cells one beyond the width and height of the maze have the walls on the east and south border.
+	 * @param dir North or West
+	 */
+	private boolean has_map_wall(int x, int y, CardinalDirection dir) {
+		final int mazew = mazeConfig.getWidth() ;
+		final int mazeh = mazeConfig.getHeight() ;
+		if (CardinalDirection.North == dir)
+			return (x >= mazew) ? false : ((y < mazeh) ?
+					mazeConfig.hasWall(x,y, CardinalDirection.North) :
+						mazeConfig.hasWall(x,y-1, CardinalDirection.South));
+		return (y >= mazeh) ? false : ((x < mazew) ?
+				mazeConfig.hasWall(x,y, CardinalDirection.West) :
+					mazeConfig.hasWall((x-1),y, CardinalDirection.East));
+	}
+	/**
+	 * Draws the walls of the cells in the given range with the tiles that cover them.
+	 * A tile holds the walls of tileSize times tileSize cells drawn at the current map scale
+	 * and is drawn again only if a cell of the tile has changed since, 
+	 * which is told by the revisions of its regions. The tiles are drawn row by row, 
+	 * the lines on the border of a tile end on the neighboring tile.
+	 */
+	private void draw_tiles(Graphics gc, int xmin, int xmax, int ymin, int ymax, int offx, int offy, boolean showMaze) {
+		if (tileScale != map_scale || tileShowMaze != showMaze) {
+			// tiles of a different scale or with other walls are of no use
+			tiles.clear() ;
+			tileScale = map_scale ;
+			tileShowMaze = showMaze ;
+			tileSize = 1 << revisions.getRegionShift() ;
+			while (tileSize*map_scale < TILE_PIXELS)
+				tileSize *= 2 ;
+		}
+		final int size = tileSize*map_scale + 1 ; // the lines on the far sides end on the next tile
+		final int columns = (mazeConfig.getWidth() + tileSize) / tileSize ;
+		for (int ty = ymin/tileSize; ty <= ymax/tileSize; ty++)
+			for (int tx = xmin/tileSize; tx <= xmax/tileSize; tx++) {
+				final int x0 = tx*tileSize ;
+				final int y0 = ty*tileSize ;
+				final int revision = getTileRevision(x0, y0) ;
+				final Integer key = ty*columns + tx ;
+				Tile tile = tiles.get(key) ;
+				if (null == tile || tile.revision != revision) {
+					if (null == tile) {
+						tile = new Tile() ;
+						tile.image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB) ;
+						tiles.put(key, tile) ;
+					}
+					Graphics2D tg = tile.image.createGraphics() ;
+					if (gc instanceof Graphics2D)
+						tg.setRenderingHints(((Graphics2D) gc).getRenderingHints()) ;
+					tg.setComposite(AlphaComposite.Clear) ;
+					tg.fillRect(0, 0, size, size) ;
+					tg.setComposite(AlphaComposite.SrcOver) ;
+					draw_walls(tg, x0, Math.min(x0+tileSize-1, mazeConfig.getWidth()), 
+							y0, Math.min(y0+tileSize-1, mazeConfig.getHeight()), 
+							-x0*map_scale, -y0*map_scale, map_scale, size-1, showMaze) ;
+					tg.dispose() ;
+					tile.revision = revision ;
+				}
+				gc.drawImage(tile.image, x0*map_scale + offx, view_height-1 - (y0*map_scale + offy) - (size-1), null) ;
+			}
+	}
+	/**
+	 * Draws the walls of the cells in the given range from a mipmap of the whole map, for scales where lines
+	 * of neighboring cells are only a few pixels apart. The first level is drawn with draw_walls at LOD_SCALE 
+	 * pixels per cell, such that it looks like the lines at that scale, each further level halves the first.
+	 * The level with the least pixels per cell that are still at least map_scale is drawn scaled to map_scale.
+	 * A region is drawn again in all levels when its revision has changed and it is visible,
+	 * so the time for a frame depends on the size of the view but not on the size of the maze.
+	 */
+	private void draw_mipmap(Graphics gc, int xmin, int xmax, int ymin, int ymax, int offx, int offy, boolean showMaze) {
+		final int shift = revisions.getRegionShift() ;
+		final int mazew = mazeConfig.getWidth() ;
+		final int mazeh = mazeConfig.getHeight() ;
+		if (null == mipmaps) {
+			int levels = 1 ;
+			while (1 < (LOD_SCALE >> (levels-1)))
+				levels++ ;
+			mipmaps = new BufferedImage[levels] ;
+			for (int l = 0; l < levels; l++)
+				mipmaps[l] = new BufferedImage(((mazew+1)*LOD_SCALE) >> l, ((mazeh+1)*LOD_SCALE) >> l, 
+						BufferedImage.TYPE_INT_ARGB_PRE) ; // whole cells, such that a level is half the previous one
+			mipmapRevisions = new int[(mazew >> shift) + 1][(mazeh >> shift) + 1] ;
+			mipmapShowMaze = !showMaze ;
+		}
+		if (mipmapShowMaze != showMaze) {
+			// all walls change
+			for (int[] column : mipmapRevisions)
+				Arrays.fill(column, -1) ;
+			mipmapShowMaze = showMaze ;
+		}
+		for (int ry = ymin >> shift; ry <= ymax >> shift; ry++)
+			for (int rx = xmin >> shift; rx <= xmax >> shift; rx++) {
+				final int revision = revisions.getRevision(rx << shift, ry << shift) ;
+				if (mipmapRevisions[rx][ry] != revision) {
+					update_mipmap(gc, rx, ry, showMaze) ;
+					mipmapRevisions[rx][ry] = revision ;
+				}
+			}
+		int level = 0 ;
+		while (level+1 < mipmaps.length && (LOD_SCALE >> (level+1)) >= map_scale)
+			level++ ;
+		final BufferedImage image = mipmaps[level] ;
+		final int unit = LOD_SCALE >> level ; // pixels per cell in the image
+		// the image is placed such that its last row is the row of y = 0, see draw_walls,
+		// only the visible part is drawn, aligned to whole cells such that its place on the screen is exact
+		final int top = view_height-1 - offy - mazeh*map_scale ;
+		final int cx1 = Math.max(0, -offx/map_scale - 1) ;
+		final int cx2 = Math.min(mazew+1, (view_width-offx)/map_scale + 1) ;
+		final int cy1 = Math.max(0, -top/map_scale - 1) ;
+		final int cy2 = Math.min(mazeh+1, (view_height-top)/map_scale + 1) ;
+		if (cx1 >= cx2 || cy1 >= cy2)
+			return ;
+		gc.drawImage(image, offx + cx1*map_scale, top + cy1*map_scale, offx + cx2*map_scale, top + cy2*map_scale, 
+				cx1*unit, cy1*unit, cx2*unit, cy2*unit, null) ;
+	}
+	/**
+	 * Draws the walls of a region again in the first level of the mipmaps
+	 * and computes the pixels of the further levels that depend on them.
+	 * @param gc provides the rendering hints
+	 * @param rx region on the horizontal axis
+	 * @param ry region on the vertical axis
+	 */
+	private void update_mipmap(Graphics gc, int rx, int ry, boolean showMaze) {
+		final int size = 1 << revisions.getRegionShift() ; // cells along a side of a region
+		final int mazew = mazeConfig.getWidth() ;
+		final int mazeh = mazeConfig.getHeight() ;
+		final int bottom = mazeh*LOD_SCALE ;
+		// pixels of the region, the cell (x,y) has its lower left corner at (x*LOD_SCALE, bottom - y*LOD_SCALE),
+		// a region has the lines on its left and lower side, right and top are exclusive,
+		// the regions on the border extend to the border of the image
+		int x1 = rx*size*LOD_SCALE ;
+		int x2 = Math.min(x1 + size*LOD_SCALE, mipmaps[0].getWidth()) ;
+		int y2 = (0 == ry) ? mipmaps[0].getHeight() : bottom - ry*size*LOD_SCALE + 1 ;
+		int y1 = Math.max(0, bottom - ry*size*LOD_SCALE + 1 - size*LOD_SCALE) ;
+		// clear the region and draw it with the cells around it, lines of neighboring cells may reach into it
+		Graphics2D g = mipmaps[0].createGraphics() ;
+		if (gc instanceof Graphics2D)
+			g.setRenderingHints(((Graphics2D) gc).getRenderingHints()) ;
+		g.clipRect(x1, y1, x2-x1, y2-y1) ;
+		g.setComposite(AlphaComposite.Clear) ;
+		g.fillRect(x1, y1, x2-x1, y2-y1) ;
+		g.setComposite(AlphaComposite.SrcOver) ;
+		draw_walls(g, Math.max(0, rx*size-1), Math.min(mazew, rx*size+size), Math.max(0, ry*size-1), Math.min(mazeh, ry*size+size), 
+				0, 0, LOD_SCALE, bottom, showMaze) ;
+		g.dispose() ;
+		// each pixel of a level is the average of the 2x2 pixels of the previous level,
+		// the colors are premultiplied with alpha so all channels are averaged alike
+		for (int l = 1; l < mipmaps.length; l++) {
+			final BufferedImage src = mipmaps[l-1] ;
+			final BufferedImage dst = mipmaps[l] ;
+			final int[] in = ((DataBufferInt) src.getRaster().getDataBuffer()).getData() ;
+			final int[] out = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData() ;
+			x1 = x1 >> 1 ;
+			y1 = y1 >> 1 ;
+			x2 = Math.min((x2+1) >> 1, dst.getWidth()) ;
+			y2 = Math.min((y2+1) >> 1, dst.getHeight()) ;
+			for (int y = y1; y < y2; y++)
+				for (int x = x1; x < x2; x++) {
+					int a = 0, r = 0, gr = 0, b = 0, n = 0 ;
+					for (int sy = 2*y; sy <= 2*y+1 && sy < src.getHeight(); sy++)
+						for (int sx = 2*x; sx <= 2*x+1 && sx < src.getWidth(); sx++) {
+							final int argb = in[sy*src.getWidth() + sx] ;
+							a += argb >>> 24 ;
+							r += (argb >> 16) & 0xff ;
+							gr += (argb >> 8) & 0xff ;
+							b += argb & 0xff ;
+							n++ ;
+						}
+					out[y*dst.getWidth() + x] = ((a/n) << 24) | ((r/n) << 16) | ((gr/n) << 8) | (b/n) ;
+				}
+		}
+	}
+	/**
+	 * @return sum of the revisions of the regions that make up the tile with the given corner, 
+	 * it changes if any of the regions changes
+	 */
+	private int getTileRevision(int x0, int y0) {
+		final int step = 1 << revisions.getRegionShift() ;
+		final int xend = Math.min(x0+tileSize, mazeConfig.getWidth()+1) ;
+		final int yend = Math.min(y0+tileSize, mazeConfig.getHeight()+1) ;
+		int revision = 0 ;
+		for (int y = y0; y < yend; y += step)
+			for (int x = x0; x < xend; x += step)
+				revision += revisions.getRevision(x, y) ;
+		return revision ;
+	}
 	/**
 	 * Draws an oval red shape with and arrow for the current position and direction on the maze.
 	 * It always reside on the center of the screen. The map drawing moves if the user changes location.
@@ -190,6 +481,8 @@ public class MapDrawer extends DefaultViewer {
 	 * Draws a yellow line to show the solution on the overall map. 
 	 * Method is only called if in STATE_PLAY and map_mode and showSolution are true.
 	 * Since the current position is fixed at the center of the screen, all lines on the map are drawn with some offset.
+	 * The path is kept as a polyline of straight runs from one frame to the next, see update_solution,
+	 * such that there is a line for each run instead of each cell.
 	 * @param gc to draw lines on
 	 * @param offx
 	 * @param offy
@@ -200,40 +493,133 @@ public class MapDrawer extends DefaultViewer {
 			dbg(" Parameter error: position out of bounds: (" + px + "," + py + ") for maze of size " + mazeConfig.getWidth() + "," + mazeConfig.getHeight()) ;
 			return ;
 		}
-		// current position on the solution path (sx,sy)
-		int sx = px;
-		int sy = py;
-		int distance = mazeConfig.getDistanceToExit(sx, sy);
+		update_solution(px, py) ;
 		
 		gc.setColor(Color.yellow);
 		
+		// from the current position, the last vertex, towards the exit, the first vertex
+		// scale coordinates, original calculation:
+		// x-coordinates
+		// nx1     == sx*map_scale + offx + map_scale/2;
+		// y-coordinates
+		// ny1     == view_height-1-(sy*map_scale + offy) - map_scale/2;
+		int nx1 = solution[2*solutionLength-2]*map_scale + offx + map_scale/2;
+		int ny1 = view_height-1-(solution[2*solutionLength-1]*map_scale + offy) - map_scale/2;
+		for (int i = solutionLength-2; i >= 0; i--) {
+			int nx2 = solution[2*i]*map_scale + offx + map_scale/2;
+			int ny2 = view_height-1-(solution[2*i+1]*map_scale + offy) - map_scale/2;
+			gc.drawLine(nx1, ny1, nx2, ny2);
+			nx1 = nx2;
+			ny1 = ny2;
+		}
+	}
+	/**
+	 * Brings the polyline of the solution up to date for the given position.
+	 * Moving by one cell along the path or onto a cell whose path leads through the current position 
+	 * only changes the last vertex or adds or removes one, any other change of position computes the path again.
+	 * @param px position on the horizontal axis
+	 * @param py position on the vertical axis
+	 */
+	private void update_solution(int px, int py) {
+		if (0 < solutionLength) {
+			final int last = solutionLength-1 ;
+			final int sx = solution[2*last] ;
+			final int sy = solution[2*last+1] ;
+			if (sx == px && sy == py)
+				return ;
+			if (1 < solutionLength) {
+				final int vx = solution[2*last-2] ;
+				final int vy = solution[2*last-1] ;
+				final int n = next_on_solution(sx, sy) ;
+				if (0 <= n && sx + Constants.DIRS_X[n] == px && sy + Constants.DIRS_Y[n] == py) {
+					// one cell closer to the exit on the last run
+					if (vx == px && vy == py)
+						solutionLength-- ;
+					else {
+						solution[2*last] = px ;
+						solution[2*last+1] = py ;
+					}
+					return ;
+				}
+			}
+			final int n = next_on_solution(px, py) ;
+			if (0 <= n && px + Constants.DIRS_X[n] == sx && py + Constants.DIRS_Y[n] == sy) {
+				// one cell further away from the exit, the path leads through the previous position
+				if (1 < solutionLength && Integer.signum(solution[2*last-2] - sx) == Constants.DIRS_X[n] 
+						&& Integer.signum(solution[2*last-1] - sy) == Constants.DIRS_Y[n]) {
+					// continues the last run
+					solution[2*last] = px ;
+					solution[2*last+1] = py ;
+				}
+				else
+					add_solution_vertex(px, py) ;
+				return ;
+			}
+		}
+		// compute the path from the position to the exit, collecting the cells where it turns,
+		// then reverse the vertices such that the exit comes first
+		solutionLength = 0 ;
+		add_solution_vertex(px, py) ;
+		int sx = px;
+		int sy = py;
+		int direction = -1 ;
 		// while we are more than 1 step away from the final position
-		while (distance > 1) {
+		while (mazeConfig.getDistanceToExit(sx, sy) > 1) {
 			// find neighbor closer to exit (with no wall in between)
-			int[] neighbor = mazeConfig.getNeighborCloserToExit(sx, sy) ;
-			if (null == neighbor)
-				return ; // error
-			// scale coordinates, original calculation:
-			// x-coordinates
-			// nx1     == sx*map_scale + offx + map_scale/2;
-			// nx1+ndx == sx*map_scale + offx + map_scale/2 + dx*map_scale == (sx+dx)*map_scale + offx + map_scale/2;
-			// y-coordinates
-			// ny1     == view_height-1-(sy*map_scale + offy) - map_scale/2;
-			// ny1+ndy == view_height-1-(sy*map_scale + offy) - map_scale/2 + -dy * map_scale == view_height-1 -((sy+dy)*map_scale + offy) - map_scale/2
-			// current position coordinates
-			int nx1 = sx*map_scale + offx + map_scale/2;
-			int ny1 = view_height-1-(sy*map_scale + offy) - map_scale/2;
-			// neighbor position coordinates
-			int nx2 = neighbor[0]*map_scale + offx + map_scale/2;
-			int ny2 = view_height-1-(neighbor[1]*map_scale + offy) - map_scale/2;
-			gc.drawLine(nx1, ny1, nx2, ny2);
-			
-			// update loop variables for current position (sx,sy) and distance d for next iteration
-			sx = neighbor[0];
-			sy = neighbor[1];
-			distance = mazeConfig.getDistanceToExit(sx, sy) ;
-
+			final int n = next_on_solution(sx, sy) ;
+			if (n < 0)
+				break ; // error
+			if (n != direction && 0 <= direction)
+				add_solution_vertex(sx, sy) ;
+			direction = n ;
+			sx += Constants.DIRS_X[n] ;
+			sy += Constants.DIRS_Y[n] ;
+		}
+		if (sx != px || sy != py)
+			add_solution_vertex(sx, sy) ;
+		for (int i = 0, j = solutionLength-1; i < j; i++, j--) {
+			final int x = solution[2*i] ;
+			final int y = solution[2*i+1] ;
+			solution[2*i] = solution[2*j] ;
+			solution[2*i+1] = solution[2*j+1] ;
+			solution[2*j] = x ;
+			solution[2*j+1] = y ;
+		}
+	}
+	/**
+	 * Adds a vertex at the end of the polyline of the solution.
+	 */
+	private void add_solution_vertex(int x, int y) {
+		if (2*solutionLength == solution.length)
+			solution = Arrays.copyOf(solution, 2*solution.length) ;
+		solution[2*solutionLength] = x ;
+		solution[2*solutionLength+1] = y ;
+		solutionLength++ ;
+	}
+	/**
+	 * Finds the neighbor closer to the exit with no wall in between, as MazeConfiguration.getNeighborCloserToExit
+	 * but without creating arrays.
+	 * @return index into Constants.DIRS_X and Constants.DIRS_Y for the direction of the neighbor, -1 if there is none
+	 */
+	private int next_on_solution(int x, int y) {
+		int dnext = mazeConfig.getDistanceToExit(x, y) ;
+		int result = -1 ;
+		for (int n = 0; n < 4; n++) {
+			if (mazeConfig.hasMaskedBitsTrue(x, y, Constants.MASKS[n]))
+				continue; // there is a wall
+			// no wall, let's check the distance
+			final int nx = x + Constants.DIRS_X[n] ;
+			final int ny = y + Constants.DIRS_Y[n] ;
+			if (!mazeConfig.isValidPosition(nx, ny))
+				continue; // the exit
+			final int dn = mazeConfig.getDistanceToExit(nx, ny) ;
+			if (dn < dnext) {
+				// update minimum
+				result = n ;
+				dnext = dn ;
+			}
 		}
+		return result ;
 	}
 	/**
 	 * Unscale value
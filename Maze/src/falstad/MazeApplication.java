@@ -31,6 +31,8 @@ public class MazeApplication extends JFrame {
 	private MazeController controller ;
 	private Robot robot;
 	private RobotDriver driver;
+	private Constants.RenderMode renderMode; // null for the default of the controller
+	private int turboActions; // actions of the driver per frame in turbo mode, 0 if turbo mode is off
 	
 	/**
 	 * Constructor
@@ -196,6 +198,22 @@ public class MazeApplication extends JFrame {
 				// manual operation
 			}
 			break;
+		case "r":
+			System.out.println("Parameter " + value + " used to select renderer for first person view.");
+			renderMode = Constants.RenderMode.forName(value);
+			if(null == renderMode){
+				System.out.println("Unrecognized renderer; using default.");
+			}
+			break;
+		case "t":
+			System.out.println("Parameter " + value + " used to set actions per frame of the driver in turbo mode.");
+			try{
+				turboActions = Math.max(0, Integer.parseInt(value));
+			}
+			catch(NumberFormatException e){
+				System.out.println("Unrecognized number of actions; turbo mode is off.");
+			}
+			break;
 		case "f":
 			if(controller != null){
 				System.err.println("Controller already set. Flag " + flag + " has no effect.");
@@ -224,6 +242,12 @@ public class MazeApplication extends JFrame {
 		if(this.driver != null){
 			controller.setDriver(driver);
 		}
+		if(this.renderMode != null){
+			controller.setRenderMode(renderMode);
+		}
+		if(this.turboActions > 0){
+			controller.setTurboMode(turboActions, Constants.TURBO_FRAMES_PER_SECOND);
+		}
 		
 		add(controller.getPanel()) ;
 		
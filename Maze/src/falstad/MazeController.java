@@ -1,18 +1,25 @@
 package falstad;
 
+import falstad.Constants.RenderMode;
 import falstad.Constants.StateGUI;
-import falstad.Robot.Turn;
 import generation.CardinalDirection;
+import generation.BSPLazyNode;
 import generation.Cells;
 import generation.Factory;
 import generation.MazeConfiguration;
 import generation.MazeContainer;
 import generation.MazeFactory;
 import generation.Order;
+import generation.PotentiallyVisibleSet;
 
 import java.awt.*;
-import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class handles the user interaction. 
@@ -24,10 +31,21 @@ import java.util.Iterator;
  * Paul Falstad granted permission to modify and use code for teaching purposes.
  * Refactored by Peter Kemper
  */
-public class MazeController implements Order {
+public class MazeController implements Order, RobotMaze {
 	
 	private static final boolean SUPPRESS_PRINT = true;
 	
+	// duration of the animation of a move or a quarter turn
+	static final long ANIMATION_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	// longest time a driver waits for the animation of its last action, such that a stuck frame does not stop it
+	private static final long ANIMATION_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+	// number of intermediate positions that a move shows, see walkStep
+	private static final int WALK_STEPS = 4;
+	// view directions for the angles that a rotation passes through
+	private static final ViewDirections DIRECTIONS = new ViewDirections(Constants.ROTATION_STEPS);
+	// number of key presses that may wait for the game loop, further key presses are dropped
+	private static final int COMMAND_CAPACITY = 8;
+	
 	// Follows a variant of the Model View Controller pattern (MVC).
 	// This class acts as the controller that gets user input and operates on the model.
 	// A MazeConfiguration acts as the model and this class has a reference to it.
@@ -36,14 +54,17 @@ public class MazeController implements Order {
 	// notifies them if user input requires updates on the UI.
 	// This is normally the task of the model in the MVC pattern.
 	
-	// views is the list of registered viewers that get notified
-	final private ArrayList<Viewer> views = new ArrayList<Viewer>() ; 
+	// views is the list of registered viewers that get notified,
+	// copied on registration such that a frame can iterate over it without holding the lock of the controller
+	final private CopyOnWriteArrayList<Viewer> views = new CopyOnWriteArrayList<Viewer>() ; 
+	// held while a frame is drawn, such that frames do not draw on the buffer graphics at the same time
+	final private Object frameLock = new Object() ;
 	// all viewers share access to the same graphics object, the panel, to draw on
 	private MazePanel panel ; 
 		
 
 	// state keeps track of the current GUI state, one of STATE_TITLE,...,STATE_FINISH, mainly used in redraw()
-	private StateGUI state;
+	private volatile StateGUI state;
 	// possible values are defined in Constants
 	// user can navigate 
 	// title -> generating -(escape) -> title
@@ -68,7 +89,26 @@ public class MazeController implements Order {
 	private int angle; // current viewing angle, east == 0 degrees
 	//static final int viewz = 50;    
 	private int walkStep; // counter for intermediate steps within a single step forward or backward
-	private Cells seencells; // a matrix with cells to memorize which cells are visible from the current point of view
+	
+	// animation of the last move or rotation, frames interpolate from this pose to the current one
+	private long animationStart; // System.nanoTime when the animation started
+	private long animationNanos; // duration of the animation, 0 if there is none
+	private int animationX, animationY; // position before a move
+	private int animationWalk; // 1 for a move forward, -1 for a move backward, 0 for a rotation
+	private int animationAngle; // angle before a rotation, may be outside of [0,360)
+	private int animationTurn; // change of angle during a rotation
+	// draws frames on a separate thread, null before init, then frames are drawn right away
+	private RenderScheduler renderScheduler;
+	// hands key presses over to the game loop, null before init, then keys are handled right away
+	private CommandQueue commandQueue;
+	// turbo mode while the driver drives: moves and rotations are not animated and a frame is only drawn
+	// after turboActions actions or turboNanos since the last one, both are 0 if turbo mode is off
+	private int turboActions;
+	private long turboNanos;
+	private int turboCount; // actions since the last frame in turbo mode
+	private long turboFrameTime; // System.nanoTime of the last frame in turbo mode
+	private volatile boolean driving; // true while the driver drives to the exit
+	private SeenWalls seencells; // memorizes which walls have been visible from the current point of view
 	// the FirstPersonDrawer obtains this information and the MapDrawer uses it for highlighting currently visible walls on the map
 
 	// about the maze and its generation
@@ -99,6 +139,17 @@ public class MazeController implements Order {
 	
 	// if there is a driver attempting to navigate, will go here
 	private RobotDriver driver;
+	
+	// selects the class that draws the first person view
+	private RenderMode renderMode = RenderMode.JAVA2D;
+	
+	// background thread to expand a lazily partitioned BSP tree ahead of the player, 
+	// only created for mazes that come with such a tree
+	private ExecutorService bspExpander;
+	
+	// background thread that provides the FirstPersonDrawer with a potentially visible set,
+	// replaced for every new maze
+	private Thread pvsBuilder;
 
 	
 	/**
@@ -171,6 +222,30 @@ public class MazeController implements Order {
 		rset = new RangeSet();
 		panel.initBufferImage() ;
 		addView(new MazeView(this)) ;
+		if (null == renderScheduler) {
+			renderScheduler = new RenderScheduler(new Runnable() {
+				@Override
+				public void run() {
+					drawFrame();
+				}
+			}, Constants.FRAMES_PER_SECOND);
+		}
+		renderScheduler.start();
+		if (null == commandQueue) {
+			commandQueue = new CommandQueue(new CommandQueue.Handler() {
+				@Override
+				public void execute(CommandQueue.Kind kind, int value) {
+					if (CommandQueue.Kind.ROTATE == kind) {
+						// the state may have changed since the rotation was queued
+						if (StateGUI.STATE_PLAY == state)
+							rotate(value);
+					}
+					else
+						handleKey(value);
+				}
+			}, COMMAND_CAPACITY);
+		}
+		commandQueue.start();
 		
 		// special case: load maze from file
 		if (null != filename) {
@@ -188,6 +263,14 @@ public class MazeController implements Order {
 		notifyViewerRedraw();
 	}
 	
+	/**
+	 * Selects how the first person view is drawn, takes effect with the next maze that is played.
+	 * @param renderMode Java2D polygons or direct pixel access with or without antialiasing or in parallel, or ray casting
+	 */
+	public void setRenderMode(RenderMode renderMode){
+		this.renderMode = renderMode;
+	}
+	
 	public void setDriver(RobotDriver driver){
 		this.driver = driver;
 	}
@@ -196,6 +279,31 @@ public class MazeController implements Order {
 		return this.driver;
 	}
 	
+	/**
+	 * Sets up turbo mode, which lets a driver move at the speed of its algorithm.
+	 * Without it, the driver waits for the animation of each move and rotation, see awaitDriverAnimation.
+	 * In turbo mode, moves and rotations of the driver are not animated, the driver does not wait, and a frame is drawn
+	 * only after the given number of actions or when the given frame rate calls for the next frame,
+	 * whichever comes first. Input from the keyboard is animated as usual.
+	 * @param actionsPerFrame number of moves and rotations per frame, 0 for no limit
+	 * @param framesPerSecond rate of frames, 0 for no limit, turbo mode is off if both are 0
+	 */
+	synchronized public void setTurboMode(int actionsPerFrame, int framesPerSecond){
+		if (actionsPerFrame < 0 || framesPerSecond < 0)
+			throw new IllegalArgumentException("Turbo mode needs non-negative limits: " + actionsPerFrame + ", " + framesPerSecond);
+		turboActions = actionsPerFrame;
+		turboNanos = (0 == framesPerSecond) ? 0 : TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+		turboCount = 0;
+	}
+	
+	/**
+	 * @return true if moves and rotations of a driver skip frames, see setTurboMode
+	 */
+	synchronized public boolean isInTurboMode(){
+		return 0 != turboActions || 0 != turboNanos;
+	}
+	
+	@Override
 	public MazeConfiguration getMazeConfiguration() {
 		return mazeConfig ;
 	}
@@ -286,14 +394,19 @@ public class MazeController implements Order {
 		cleanViews() ;
 		// register views for the new maze
 		// reset map_scale in mapdrawer to a value of 10
-		addView(new FirstPersonDrawer(Constants.VIEW_WIDTH,Constants.VIEW_HEIGHT, Constants.MAP_UNIT,
-				Constants.STEP_SIZE, seencells, mazeConfig.getRootnode())) ;
+		Viewer firstPerson = createFirstPersonView(renderMode, mazeConfig, seencells, 
+				Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT) ;
+		
+		addView(firstPerson) ;
+		if (firstPerson instanceof FirstPersonDrawer)
+			startPotentiallyVisibleSet((FirstPersonDrawer) firstPerson) ;
 		
 		// order of registration matters, code executed in order of appearance!
 		addView(new MapDrawer(Constants.VIEW_WIDTH,Constants.VIEW_HEIGHT,Constants.MAP_UNIT,
 				Constants.STEP_SIZE, seencells, 10, this)) ;
 
 		notifyViewerRedraw() ;
+		prefetchVisibleSectors() ;
 		
 		// start driver if one is set
 		System.out.println("Driving to exit.");
@@ -304,12 +417,19 @@ public class MazeController implements Order {
 					((BasicRobotDriver)driver).setupUsingMaze(this);
 					((BasicRobot)((BasicRobotDriver)driver).robot).reset();
 				}
+				driving = true;
+				turboFrameTime = System.nanoTime();
 				driver.drive2Exit();
 			}
 			catch(Exception e){
 				System.err.println("Robot was stopped!");
 				e.printStackTrace();
 			}
+			finally{
+				driving = false;
+				// turbo mode may have skipped the frame of the last action
+				notifyViewerRedraw();
+			}
 		}
 	}
 	/**
@@ -342,52 +462,125 @@ public class MazeController implements Order {
 	/**
 	 * Register a view
 	 */
-	public void addView(Viewer view) {
+	synchronized public void addView(Viewer view) {
 		views.add(view) ;
 	}
 	/**
 	 * Unregister a view
 	 */
-	public void removeView(Viewer view) {
+	synchronized public void removeView(Viewer view) {
 		views.remove(view) ;
 	}
 	/**
 	 * Remove obsolete FirstPersonDrawer and MapDrawer
 	 */
-	private void cleanViews() {
+	synchronized private void cleanViews() {
 		// go through views and remove viewers as needed
-		Iterator<Viewer> it = views.iterator() ;
-		while (it.hasNext())
+		for (Viewer v : views)
 		{
-			Viewer v = it.next() ;
 			if ((v instanceof FirstPersonDrawer)||(v instanceof MapDrawer))
 			{
-				it.remove() ;
+				views.remove(v) ;
 			}
 		}
 
 	}
 	/**
-	 * Notify all registered viewers to redraw their graphics
+	 * Creates the viewer that draws the first person view with the given render mode.
+	 * Shared with the HeadlessRenderer such that both draw the same way.
+	 * @param renderMode selects the drawer, see Constants.RenderMode
+	 * @param mazeConfig maze to draw
+	 * @param seencells memorizes which walls have been seen
+	 * @param width of display
+	 * @param height of display
+	 * @return a new drawer for the first person view
+	 */
+	static Viewer createFirstPersonView(RenderMode renderMode, MazeConfiguration mazeConfig, SeenWalls seencells, 
+			int width, int height) {
+		if (RenderMode.JAVA2D == renderMode) {
+			return new FirstPersonDrawer(width, height, Constants.MAP_UNIT,
+					Constants.STEP_SIZE, seencells, mazeConfig.getRootnode()) ;
+		}
+		else if (RenderMode.RAYCAST == renderMode) {
+			return new RaycastDrawer(width, height, Constants.MAP_UNIT,
+					Constants.STEP_SIZE, seencells, mazeConfig.getMazecells(), mazeConfig.getMazedists(), 
+					mazeConfig.getColchange()) ;
+		}
+		else if (RenderMode.RASTER_PARALLEL == renderMode) {
+			return new ParallelFirstPersonDrawer(width, height, Constants.MAP_UNIT,
+					Constants.STEP_SIZE, seencells, mazeConfig.getRootnode(), false, 
+					Runtime.getRuntime().availableProcessors()) ;
+		}
+		else {
+			return new RasterFirstPersonDrawer(width, height, Constants.MAP_UNIT,
+					Constants.STEP_SIZE, seencells, mazeConfig.getRootnode(), RenderMode.RASTER_AA == renderMode) ;
+		}
+	}
+	/**
+	 * Notify all registered viewers to redraw their graphics. 
+	 * Once the render scheduler runs, this only requests a frame and returns.
 	 */
 	private void notifyViewerRedraw() {
-		// go through views and notify each one
-		Iterator<Viewer> it = views.iterator() ;
-		while (it.hasNext())
-		{
-			Viewer v = it.next() ;
+		if (null != renderScheduler && renderScheduler.isRunning())
+			renderScheduler.requestFrame();
+		else
+			drawFrame();
+	}
+	/**
+	 * Draws a frame with all registered viewers, interpolates the pose if a move or rotation is animated.
+	 * Only the pose is read under the lock of the controller, the viewers draw without it, 
+	 * such that a move or rotation does not wait for a frame in progress.
+	 */
+	private void drawFrame() {
+		// commands that have been carried out by now are shown by this frame
+		final long begin = System.nanoTime();
+		// pose to draw
+		int x, y, step, ang, vdx, vdy;
+		synchronized (this) {
+			x = px;
+			y = py;
+			step = walkStep;
+			ang = angle;
+			vdx = viewdx;
+			vdy = viewdy;
+			final long elapsed = System.nanoTime() - animationStart;
+			if (elapsed < animationNanos) {
+				if (0 != animationWalk) {
+					// show the old position with the steps made so far, as many steps as walkStep takes in a move
+					x = animationX;
+					y = animationY;
+					step = animationWalk * (int) (WALK_STEPS * elapsed / animationNanos);
+				}
+				else {
+					// interpolate in steps of the table of view directions
+					final int turn = DIRECTIONS.toSteps(animationTurn);
+					final int s = DIRECTIONS.toSteps(animationAngle) + (int) (turn * elapsed / animationNanos);
+					ang = DIRECTIONS.toDegrees(s);
+					vdx = DIRECTIONS.getDx(s);
+					vdy = DIRECTIONS.getDy(s);
+				}
+			}
+		}
+		// the frame lock is only taken after the lock of the controller is released,
+		// a move that draws its frame itself holds the lock of the controller while it waits for the frame lock
+		synchronized (frameLock) {
+			// all viewers draw on the same graphics object of the buffer
 			Graphics g = panel.getBufferGraphics() ;
-			// viewers draw on the buffer graphics
 			if (null == g) {
 				if(!SUPPRESS_PRINT)
 					System.out.println("Maze.notifierViewerRedraw: can't get graphics object to draw on, skipping redraw operation") ;
+				return ;
 			}
-			else {
-			 v.redraw(g, state, px, py, viewdx, viewdy, walkStep, Constants.VIEW_OFFSET, rset, angle) ;
-			}	
+			// go through views and notify each one
+			for (Viewer v : views)
+			{
+				v.redraw(g, state, x, y, vdx, vdy, step, Constants.VIEW_OFFSET, rset, ang) ;
+			}
+			// update the screen with the buffer graphics
+			panel.update() ;
+			if (null != commandQueue)
+				commandQueue.frameDrawn(begin);
 		}
-		// update the screen with the buffer graphics
-		panel.update() ;
 	}
 	/** 
 	 * Notify all registered viewers to increment the map scale
@@ -400,8 +593,6 @@ public class MazeController implements Order {
 			Viewer v = it.next() ;
 			v.incrementMapScale() ;
 		}
-		// update the screen with the buffer graphics
-		panel.update() ;
 	}
 	/** 
 	 * Notify all registered viewers to decrement the map scale
@@ -414,8 +605,6 @@ public class MazeController implements Order {
 			Viewer v = it.next() ;
 			v.decrementMapScale() ;
 		}
-		// update the screen with the buffer graphics
-		panel.update() ;
 	}
 	////////////////////////////// get methods ///////////////////////////////////////////////////////////////
 	boolean isInMapMode() { 
@@ -445,13 +634,15 @@ public class MazeController implements Order {
 		dx = x ;
 		dy = y ;
 	}
-	protected int[] getCurrentPosition() {
+	@Override
+	public int[] getCurrentPosition() {
 		int[] result = new int[2];
 		result[0] = px;
 		result[1] = py;
 		return result;
 	}
-	protected CardinalDirection getCurrentDirection() {
+	@Override
+	public CardinalDirection getCurrentDirection() {
 		return CardinalDirection.East.getDirection(dx, dy);
 	}
 
@@ -469,9 +660,6 @@ public class MazeController implements Order {
 	}
 	
 	//////////////////////// Methods for move and rotate operations ///////////////
-	final double radify(int x) {
-		return x*Math.PI/180;
-	}
 	/**
 	 * Helper method for walk()
 	 * @param dir 1 for walking forwards; -1 for walking backwards
@@ -492,67 +680,176 @@ public class MazeController implements Order {
 	}
 	
 	/**
-	 * Redraw and wait, used to obtain a smooth appearance for rotate and move operations
-	 */
-	private void slowedDownRedraw() {
-		notifyViewerRedraw() ;
-		try {
-			Thread.currentThread().sleep(25);
-		} catch (Exception e) { }
-	}
-	/**
-	 * Intermediate step during rotation, updates the screen
+	 * Starts the animation of a move or rotation that has already been applied to the current pose.
+	 * The render scheduler draws the intermediate frames, without it the screen only shows the result.
+	 * @param walk 1 or -1 for a move from (fromX,fromY), 0 for a rotation
+	 * @param fromAngle angle before a rotation
+	 * @param turn change of angle during a rotation
 	 */
-	private void rotateStep() {
-		angle = (angle+1800) % 360;
-		viewdx = (int) (Math.cos(radify(angle))*(1<<16));
-		viewdy = (int) (Math.sin(radify(angle))*(1<<16));
-		slowedDownRedraw();
+	private void startAnimation(int fromX, int fromY, int walk, int fromAngle, int turn) {
+		animationX = fromX;
+		animationY = fromY;
+		animationWalk = walk;
+		animationAngle = fromAngle;
+		animationTurn = turn;
+		animationStart = System.nanoTime();
+		animationNanos = (0 != walk) ? ANIMATION_NANOS : ANIMATION_NANOS * Math.abs(turn) / 90;
+		if (driving && isInTurboMode()) {
+			// no animation, the next frame that is due shows the pose as it is
+			animationNanos = 0;
+			turboCount++;
+			final long now = System.nanoTime();
+			if ((0 != turboActions && turboCount >= turboActions) || (0 != turboNanos && now - turboFrameTime >= turboNanos)) {
+				turboCount = 0;
+				turboFrameTime = now;
+				notifyViewerRedraw();
+			}
+		}
+		else if (null != renderScheduler && renderScheduler.isRunning())
+			renderScheduler.animate(animationNanos);
+		else
+			drawFrame();
 	}
 	/**
-	 * Performs a rotation with 4 intermediate views, 
-	 * updates the screen and the internal direction
-	 * @param dir for current direction
+	 * Performs a rotation by a multiple of 90 degrees, 
+	 * updates the internal direction and starts an animation of the turn, returns immediately.
+	 * A new move or rotation replaces an animation that has not finished yet.
+	 * @param dir number of quarter turns, positive to increase the angle
 	 */
 	synchronized private void rotate(int dir) {
 		final int originalAngle = angle;
-		final int steps = 4;
-
-		for (int i = 0; i != steps; i++) {
-			// add 1/4 of 90 degrees per step 
-			// if dir is -1 then subtract instead of addition
-			angle = originalAngle + dir*(90*(i+1))/steps; 
-			rotateStep();
-		}
-		setCurrentDirection((int) Math.cos(radify(angle)), (int) Math.sin(radify(angle))) ;
+		angle = (originalAngle + dir*90 + 1800) % 360;
+		viewdx = DIRECTIONS.getDx(DIRECTIONS.toSteps(angle));
+		viewdy = DIRECTIONS.getDy(DIRECTIONS.toSteps(angle));
+		// quarter turns are exact in the table, the direction is a unit vector along an axis
+		setCurrentDirection(viewdx >> 16, viewdy >> 16) ;
+		startAnimation(px, py, 0, originalAngle, dir*90);
 		logPosition();
 	}
 	/**
-	 * Moves in the given direction with 4 intermediate steps,
-	 * updates the screen and the internal position
+	 * Moves one cell in the given direction,
+	 * updates the internal position and starts an animation of the move, returns immediately.
+	 * A new move or rotation replaces an animation that has not finished yet.
 	 * @param dir
 	 */
 	synchronized private void walk(int dir) {
 		if (!checkMove(dir))
 			return;
-		// walkStep is a parameter of the redraw method in FirstPersonDrawer
-		// it is used there for scaling steps
-		// so walkStep is implicitly used in slowedDownRedraw which triggers the redraw
-		// operation on all listed viewers
-		for (int step = 0; step != 4; step++) {
-			walkStep += dir;
-			slowedDownRedraw();
-		}
+		final int fromX = px;
+		final int fromY = py;
 		setCurrentPosition(px + dir*dx, py + dir*dy) ;
 		walkStep = 0;
+		// walkStep is a parameter of the redraw method in FirstPersonDrawer, 
+		// frames during the animation show the old position with walkStep going from 0 to 3 times dir
+		startAnimation(fromX, fromY, dir, angle, 0);
 		logPosition();
+		prefetchVisibleSectors() ;
+	}
+	
+	/**
+	 * Lets the driver wait until the animation of its last move or rotation has been shown,
+	 * such that the screen shows each of its actions, unless turbo mode is on. 
+	 * Keyboard input does not wait, a key press replaces an animation that has not finished yet.
+	 * Must not be called with the lock of the controller held, the frames need it to read the pose.
+	 */
+	private void awaitDriverAnimation() {
+		if (!driving || isInTurboMode() || null == renderScheduler)
+			return;
+		try {
+			renderScheduler.awaitAnimation(ANIMATION_TIMEOUT_NANOS, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * @return the scheduler that draws frames and keeps statistics on them, null before init
+	 */
+	public RenderScheduler getRenderScheduler() {
+		return renderScheduler;
+	}
+	
+	/**
+	 * @return the queue that hands key presses over to the game loop and keeps statistics on them, null before init
+	 */
+	public CommandQueue getCommandQueue() {
+		return commandQueue;
+	}
+	
+	/**
+	 * Provides the drawer with a potentially visible set once it is available. For a maze that is loaded 
+	 * from a file, the set is read from a file with the same name plus ".pvs" if there is one that was computed 
+	 * for this maze, see MazeFileWriter.storePotentiallyVisibleSet. Otherwise it is computed on a background thread,
+	 * no file gets written. A lazily partitioned tree is not fully expanded for the set, so the drawer goes without one.
+	 */
+	private void startPotentiallyVisibleSet(final FirstPersonDrawer drawer) {
+		if (null != pvsBuilder)
+			pvsBuilder.interrupt();
+		pvsBuilder = null;
+		if (mazeConfig.getRootnode() instanceof BSPLazyNode)
+			return;
+		final MazeConfiguration config = mazeConfig;
+		final String pvsFilename = (null != filename) ? filename + ".pvs" : null;
+		pvsBuilder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				PotentiallyVisibleSet pvs = null;
+				if (null != pvsFilename)
+					pvs = MazeFileReader.loadPotentiallyVisibleSet(pvsFilename, config.getRootnode(), 
+							config.getMazecells(), config.getWidth(), config.getHeight());
+				if (null == pvs) {
+					try {
+						pvs = PotentiallyVisibleSet.build(config.getRootnode(), config.getMazecells(), 
+								config.getWidth(), config.getHeight());
+					} catch (InterruptedException e) {
+						return; // maze was replaced
+					}
+				}
+				drawer.setPotentiallyVisibleSet(pvs);
+			}
+		}, "PVS builder");
+		pvsBuilder.setDaemon(true);
+		pvsBuilder.setPriority(Thread.MIN_PRIORITY);
+		pvsBuilder.start();
+	}
+	
+	/**
+	 * Expands lazy BSP nodes around the current position on a background thread
+	 * such that the FirstPersonDrawer finds them split when the player gets close.
+	 * Only the most recent request is kept if the thread falls behind.
+	 */
+	private void prefetchVisibleSectors() {
+		if (!(mazeConfig.getRootnode() instanceof BSPLazyNode))
+			return;
+		if (null == bspExpander) {
+			bspExpander = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, 
+					new ArrayBlockingQueue<Runnable>(1), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "BSP expander");
+					t.setDaemon(true);
+					return t;
+				}
+			}, new ThreadPoolExecutor.DiscardOldestPolicy());
+		}
+		final BSPLazyNode root = (BSPLazyNode) mazeConfig.getRootnode();
+		final int x = px*Constants.MAP_UNIT+Constants.MAP_UNIT/2;
+		final int y = py*Constants.MAP_UNIT+Constants.MAP_UNIT/2;
+		bspExpander.execute(new Runnable() {
+			@Override
+			public void run() {
+				root.expandAround(x, y, Constants.LAZY_BSP_PREFETCH_RADIUS);
+			}
+		});
 	}
 	
 	/**
-	 * Public exposure of {@link MazeController#rotate(int)} accepting a more clear argument
+	 * Public exposure of {@link MazeController#rotate(int)} accepting a more clear argument.
+	 * While the driver drives, returns once the rotation has been shown, see awaitDriverAnimation.
 	 * @param turn enum value representing in which way to turn
 	 */
-	synchronized public void rotate(Robot.Turn turn){
+	@Override
+	public void rotate(Robot.Turn turn){
 		switch(turn){
 		case LEFT:
 //			System.out.println("Turning 'left' (appears right in GUI)");
@@ -566,27 +863,30 @@ public class MazeController implements Order {
 			break;
 		case AROUND:
 //			System.out.println("Turning around");
-			rotate(-1);
-			rotate(-1); // TODO make sure this rotates around correctly
+			rotate(-2);
 			break;
 		default:
 			System.err.println("MazeController#rotate: Unexpected turn enum value");
 			break;
 		}
 		//System.out.println("Now direction is " + getCurrentDirection());
+		awaitDriverAnimation();
 	}
 	
 	/**
-	 * Public exposure of {@link MazeController#walk(int)} accepting a more clear argument
+	 * Public exposure of {@link MazeController#walk(int)} accepting a more clear argument.
+	 * While the driver drives, returns once the move has been shown, see awaitDriverAnimation.
 	 * @param backwards true to walk backwards; false to walk forwards
 	 */
-	synchronized public void walk(boolean backwards){
+	@Override
+	public void walk(boolean backwards){
 		if(backwards){
 			walk(-1);
 		}
 		else{
 			walk(1);
 		}
+		awaitDriverAnimation();
 	}
 
 	/**
@@ -602,6 +902,7 @@ public class MazeController implements Order {
 	/**
 	 * Checks if the current position is outside; if so, switches to finish screen.
 	 */
+	@Override
 	public void checkFinished(){
 		if (isOutside(px,py)) {
 			switchToFinishScreen();
@@ -609,10 +910,42 @@ public class MazeController implements Order {
 	}
 
 	/**
-	 * Method incorporates all reactions to keyboard input in original code, 
-	 * The simple key listener calls this method to communicate input.
+	 * Takes keyboard input, the simple key listener calls this method to communicate input.
+	 * Once the command queue runs, the key is queued for the game loop and the method returns immediately,
+	 * turns in the playing screen are queued as rotations such that consecutive turns are coalesced.
+	 * @return true
 	 */
 	public boolean keyDown(int key) {
+		if (null == commandQueue || !commandQueue.isRunning())
+			return handleKey(key);
+		final int turn = keyToQuarterTurns(key);
+		if (StateGUI.STATE_PLAY == state && 0 != turn) {
+			commandQueue.rotate(turn);
+			return true;
+		}
+		commandQueue.key(key);
+		return true;
+	}
+	
+	/**
+	 * Tells how a key turns in the playing screen, keyDown and handleKey both rely on it.
+	 * @return number of quarter turns for rotate(int), 0 if the key does not turn
+	 */
+	private static int keyToQuarterTurns(int key) {
+		switch (key) {
+		case Event.LEFT: case 'h': case '4':
+			return 1; // turn left, same as rotate(Turn.RIGHT)
+		case Event.RIGHT: case 'l': case '6':
+			return -1; // turn right, same as rotate(Turn.LEFT)
+		default:
+			return 0;
+		}
+	}
+	
+	/**
+	 * Method incorporates all reactions to keyboard input in original code.
+	 */
+	private boolean handleKey(int key) {
 		// possible inputs for key: unicode char value, 0-9, A-Z, Escape, 'k','j','h','l'
 		// depending on the current state of the GUI, inputs have different effects
 		// implemented as a little automaton that switches state and performs necessary actions
@@ -636,6 +969,11 @@ public class MazeController implements Order {
 			// react to input to display solution (on/off toggle switch)
 			// react to input to increase/reduce map scale
 		case STATE_PLAY:
+			if (0 != keyToQuarterTurns(key)) {
+				// turn left or right
+				rotate(keyToQuarterTurns(key));
+				break;
+			}
 			switch (key) {
 			case Event.UP: case 'k': case '8':
 				System.out.println("Position is " + getCurrentPosition()[0] + "," + getCurrentPosition()[1] );
@@ -645,14 +983,6 @@ public class MazeController implements Order {
 					switchToFinishScreen();
 				}
 				break;
-			case Event.LEFT: case 'h': case '4':
-				// turn left
-				rotate(Turn.RIGHT);
-				break;
-			case Event.RIGHT: case 'l': case '6':
-				// turn right
-				rotate(Turn.LEFT);
-				break;
 			case Event.DOWN: case 'j': case '2':
 				// move backward
 				walk(-1);
@@ -669,6 +999,7 @@ public class MazeController implements Order {
 				// go to position if within maze
 				if (mazeConfig.isValidPosition(px + dx, py + dy)) {
 					setCurrentPosition(px + dx, py + dy) ;
+					animationNanos = 0; // jump without animation
 					notifyViewerRedraw() ;
 				}
 				break;
@@ -694,12 +1025,12 @@ public class MazeController implements Order {
 			case '+': case '=':
 				// zoom into map
 				notifyViewerIncrementMapScale() ;
-				notifyViewerRedraw() ; // seems useless but it is necessary to make the screen update
+				notifyViewerRedraw() ; // the map scale only takes effect with the next frame
 				break ;
 			case '-':
 				// zoom out of map
 				notifyViewerDecrementMapScale() ;
-				notifyViewerRedraw() ; // seems useless but it is necessary to make the screen update
+				notifyViewerRedraw() ; // the map scale only takes effect with the next frame
 				break ;
 			} // end of internal switch statement for playing state
 			break ;
@@ -734,6 +1065,7 @@ public class MazeController implements Order {
 		return builder ;
 	}
 	
+	@Override
 	public StateGUI getState(){
 		return state;
 	}
@@ -754,7 +1086,7 @@ public class MazeController implements Order {
 		showSolution = false ;
 		mapMode = false;
 		// init data structure for visible walls
-		seencells = new Cells(mazeConfig.getWidth()+1,mazeConfig.getHeight()+1) ;
+		seencells = new SeenWalls(mazeConfig.getWidth()+1,mazeConfig.getHeight()+1) ;
 		// obtain starting position
 		int[] start = mazeConfig.getStartingPosition() ;
 		setCurrentPosition(start[0],start[1]) ;
@@ -764,6 +1096,7 @@ public class MazeController implements Order {
 		viewdy = dy<<16;
 		angle = 0; // angle matches with east direction, hidden consistency constraint!
 		walkStep = 0; // counts incremental steps during move/rotate operation
+		animationNanos = 0; // no animation
 		
 //		if(driver != null && driver instanceof BasicRobotDriver){
 //			((BasicRobotDriver)driver).reset();
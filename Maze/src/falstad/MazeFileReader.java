@@ -10,10 +10,15 @@ import generation.Cells;
 import generation.Distance;
 import generation.MazeConfiguration;
 import generation.MazeContainer;
+import generation.PotentiallyVisibleSet;
 import generation.Seg;
 
 import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -39,6 +44,7 @@ public class MazeFileReader {
 	private int rooms ;
 	private int[][] dists ;
 	private int expected_partiters ;
+	private int colchange ;
 	private Cells cells ;
 	private int startx ;
 	private int starty ;
@@ -65,9 +71,35 @@ public class MazeFileReader {
 		Distance dists = new Distance(getDistances()) ;
 		mazeConfig.setMazedists(dists);
 		mazeConfig.setRootnode(getRootNode());
+		mazeConfig.setColchange(getColchange());
 		mazeConfig.setStartingPosition(getStartX(), getStartY());
 		return mazeConfig;
 	}
+	/**
+	 * Reads a potentially visible set as written by MazeFileWriter.storePotentiallyVisibleSet.
+	 * @param filename of the file to read
+	 * @param root of the tree of segments that the set was computed for
+	 * @param cells walls of the maze
+	 * @param width of maze
+	 * @param height of maze
+	 * @return the set, null if there is no such file or it was not computed for this maze
+	 */
+	public static PotentiallyVisibleSet loadPotentiallyVisibleSet(String filename, BSPNode root, Cells cells, int width, int height) {
+		File file = new File(filename);
+		if (!file.isFile())
+			return null;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				return PotentiallyVisibleSet.read(in, root, cells, width, height);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			System.out.println("MazeFileReader.loadPotentiallyVisibleSet: ignoring " + filename + ": " + e.getMessage());
+			return null;
+		}
+	}
 	/////////////////// set of straightforward get methods //////////////
 	int getWidth() {
 		return width ;
@@ -84,6 +116,9 @@ public class MazeFileReader {
 	int getExpectedPartiters() {
 		return expected_partiters ;
 	}
+	int getColchange() {
+		return colchange ;
+	}
 	Cells getCells() {
 		return cells ;
 	}
@@ -134,6 +169,9 @@ public class MazeFileReader {
 					// read tree of BSPNodes
 					number = 0 ; // field used as an index, that is shared an updated across recursive readBSPNode calls
 					root = readBSPNode(eElement);
+					// older files do not have the colchange value, recover it from the colors of the segments
+					String cc = getElementStringValue("colchange", eElement);
+					colchange = cc.isEmpty() ? guessColchange(root) : Integer.parseInt(cc);
 				}
 			}
 		}
@@ -143,6 +181,44 @@ public class MazeFileReader {
 
 	}
 
+	/**
+	 * Determines a colchange value that reproduces the colors of all segments of the tree, 
+	 * for files that were written without it.
+	 * The color of a segment only depends on ((dist/32) ^ colchange) % 6, so a value that matches
+	 * a single segment may give other colors for other distances, hence a value is checked against every segment.
+	 * @param root of the tree
+	 * @return colchange value, 0 if no value reproduces all colors
+	 */
+	static int guessColchange(BSPNode root) {
+		ArrayList<Seg> segments = new ArrayList<Seg>() ;
+		collectSegments(root, segments) ;
+		for (int cc = 0 ; cc < 256 ; cc++) {
+			if (matchesColors(segments, cc))
+				return cc ;
+		}
+		System.out.println("MazeFileReader.guessColchange: no colchange value matches the colors of all segments") ;
+		return 0 ;
+	}
+	
+	private static void collectSegments(BSPNode n, ArrayList<Seg> segments) {
+		if (null == n)
+			return ;
+		if (n.isIsleaf()) {
+			segments.addAll(((BSPLeaf) n).getSlist()) ;
+			return ;
+		}
+		collectSegments(((BSPBranch) n).getLeftBranch(), segments) ;
+		collectSegments(((BSPBranch) n).getRightBranch(), segments) ;
+	}
+	
+	private static boolean matchesColors(ArrayList<Seg> segments, int cc) {
+		for (Seg se : segments) {
+			if (Seg.computeColor(se.getExtensionX(), se.getDistance(), cc).getRGB() != se.getColor().getRGB())
+				return false ;
+		}
+		return true ;
+	}
+
 	// shared index number for nodes in the tree of BSPNodes, used as an additional return value for recursive calls
 	// the sequence of values is increasing, when switching from a left branch to a right branch in a preorder treetraversal 
 	// we need to keep track of the node number 
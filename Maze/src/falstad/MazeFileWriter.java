@@ -6,8 +6,13 @@ package falstad;
 
 import generation.BSPNode;
 import generation.Cells;
+import generation.PotentiallyVisibleSet;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -35,7 +40,7 @@ public class MazeFileWriter {
 	/**
 	 * Write maze content to a file
 	 */
-	public static void store(String filename, int width, int height, int rooms, int expected_partiters, BSPNode root, Cells cells, int[][] dists, int startX, int startY)
+	public static void store(String filename, int width, int height, int rooms, int expected_partiters, BSPNode root, int colchange, Cells cells, int[][] dists, int startX, int startY)
 	{
 		 try {
 			 	// get a document 
@@ -45,7 +50,7 @@ public class MazeFileWriter {
 
 				 
 				// store data that characterizes the maze in the document
-				storeMaze(width, height, rooms, expected_partiters, root, cells, dists, startX, startY, doc);
+				storeMaze(width, height, rooms, expected_partiters, root, colchange, cells, dists, startX, startY, doc);
 				
 				// write the document content into resulting xml file
 				TransformerFactory transformerFactory = TransformerFactory.newInstance();
@@ -60,6 +65,26 @@ public class MazeFileWriter {
 				tfe.printStackTrace();
 			  }
 	}
+	/**
+	 * Write a potentially visible set to a file in its binary format, see PotentiallyVisibleSet.write.
+	 * Stored as the name of the maze file plus ".pvs", the MazeController reads it instead of computing 
+	 * the set again, as long as the walls and the tree of the maze are the same as when the set was computed.
+	 * @param filename of the file to write
+	 * @param pvs set to write
+	 */
+	public static void storePotentiallyVisibleSet(String filename, PotentiallyVisibleSet pvs)
+	{
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+			try {
+				pvs.write(out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+	}
 	/**
 	 * Store given objects in the given document
 	 * @param width
@@ -67,6 +92,7 @@ public class MazeFileWriter {
 	 * @param rooms
 	 * @param expected_partiters
 	 * @param root
+	 * @param colchange value that determines the colors of segments, see Seg.computeColor
 	 * @param cells
 	 * @param dists
 	 * @param startX
@@ -74,7 +100,7 @@ public class MazeFileWriter {
 	 * @param doc
 	 */
 	static void storeMaze(int width, int height, int rooms,
-			int expected_partiters, BSPNode root, Cells cells, int[][] dists,
+			int expected_partiters, BSPNode root, int colchange, Cells cells, int[][] dists,
 			int startX, int startY, Document doc) {
 		Element mazeXML = doc.createElement("Maze");
 		doc.appendChild(mazeXML);
@@ -84,6 +110,7 @@ public class MazeFileWriter {
 		MazeFileWriter.appendChild(doc, mazeXML, "sizeY", height) ;
 		MazeFileWriter.appendChild(doc, mazeXML, "roomNum", rooms) ;                 // TODO: check, unclear if this is truly necessary
 		MazeFileWriter.appendChild(doc, mazeXML, "partiters", expected_partiters) ;  // TODO: check, unclear if this is truly necessary
+		MazeFileWriter.appendChild(doc, mazeXML, "colchange", colchange) ;  // the RaycastDrawer colors walls with it
 		// cells
 		int number = 0 ;		
 		for ( int x = 0; x != width; x++) {
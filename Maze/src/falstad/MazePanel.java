@@ -1,12 +1,20 @@
 package falstad;
 
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Panel;
+import java.awt.RenderingHints;
+import java.awt.Toolkit;
+import java.awt.image.VolatileImage;
 
 /**
  * Add functionality for double buffering to an AWT Panel class.
  * Used for drawing a maze.
+ * The buffer is a VolatileImage if the platform supports one, such that it can stay in video memory
+ * and showing a frame is a copy within the graphics card. Its contents can get lost, e.g. when the 
+ * display mode changes, which is checked before each frame. All viewers draw on a single graphics object
+ * for the buffer that is kept until the buffer gets replaced. 
  * 
  * @author pk
  *
@@ -17,6 +25,7 @@ public class MazePanel extends Panel  {
 	 * for details
 	 */
 	private Image bufferImage ;
+	private Graphics2D bufferGraphics ; // graphics object for the buffer, reused for all frames
 	
 	private static final boolean SUPPRESS_PRINT = true;
 	
@@ -32,8 +41,20 @@ public class MazePanel extends Panel  {
 	public void update(Graphics g) {
 		paint(g) ;
 	}
+	/**
+	 * Shows the buffer image on the screen.
+	 */
 	public void update() {
-		paint(getGraphics()) ;
+		Graphics g = getGraphics() ;
+		if (null == g)
+			return ;
+		try {
+			paint(g) ;
+		} finally {
+			g.dispose() ;
+		}
+		// make the frame visible right away on platforms that buffer graphics commands
+		Toolkit.getDefaultToolkit().sync() ;
 	}
 	
 
@@ -47,13 +68,22 @@ public class MazePanel extends Panel  {
 			if(!SUPPRESS_PRINT)
 				System.out.println("MazePanel.paint: no graphics object, skipping drawImage operation") ;
 		}
-		else {
+		else if (null != bufferImage && !contentsLost()) {
 			g.drawImage(bufferImage,0,0,null) ;	
 		}
 	}
 
+	/**
+	 * Creates the buffer image, a VolatileImage if possible.
+	 */
 	public void initBufferImage() {
-		bufferImage = createImage(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT);
+		if (null != bufferGraphics) {
+			bufferGraphics.dispose() ;
+			bufferGraphics = null ;
+		}
+		bufferImage = createVolatileImage(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT);
+		if (null == bufferImage)
+			bufferImage = createImage(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT);
 		if (null == bufferImage)
 		{
 			if(!SUPPRESS_PRINT)
@@ -74,7 +104,37 @@ public class MazePanel extends Panel  {
 			initBufferImage() ;
 		if (null == bufferImage)
 			return null ;
-		return bufferImage.getGraphics() ;
+		if (bufferImage instanceof VolatileImage) {
+			switch (((VolatileImage) bufferImage).validate(getGraphicsConfiguration())) {
+			case VolatileImage.IMAGE_INCOMPATIBLE:
+				// e.g. the panel moved to another screen
+				initBufferImage() ;
+				break;
+			case VolatileImage.IMAGE_RESTORED:
+				// contents are lost, the frame that is about to be drawn replaces them
+				if (null != bufferGraphics) {
+					bufferGraphics.dispose() ;
+					bufferGraphics = null ;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		if (null == bufferGraphics) {
+			bufferGraphics = (Graphics2D) bufferImage.getGraphics() ;
+			// set once for all viewers, the first person view needs them for smooth edges
+			bufferGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON) ;
+			bufferGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR) ;
+		}
+		return bufferGraphics ;
+	}
+	
+	/**
+	 * @return true if the buffer is a VolatileImage that lost its contents since the last frame
+	 */
+	private boolean contentsLost() {
+		return (bufferImage instanceof VolatileImage) && ((VolatileImage) bufferImage).contentsLost() ;
 	}
 
 }
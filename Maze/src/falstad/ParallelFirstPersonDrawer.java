@@ -0,0 +1,140 @@
+package falstad;
+
+import falstad.Constants.StateGUI;
+import generation.BSPNode;
+import generation.PotentiallyVisibleSet;
+
+import java.awt.Graphics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A RasterFirstPersonDrawer that splits the view into vertical strips of columns and draws
+ * the strips in parallel. Once its range of columns is known, each screen column is independent
+ * of the others, so every strip traverses the BSP tree on its own with its own RangeSet
+ * that only covers the columns of the strip. The strips write into disjoint columns
+ * of the shared image, the background is drawn beforehand and the image is copied
+ * to the graphics object afterwards by the calling thread.
+ *
+ * A narrow strip also culls more of the tree, since its RangeSet empties sooner, so the
+ * traversal work per strip shrinks with its width. Threads come from a pool of daemon threads
+ * that is shared by all instances and has one thread per available processor.
+ *
+ * The MazeController uses this class for the render mode RASTER_PARALLEL, see Constants.RenderMode.
+ */
+public class ParallelFirstPersonDrawer extends RasterFirstPersonDrawer {
+	// shared by all instances, created on first use
+	private static ExecutorService pool;
+
+	private final List<Callable<Void>> tasks; // one task per strip, reused for every frame
+	private final RasterFirstPersonDrawer[] strips; // draw the strips
+
+	// parameters of the current frame, set by redraw before the tasks are started
+	private int px;
+	private int py;
+	private int view_dx;
+	private int view_dy;
+	private int walk_step;
+	private int view_offset;
+	private int ang;
+
+	/**
+	 * Constructor
+	 * @param width of display
+	 * @param height of display
+	 * @param map_unit
+	 * @param step_size
+	 * @param seencells
+	 * @param bsp_root
+	 * @param antialias true to blend the upper and lower edges of walls
+	 * @param strips number of strips the view is split into, at least 1 and at most width
+	 */
+	public ParallelFirstPersonDrawer(int width, int height, int map_unit, int step_size, SeenWalls seencells, BSPNode bsp_root,
+			boolean antialias, int strips) {
+		super(width, height, map_unit, step_size, seencells, bsp_root, antialias);
+		if (strips < 1 || strips > width)
+			throw new IllegalArgumentException("Number of strips must be between 1 and " + width + ": " + strips);
+		tasks = new ArrayList<Callable<Void>>(strips);
+		this.strips = new RasterFirstPersonDrawer[strips];
+		for (int i = 0; i < strips; i++) {
+			// strip i covers columns from width*i/strips to width*(i+1)/strips-1
+			final int xmin = width*i/strips;
+			final int xmax = width*(i+1)/strips-1;
+			final RasterFirstPersonDrawer strip = new RasterFirstPersonDrawer(width, height, map_unit, step_size,
+					seencells, bsp_root, antialias, getImage());
+			this.strips[i] = strip;
+			final RangeSet rset = new RangeSet();
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					strip.drawWalls(px, py, view_dx, view_dy, walk_step, view_offset, rset, ang, xmin, xmax);
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Draws the first person view with all strips in parallel, returns when the frame is complete.
+	 * The given rset is not used as each strip has its own.
+	 */
+	@Override
+	public void redraw(Graphics gc, StateGUI state, int px, int py, int view_dx, int view_dy, int walk_step, int view_offset, RangeSet rset, int ang) {
+		if (state != StateGUI.STATE_PLAY)
+			return ;
+		this.px = px;
+		this.py = py;
+		this.view_dx = view_dx;
+		this.view_dy = view_dy;
+		this.walk_step = walk_step;
+		this.view_offset = view_offset;
+		this.ang = ang;
+		beginFrame(gc);
+		try {
+			// submitting the tasks makes the parameters above visible to the pool threads,
+			// completion of the futures makes the pixels of all strips visible to this thread
+			for (Future<Void> f : getPool().invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException e) {
+			// keep the partial frame, let the caller see the interrupt
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Drawing a strip of the first person view failed", e.getCause());
+		}
+		endFrame(gc);
+	}
+
+	/**
+	 * Passes the set on to the drawers of the strips.
+	 */
+	@Override
+	public void setPotentiallyVisibleSet(PotentiallyVisibleSet pvs) {
+		super.setPotentiallyVisibleSet(pvs);
+		for (RasterFirstPersonDrawer strip : strips)
+			strip.setPotentiallyVisibleSet(pvs);
+	}
+
+	/**
+	 * @return the pool of threads that draw strips, one thread per available processor
+	 */
+	private static synchronized ExecutorService getPool() {
+		if (null == pool) {
+			pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private int count = 0;
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "First person strip " + count++);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+}
@@ -1,7 +1,6 @@
 package falstad;
 
 import java.awt.Point;
-import java.util.Vector;
 
 /**
  * Class stores a set of ranges, i.e., intervals. 
@@ -21,13 +20,20 @@ import java.util.Vector;
  */
 public class RangeSet {
 	
-	private Vector<RangeSetElement> ranges;
+	// ranges are stored as pairs of int values, range i is [ranges[2*i],ranges[2*i+1]]
+	// the array is not synchronized and only grows, such that steady use does not allocate
+	private int[] ranges;
+	private int size; // number of ranges in the set
+	// result of the last call to intersect(int,int)
+	private int intersectionMin;
+	private int intersectionMax;
 	
 	/**
 	 * Constructor
 	 */
 	public RangeSet() {
-		ranges = new Vector<RangeSetElement>();
+		ranges = new int[32];
+		size = 0;
 	}
 
 	/**
@@ -35,7 +41,7 @@ public class RangeSet {
 	 * @return true if the set is empty, false otherwise
 	 */
 	public boolean isEmpty() {
-		return ranges.isEmpty();
+		return size == 0;
 	}
 
 	/**
@@ -44,8 +50,9 @@ public class RangeSet {
 	 * @param mx maximum value for new element
 	 */
 	public void set(int mn, int mx) {
-		ranges.removeAllElements();
-		ranges.addElement(new RangeSetElement(mn, mx));
+		ranges[0] = mn;
+		ranges[1] = mx;
+		size = 1;
 	}
 
 	/**
@@ -63,75 +70,108 @@ public class RangeSet {
 		}
 		// check all elements of the set for an overlap with interval [fx,tx]
 		// assume that set is sorted in increasing order
-		for (int i = 0; i != ranges.size(); i++) {
-			RangeSetElement rse =
-				(RangeSetElement) ranges.elementAt(i);
-			if (rse.max < fx)
-				continue; // rse is below [fx,tx]
-			if (rse.min > tx)
-				return;   // rse is above [fx,tx]
-			if (fx <= rse.min) { 
-				if (rse.max <= tx) { // rse is inside [fx,tx]
-					ranges.removeElementAt(i--); // remove element, adjust index for iterating reduced set
+		for (int i = 0; i != size; i++) {
+			final int min = ranges[2*i];
+			final int max = ranges[2*i+1];
+			if (max < fx)
+				continue; // range is below [fx,tx]
+			if (min > tx)
+				return;   // range is above [fx,tx]
+			if (fx <= min) { 
+				if (max <= tx) { // range is inside [fx,tx]
+					removeAt(i--); // remove element, adjust index for iterating reduced set
 					continue;
 				}
-				rse.min = tx+1; // else, rse and [fx,tx] overlap, truncate intersection from rse from below
+				ranges[2*i] = tx+1; // else, range and [fx,tx] overlap, truncate intersection from range from below
 				return;
 			}
-			if (fx <= rse.max && tx >= rse.max) { // rse.min < fx <= rse.max <= tx
-				rse.max = fx-1; // rse and [fx,tx] overlap, truncate intersection from rse from above
+			if (fx <= max && tx >= max) { // min < fx <= max <= tx
+				ranges[2*i+1] = fx-1; // range and [fx,tx] overlap, truncate intersection from range from above
 				continue;
 			}
 			// if all conditions fail, then [fx,tx] lies inside the current interval
-			// split interval into two: [rse.min,fx-1] and [tx+1,rse.max]
-			RangeSetElement nrse = new RangeSetElement(rse.min, fx-1);
-			ranges.insertElementAt(nrse, i);
-			rse.min = tx+1;
+			// split interval into two: [min,fx-1] and [tx+1,max]
+			insertAt(i, min, fx-1);
+			ranges[2*i+2] = tx+1;
 			return;
 		}
 	}
+	
 	/**
-	 * Tells if there is at least one interval that intersects with [p.x,p.y]. It modifies attributes of p in case of an intersection. 
-	 * A point is used as a quick hack to communicate two integers and being able to return modified values in a boolean method.
-	 * @param p describes interval [p.x,p.y], its entries are modified to represent the intersection if there is one
+	 * Removes the range at the given index, shifting all following ranges down by one.
+	 */
+	private void removeAt(int i) {
+		System.arraycopy(ranges, 2*i+2, ranges, 2*i, 2*(size-i-1));
+		size--;
+	}
+	
+	/**
+	 * Inserts a range at the given index, shifting the range at that index and all following ranges up by one.
+	 */
+	private void insertAt(int i, int min, int max) {
+		if (2*size+2 > ranges.length) {
+			int[] tmp = new int[2*ranges.length];
+			System.arraycopy(ranges, 0, tmp, 0, 2*size);
+			ranges = tmp;
+		}
+		System.arraycopy(ranges, 2*i, ranges, 2*i+2, 2*(size-i));
+		ranges[2*i] = min;
+		ranges[2*i+1] = max;
+		size++;
+	}
+	
+	/**
+	 * Tells if there is at least one interval that intersects with [min,max]. 
+	 * If so, the intersection with the first such interval is available with
+	 * getIntersectionMin and getIntersectionMax until the next call.
+	 * This method does not allocate, so it can be called for every span that is drawn.
+	 * @param min lower bound of interval
+	 * @param max upper bound of interval
 	 * @return true if there is an intersection, false otherwise
 	 */
-	public boolean intersect(Point p) {
-		// "p" isn't (strictly speaking) a point, but I need to return two
-		// values here, and can't find a nicer way to do it.
-		int min = p.x;
-		int max = p.y;
+	public boolean intersect(int min, int max) {
 		// assume that set is sorted in increasing order
-		for (int i = 0; i != ranges.size(); i++) {
-			RangeSetElement rse = (RangeSetElement) ranges.elementAt(i);
-			if (rse.max < min) // current interval is below
+		for (int i = 0; i != size; i++) {
+			final int rmin = ranges[2*i];
+			final int rmax = ranges[2*i+1];
+			if (rmax < min) // current interval is below
 				continue; // this is a way to actually iterate over elements and skip
-			// so rse.max > min
-			if (rse.min > max) // current interval is above
+			// so rmax > min
+			if (rmin > max) // current interval is above
 				return false;
-			// at this point: min < rse.max and rse.min < max 
-			if (rse.min > min) // current interval overlaps
-				p.x = rse.min;
-			if (rse.max < max) // current interval is contained
-				p.y = rse.max;
+			// at this point: min < rmax and rmin < max 
+			intersectionMin = (rmin > min) ? rmin : min; // current interval overlaps
+			intersectionMax = (rmax < max) ? rmax : max; // current interval is contained
 			return true;
 		}
 		return false;
 	}
+	
+	/**
+	 * @return lower bound of the intersection found by the last successful call to intersect(int,int)
+	 */
+	public int getIntersectionMin() {
+		return intersectionMin;
+	}
+	
 	/**
-	 * Internal class to hold a pair of two elements
+	 * @return upper bound of the intersection found by the last successful call to intersect(int,int)
 	 */
-	class RangeSetElement {
-		public int min, max;
-
-		/**
-		 * Constructor
-		 * @param mn
-		 * @param mx
-		 */
-		RangeSetElement(int mn, int mx) {
-			min = mn;
-			max = mx;
-		}
+	public int getIntersectionMax() {
+		return intersectionMax;
+	}
+	
+	/**
+	 * Tells if there is at least one interval that intersects with [p.x,p.y]. It modifies attributes of p in case of an intersection. 
+	 * A point is used as a quick hack to communicate two integers and being able to return modified values in a boolean method.
+	 * @param p describes interval [p.x,p.y], its entries are modified to represent the intersection if there is one
+	 * @return true if there is an intersection, false otherwise
+	 */
+	public boolean intersect(Point p) {
+		if (!intersect(p.x, p.y))
+			return false;
+		p.x = intersectionMin;
+		p.y = intersectionMax;
+		return true;
 	}
 }
@@ -0,0 +1,169 @@
+package falstad;
+
+import generation.BSPNode;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * A FirstPersonDrawer that does not use Java2D to draw walls. Each visible part of a wall is a
+ * trapezoid whose left and right sides are vertical, so it is filled column by column with
+ * a simple loop that writes pixels into the int array of a TYPE_INT_RGB image.
+ * At the end of each frame the image is copied to the graphics object in a single drawImage call.
+ *
+ * Upper and lower edges of walls are interpolated in 16.16 fixed point. Without antialiasing,
+ * a pixel belongs to a wall if its center lies inside. With antialiasing, the pixels on the
+ * upper and lower edge are blended with the background according to how much of them is covered.
+ * The vertical sides are always on pixel boundaries and need no blending.
+ *
+ * The MazeController uses this class instead of the FirstPersonDrawer for the render modes
+ * RASTER and RASTER_AA, see Constants.RenderMode.
+ */
+public class RasterFirstPersonDrawer extends FirstPersonDrawer {
+	// colors of the background, same as in FirstPersonDrawer.beginFrame
+	private static final int CEILING = Color.black.getRGB() & 0xFFFFFF;
+	private static final int FLOOR = Color.darkGray.getRGB() & 0xFFFFFF;
+
+	private final int width;
+	private final int height;
+	private final boolean antialias;
+	private final BufferedImage image; // frame is drawn here
+	private final int[] pixels; // data buffer of image, pixel (x,y) is at index y*width+x
+
+	/**
+	 * Constructor
+	 * @param width of display
+	 * @param height of display
+	 * @param map_unit
+	 * @param step_size
+	 * @param seencells
+	 * @param bsp_root
+	 * @param antialias true to blend the upper and lower edges of walls
+	 */
+	public RasterFirstPersonDrawer(int width, int height, int map_unit, int step_size, SeenWalls seencells, BSPNode bsp_root,
+			boolean antialias) {
+		this(width, height, map_unit, step_size, seencells, bsp_root, antialias, 
+				new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+	}
+	
+	/**
+	 * Constructor for drawers that share an image, each drawing its own strip of columns.
+	 * @param image a TYPE_INT_RGB image of the given width and height
+	 */
+	RasterFirstPersonDrawer(int width, int height, int map_unit, int step_size, SeenWalls seencells, BSPNode bsp_root,
+			boolean antialias, BufferedImage image) {
+		super(width, height, map_unit, step_size, seencells, bsp_root);
+		this.width = width;
+		this.height = height;
+		this.antialias = antialias;
+		this.image = image;
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+	
+	/**
+	 * @return the image the frame is drawn on
+	 */
+	BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Draws the background into the pixel array.
+	 */
+	@Override
+	protected void beginFrame(Graphics gc) {
+		Arrays.fill(pixels, 0, width*(height/2), CEILING);
+		Arrays.fill(pixels, width*(height/2), width*height, FLOOR);
+	}
+
+	/**
+	 * Fills the wall column by column. Edges are evaluated at the center of each column.
+	 */
+	@Override
+	protected void fillWall(int[] xps, int[] yps, Color col) {
+		final int xl = xps[0];
+		final int xr = xps[2]; // exclusive
+		if (xr <= xl)
+			return;
+		final int rgb = col.getRGB() & 0xFFFFFF;
+		final int columns = xr - xl;
+		// edges in 16.16 fixed point, starting at the center of the first column
+		final int topStep = ((yps[3] - yps[0]) << 16) / columns;
+		final int bottomStep = ((yps[2] - yps[1]) << 16) / columns;
+		int top = (yps[0] << 16) + topStep/2;
+		int bottom = (yps[1] << 16) + bottomStep/2;
+		final int x0 = Math.max(xl, 0);
+		top += topStep * (x0 - xl);
+		bottom += bottomStep * (x0 - xl);
+		final int x1 = Math.min(xr, width);
+		for (int x = x0; x < x1; x++, top += topStep, bottom += bottomStep) {
+			if (antialias)
+				fillColumnAntialiased(x, top, bottom, rgb);
+			else
+				fillColumn(x, top, bottom, rgb);
+		}
+	}
+
+	/**
+	 * Fills the pixels of column x whose centers lie in [top,bottom).
+	 */
+	private void fillColumn(int x, int top, int bottom, int rgb) {
+		// first row with center >= top, first row with center >= bottom
+		int y0 = Math.max((top - 0x8000 + 0xFFFF) >> 16, 0);
+		int y1 = Math.min((bottom - 0x8000 + 0xFFFF) >> 16, height);
+		for (int i = y0*width + x, end = y1*width + x; i < end; i += width)
+			pixels[i] = rgb;
+	}
+
+	/**
+	 * Fills the pixels of column x that are covered by [top,bottom),
+	 * pixels that are partially covered are blended.
+	 */
+	private void fillColumnAntialiased(int x, int top, int bottom, int rgb) {
+		if (bottom <= top)
+			return;
+		int yTop = top >> 16;
+		int yBottom = bottom >> 16;
+		if (yTop == yBottom) {
+			// thinner than a pixel
+			blend(x, yTop, rgb, (bottom - top) >> 8);
+			return;
+		}
+		// coverage of the partially covered rows in 1/256
+		blend(x, yTop, rgb, 256 - ((top >> 8) & 0xFF));
+		blend(x, yBottom, rgb, (bottom >> 8) & 0xFF);
+		int y0 = Math.max(yTop + 1, 0);
+		int y1 = Math.min(yBottom, height);
+		for (int i = y0*width + x, end = y1*width + x; i < end; i += width)
+			pixels[i] = rgb;
+	}
+
+	/**
+	 * Blends the given color into pixel (x,y) with the given coverage in 1/256.
+	 */
+	private void blend(int x, int y, int rgb, int alpha) {
+		if (y < 0 || y >= height || alpha <= 0)
+			return;
+		final int i = y*width + x;
+		if (alpha >= 256) {
+			pixels[i] = rgb;
+			return;
+		}
+		final int dst = pixels[i];
+		final int beta = 256 - alpha;
+		final int rb = (((rgb & 0xFF00FF) * alpha + (dst & 0xFF00FF) * beta) >> 8) & 0xFF00FF;
+		final int g = (((rgb & 0x00FF00) * alpha + (dst & 0x00FF00) * beta) >> 8) & 0x00FF00;
+		pixels[i] = rb | g;
+	}
+
+	/**
+	 * Copies the finished frame to the graphics object.
+	 */
+	@Override
+	protected void endFrame(Graphics gc) {
+		gc.drawImage(image, 0, 0, null);
+	}
+}
@@ -0,0 +1,248 @@
+package falstad;
+
+import falstad.Constants.StateGUI;
+import generation.CardinalDirection;
+import generation.Cells;
+import generation.Distance;
+import generation.Seg;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Draws the first person view by casting one ray per screen column through the grid of cells.
+ * As the maze is a regular grid with walls on the borders of cells, a ray steps from cell border
+ * to cell border (digital differential analyzer) until it meets a wall. The perpendicular distance
+ * to that wall gives the height of the wall in that column. No BSP tree is needed, the drawer
+ * works on the cells and distances of a maze.
+ *
+ * The projection is the same as in the FirstPersonDrawer and walls get the colors that the
+ * BSPBuilder gives to the corresponding segments, see Seg.computeColor. A wall between two cells
+ * is represented by two segments that face in opposite directions, the one that is visible
+ * belongs to the cell the ray comes from.
+ * Pixels are written into the int array of a TYPE_INT_RGB image as in the RasterFirstPersonDrawer.
+ *
+ * The MazeController uses this class for the render mode RAYCAST, see Constants.RenderMode.
+ */
+public class RaycastDrawer extends DefaultViewer {
+	// colors of the background, same as in FirstPersonDrawer.beginFrame
+	private static final int CEILING = Color.black.getRGB() & 0xFFFFFF;
+	private static final int FLOOR = Color.darkGray.getRGB() & 0xFFFFFF;
+	// height of walls and of the viewer as in FirstPersonDrawer
+	private static final int WALL_HEIGHT = 100;
+	private static final int VIEW_Z = 50;
+	// minimum distance to a wall, as the near plane that clip3d uses in FirstPersonDrawer
+	private static final double NEAR = 4;
+
+	private final int view_width;
+	private final int view_height;
+	private final int map_unit;
+	private final int step_size;
+	private final int zscale;
+	private final SeenWalls seencells; // walls that have been visible
+	private final Cells mazecells; // walls of the maze
+	private final Distance dists; // distances to exit determine colors
+	private final int colchange; // determines colors, same value as for the segments of the maze
+	private final int mazeWidth;
+	private final int mazeHeight;
+
+	private final BufferedImage image; // frame is drawn here
+	private final int[] pixels; // data buffer of image, pixel (x,y) is at index y*view_width+x
+	// colors of walls by distance, index 0 for vertical and 1 for horizontal walls, filled on demand
+	private final int[][] colors;
+	// wall that the previous ray has met, neighboring columns mostly show the same wall
+	private int lastX = -1;
+	private int lastY = -1;
+	private CardinalDirection lastSide;
+	private int lastColor;
+
+	/**
+	 * Constructor
+	 * @param width of display
+	 * @param height of display
+	 * @param map_unit
+	 * @param step_size
+	 * @param seencells
+	 * @param mazecells walls of the maze
+	 * @param dists distances to the exit
+	 * @param colchange value that the BSPBuilder used for the colors of segments
+	 */
+	public RaycastDrawer(int width, int height, int map_unit, int step_size, SeenWalls seencells,
+			Cells mazecells, Distance dists, int colchange) {
+		view_width = width;
+		view_height = height;
+		this.map_unit = map_unit;
+		this.step_size = step_size;
+		zscale = view_height/2;
+		this.seencells = seencells;
+		this.mazecells = mazecells;
+		this.dists = dists;
+		this.colchange = colchange;
+		mazeWidth = dists.getDists().length;
+		mazeHeight = dists.getDists()[0].length;
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		// the maximum distance is not known for mazes that are read from a file
+		int maxDistance = 0;
+		for (int[] column : dists.getDists()) {
+			for (int d : column)
+				maxDistance = Math.max(maxDistance, d);
+		}
+		colors = new int[2][maxDistance+1];
+	}
+
+	/**
+	 * Draws the first person view on the screen during the game.
+	 * Parameters are the same as for FirstPersonDrawer.redraw, the rset is not used.
+	 */
+	@Override
+	public void redraw(Graphics gc, StateGUI state, int px, int py, int view_dx, int view_dy, int walk_step, int view_offset, RangeSet rset, int ang) {
+		if (state != StateGUI.STATE_PLAY)
+			return ;
+		// calculate view as in FirstPersonDrawer
+		final int viewx = (px*map_unit+map_unit/2) + ((view_dx*(step_size*walk_step-view_offset)) >> 16);
+		final int viewy = (py*map_unit+map_unit/2) + ((view_dy*(step_size*walk_step-view_offset)) >> 16);
+		// view direction and the direction to the right on the screen as unit vectors
+		final double fx = view_dx / 65536.0;
+		final double fy = view_dy / 65536.0;
+		final double rx = fy;
+		final double ry = -fx;
+
+		lastSide = null;
+		Arrays.fill(pixels, 0, view_width*(view_height/2), CEILING);
+		Arrays.fill(pixels, view_width*(view_height/2), view_width*view_height, FLOOR);
+		for (int x = 0; x < view_width; x++) {
+			// a ray through the center of the column, its component in view direction is 1,
+			// such that the ray parameter at a wall is the perpendicular distance to it
+			final double c = (x + 0.5 - view_width/2) / zscale;
+			castRay(x, viewx, viewy, fx + c*rx, fy + c*ry);
+		}
+		gc.drawImage(image, 0, 0, null);
+	}
+
+	/**
+	 * Follows a ray from the viewer until it meets a wall and draws the wall into the column.
+	 * @param column screen column
+	 * @param viewx x coordinate of viewer in map units
+	 * @param viewy y coordinate of viewer in map units
+	 * @param dx x direction of ray
+	 * @param dy y direction of ray
+	 */
+	private void castRay(int column, int viewx, int viewy, double dx, double dy) {
+		int cx = Math.floorDiv(viewx, map_unit);
+		int cy = Math.floorDiv(viewy, map_unit);
+		// ray parameter for crossing one cell in x and y direction
+		final double deltaX = (dx != 0) ? Math.abs(map_unit / dx) : Double.POSITIVE_INFINITY;
+		final double deltaY = (dy != 0) ? Math.abs(map_unit / dy) : Double.POSITIVE_INFINITY;
+		// ray parameter for the next vertical and horizontal border of a cell
+		double nextX = (dx < 0) ? (viewx - cx*map_unit) / -dx : (dx > 0) ? ((cx+1)*map_unit - viewx) / dx : Double.POSITIVE_INFINITY;
+		double nextY = (dy < 0) ? (viewy - cy*map_unit) / -dy : (dy > 0) ? ((cy+1)*map_unit - viewy) / dy : Double.POSITIVE_INFINITY;
+		final CardinalDirection sideX = (dx < 0) ? CardinalDirection.West : CardinalDirection.East;
+		final CardinalDirection sideY = (dy < 0) ? CardinalDirection.North : CardinalDirection.South;
+		final int stepX = (dx < 0) ? -1 : 1;
+		final int stepY = (dy < 0) ? -1 : 1;
+		while (cx >= 0 && cx < mazeWidth && cy >= 0 && cy < mazeHeight) {
+			if (nextX < nextY) {
+				if (mazecells.hasWall(cx, cy, sideX)) {
+					drawColumn(column, nextX, hitWall(cx, cy, sideX));
+					return;
+				}
+				cx += stepX;
+				nextX += deltaX;
+			}
+			else {
+				if (mazecells.hasWall(cx, cy, sideY)) {
+					drawColumn(column, nextY, hitWall(cx, cy, sideY));
+					return;
+				}
+				cy += stepY;
+				nextY += deltaY;
+			}
+		}
+		// the ray left the maze, e.g. through the exit, nothing to draw
+	}
+
+	/**
+	 * Records that a ray has met the wall of a cell.
+	 * @return rgb value of the color of the wall
+	 */
+	private int hitWall(int x, int y, CardinalDirection side) {
+		if (x != lastX || y != lastY || side != lastSide) {
+			lastX = x;
+			lastY = y;
+			lastSide = side;
+			lastColor = wallColor(x, y, side);
+			markSeen(x, y, side);
+		}
+		return lastColor;
+	}
+
+	/**
+	 * Fills the pixels of the column that show a wall at the given distance,
+	 * rows are the same as for a polygon of the FirstPersonDrawer.
+	 */
+	private void drawColumn(int column, double distance, int rgb) {
+		final double d = Math.max(distance, NEAR);
+		final double top = (VIEW_Z - WALL_HEIGHT) * zscale / d + view_height/2;
+		final double bottom = VIEW_Z * zscale / d + view_height/2 + 1;
+		// rows whose centers are within [top,bottom)
+		final int y0 = (int) Math.max(Math.ceil(top - 0.5), 0);
+		final int y1 = (int) Math.min(Math.ceil(bottom - 0.5), view_height);
+		for (int i = y0*view_width + column, end = y1*view_width + column; i < end; i += view_width)
+			pixels[i] = rgb;
+	}
+
+	/**
+	 * Determines the color of the segment that the BSPBuilder generates for a wall of the given cell.
+	 * A segment covers a run of walls on the same side of a row or column of cells and
+	 * takes its color from the distance of the first cell of the run.
+	 * @return rgb value of the color
+	 */
+	private int wallColor(int x, int y, CardinalDirection side) {
+		final boolean horizontal = (CardinalDirection.North == side || CardinalDirection.South == side);
+		// walk back to the first cell of the run, a run ends where a crossing wall starts
+		if (horizontal) {
+			while (x > 0 && mazecells.hasNoWall(x, y, CardinalDirection.West) && mazecells.hasWall(x-1, y, side))
+				x--;
+		}
+		else {
+			while (y > 0 && mazecells.hasNoWall(x, y, CardinalDirection.North) && mazecells.hasWall(x, y-1, side))
+				y--;
+		}
+		final int distance = dists.getDistance(x, y);
+		final int[] table = colors[horizontal ? 1 : 0];
+		if (distance < 0 || distance >= table.length)
+			return Seg.computeColor(horizontal ? 1 : 0, distance, colchange).getRGB() & 0xFFFFFF;
+		if (0 == table[distance]) {
+			// the alpha bit tells that the entry has been computed
+			table[distance] = Seg.computeColor(horizontal ? 1 : 0, distance, colchange).getRGB() | 0xFF000000;
+		}
+		return table[distance] & 0xFFFFFF;
+	}
+
+	/**
+	 * Records the wall in seencells in the same way as the FirstPersonDrawer does for a segment,
+	 * i.e. as the North wall of the cell below or the West wall of the cell to the right.
+	 */
+	private void markSeen(int x, int y, CardinalDirection side) {
+		switch (side) {
+		case South:
+			y++;
+			side = CardinalDirection.North;
+			break;
+		case East:
+			x++;
+			side = CardinalDirection.West;
+			break;
+		default:
+			break;
+		}
+		if (CardinalDirection.North == side)
+			seencells.addNorthWalls(x, y, 1);
+		else
+			seencells.addWestWalls(x, y, 1);
+	}
+}
@@ -0,0 +1,247 @@
+package falstad;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws frames on a dedicated thread with a fixed time step, such that the rate of frames does not
+ * depend on the callers that change what is shown. A caller requests a single frame with requestFrame
+ * or frames for a period of time with animate, both return immediately. A caller that wants an animation
+ * to be seen before it goes on waits for its last frame with awaitAnimation. The thread sleeps while
+ * there is nothing to draw.
+ *
+ * Frames are drawn at the ticks of a fixed rate. If drawing a frame takes longer than a tick,
+ * the ticks that have passed in the meantime are dropped and the next frame is drawn at the next tick,
+ * so the thread does not fall behind under load. The number of frames, the number of dropped ticks
+ * and the time it takes to draw a frame are recorded.
+ *
+ * The MazeController draws its viewers with a RenderScheduler and interpolates the position
+ * and direction for each frame while it moves or rotates.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class RenderScheduler {
+	private final Runnable frame; // draws a frame
+	private final long period; // nanoseconds between ticks
+
+	private final Object lock = new Object();
+	// guarded by lock
+	private boolean running;
+	private boolean requested; // true if a frame has to be drawn at the next tick
+	private long animationEnd; // frames are drawn at every tick before this time in System.nanoTime
+	private long lastFrameBegin; // System.nanoTime when the last frame that has been drawn began
+	private Thread thread;
+
+	// statistics, guarded by lock
+	private long frames;
+	private long droppedFrames;
+	private long totalNanos;
+	private long maxNanos;
+
+	/**
+	 * Constructor
+	 * @param frame draws a frame, is called on the thread of the scheduler
+	 * @param framesPerSecond rate of ticks
+	 */
+	public RenderScheduler(Runnable frame, int framesPerSecond) {
+		if (framesPerSecond < 1)
+			throw new IllegalArgumentException("Frames per second must be positive: " + framesPerSecond);
+		this.frame = frame;
+		period = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+	}
+
+	/**
+	 * Starts the thread that draws frames, does nothing if it is running.
+	 */
+	public void start() {
+		synchronized (lock) {
+			if (running)
+				return;
+			running = true;
+			animationEnd = System.nanoTime();
+			lastFrameBegin = animationEnd;
+			thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					loop();
+				}
+			}, "Render scheduler");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the thread that draws frames after the current frame.
+	 */
+	public void stop() {
+		synchronized (lock) {
+			running = false;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * @return true if the thread that draws frames is running
+	 */
+	public boolean isRunning() {
+		synchronized (lock) {
+			return running;
+		}
+	}
+
+	/**
+	 * Requests that a frame is drawn at the next tick. Several requests before that tick are served by a single frame.
+	 */
+	public void requestFrame() {
+		synchronized (lock) {
+			requested = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Requests frames at every tick for the given time from now on and one more frame
+	 * after it has passed, such that the last frame shows the end of the animation.
+	 * @param nanos duration of the animation in nanoseconds
+	 */
+	public void animate(long nanos) {
+		synchronized (lock) {
+			final long end = System.nanoTime() + nanos;
+			if (end - animationEnd > 0)
+				animationEnd = end;
+			requested = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until a frame has been drawn that began after the end of the current animation, 
+	 * i.e. until the animation has been shown completely. Returns right away if there is no animation
+	 * or the thread that draws frames is not running.
+	 * @param timeout maximum time to wait
+	 * @param unit of timeout
+	 * @return true if the animation has been shown or the thread does not run, false if the time has passed
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 */
+	public boolean awaitAnimation(long timeout, TimeUnit unit) throws InterruptedException {
+		final long end = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (lock) {
+			while (running && lastFrameBegin - animationEnd < 0) {
+				final long wait = end - System.nanoTime();
+				if (wait <= 0)
+					return false;
+				TimeUnit.NANOSECONDS.timedWait(lock, wait);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Draws frames at the ticks while there are requests.
+	 */
+	private void loop() {
+		long next = System.nanoTime(); // time of next tick
+		while (true) {
+			synchronized (lock) {
+				boolean idle = false;
+				while (running && !requested) {
+					idle = true;
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						running = false;
+					}
+				}
+				if (!running)
+					return;
+				// during an animation, frames keep being drawn until one has been drawn after its end
+				requested = System.nanoTime() - animationEnd < 0;
+				if (idle) {
+					// ticks are not counted as dropped while there was nothing to draw
+					next = Math.max(next, System.nanoTime());
+				}
+			}
+			final long wait = next - System.nanoTime();
+			if (wait > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				} catch (InterruptedException e) {
+					stop();
+					return;
+				}
+			}
+			final long begin = System.nanoTime();
+			frame.run();
+			final long end = System.nanoTime();
+			next += period;
+			synchronized (lock) {
+				frames++;
+				lastFrameBegin = begin;
+				lock.notifyAll();
+				totalNanos += end - begin;
+				maxNanos = Math.max(maxNanos, end - begin);
+				if (end - next > 0) {
+					// skip the ticks that have passed while drawing
+					final long missed = (end - next) / period + 1;
+					droppedFrames += missed;
+					next += missed * period;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of frames drawn since start or the last reset of the statistics
+	 */
+	public long getFrameCount() {
+		synchronized (lock) {
+			return frames;
+		}
+	}
+
+	/**
+	 * @return number of ticks that were dropped because a frame took too long
+	 */
+	public long getDroppedFrameCount() {
+		synchronized (lock) {
+			return droppedFrames;
+		}
+	}
+
+	/**
+	 * @return average time to draw a frame in nanoseconds, 0 if no frame has been drawn
+	 */
+	public long getAverageFrameNanos() {
+		synchronized (lock) {
+			return (0 == frames) ? 0 : totalNanos / frames;
+		}
+	}
+
+	/**
+	 * @return longest time to draw a frame in nanoseconds
+	 */
+	public long getMaxFrameNanos() {
+		synchronized (lock) {
+			return maxNanos;
+		}
+	}
+
+	/**
+	 * Resets the frame statistics.
+	 */
+	public void resetStatistics() {
+		synchronized (lock) {
+			frames = droppedFrames = totalNanos = maxNanos = 0;
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (lock) {
+			return "RenderScheduler: " + frames + " frames, " + droppedFrames + " dropped, "
+					+ String.format("%.2f ms average, %.2f ms max",
+							(0 == frames) ? 0.0 : totalNanos / 1e6 / frames, maxNanos / 1e6);
+		}
+	}
+}
@@ -173,7 +173,7 @@ public interface Robot {
 	 * @param maze is the current maze
 	 * @precondition maze != null, maze refers to a fully operational, configured maze configuration
 	 */
-	void setMaze(MazeController maze) ;
+	void setMaze(RobotMaze maze) ;
 	/**
 	 * Tells if current position is at the goal (the exit). Used to recognize termination of a search.
 	 * @return true if robot is at the goal, false otherwise
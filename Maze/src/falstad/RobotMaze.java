@@ -0,0 +1,50 @@
+package falstad;
+
+import falstad.Constants.StateGUI;
+import falstad.Robot.Turn;
+import generation.CardinalDirection;
+import generation.MazeConfiguration;
+
+/**
+ * Interface to specify the functionality of a maze that a robot operates in.
+ * A robot moves and turns in the maze and learns about its position, direction and surroundings
+ * through this interface, such that it does not depend on the graphics of the game.
+ * 
+ * Implementing classes: MazeController, which shows the moves of the robot on the screen,
+ * and HeadlessMazeController, which only keeps track of the position and direction for simulations.
+ * 
+ * @author Ben Zhang
+ *
+ */
+public interface RobotMaze {
+	/**
+	 * @return current position as (x,y) coordinates in an array of length 2 with [x,y], may be outside of the maze at the end
+	 */
+	int[] getCurrentPosition() ;
+	/**
+	 * @return direction the robot currently faces
+	 */
+	CardinalDirection getCurrentDirection() ;
+	/**
+	 * Moves one cell forwards or backwards if there is no wall in the way, does nothing otherwise.
+	 * @param backwards true to walk backwards; false to walk forwards
+	 */
+	void walk(boolean backwards) ;
+	/**
+	 * Turns on the current position.
+	 * @param turn enum value representing in which way to turn
+	 */
+	void rotate(Turn turn) ;
+	/**
+	 * Checks if the current position is outside; if so, the game is finished.
+	 */
+	void checkFinished() ;
+	/**
+	 * @return the maze that is operated in
+	 */
+	MazeConfiguration getMazeConfiguration() ;
+	/**
+	 * @return STATE_PLAY while the robot may operate, STATE_FINISH once it left the maze
+	 */
+	StateGUI getState() ;
+}
@@ -0,0 +1,456 @@
+package falstad;
+
+import generation.MazeConfiguration;
+import generation.MazeFactory;
+import generation.Order;
+import generation.Order.Builder;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets robot drivers compete on every combination of maze builders, skill levels and seeds.
+ * Each driver runs with a BasicRobot in a HeadlessMazeController, so a run costs only the logic
+ * of the robot and the driver, and the runs are spread over a pool of worker threads.
+ * The result of each run, whether the driver reached the exit, its path length, its energy consumption
+ * and the time it took, is written to a sink as soon as it is known, as a line of CSV or as a JSON object per line.
+ * The results are summed up per driver with percentiles, see Statistics.
+ *
+ * Mazes are generated with the shared SingleRandom, which is seeded for each maze such that a seed
+ * always gives the same maze. This is why the mazes are generated one after the other on the calling thread,
+ * each maze is handed to the workers for all drivers while the next one is generated.
+ *
+ * The main method runs a tournament from the command line, see main for its parameters.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class RobotTournament {
+
+	/**
+	 * Drivers that take part in a tournament.
+	 */
+	public enum Contestant {
+		WALL_FOLLOWER_LEFT("WallFollowerLeft"), WALL_FOLLOWER_RIGHT("WallFollowerRight"), WIZARD("Wizard");
+
+		private final String name;
+
+		Contestant(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return a new driver, drivers keep track of their runs and are not shared
+		 */
+		BasicRobotDriver createDriver() {
+			switch (this) {
+			case WALL_FOLLOWER_LEFT:
+				return new WallFollower(true);
+			case WALL_FOLLOWER_RIGHT:
+				return new WallFollower(false);
+			default:
+				return new Wizard();
+			}
+		}
+
+		/**
+		 * @return the contestant with the given name, case is ignored, null if there is none
+		 */
+		public static Contestant forName(String name) {
+			for (Contestant c : values()) {
+				if (c.name.equalsIgnoreCase(name))
+					return c;
+			}
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Formats of the sink.
+	 */
+	public enum Format { CSV, JSON }
+
+	/**
+	 * Result of a single run of a driver on a maze.
+	 */
+	public static final class Result {
+		/**
+		 * First line of a CSV sink.
+		 */
+		public static final String CSV_HEADER = "builder,skill,seed,driver,exit,pathLength,energy,nanos";
+
+		private final Builder builder;
+		private final int skill;
+		private final int seed;
+		private final Contestant contestant;
+		private final boolean exit;
+		private final int pathLength;
+		private final float energy;
+		private final long nanos;
+
+		Result(Builder builder, int skill, int seed, Contestant contestant, boolean exit, int pathLength, float energy, long nanos) {
+			this.builder = builder;
+			this.skill = skill;
+			this.seed = seed;
+			this.contestant = contestant;
+			this.exit = exit;
+			this.pathLength = pathLength;
+			this.energy = energy;
+			this.nanos = nanos;
+		}
+
+		public Builder getBuilder() {
+			return builder;
+		}
+
+		public int getSkill() {
+			return skill;
+		}
+
+		public int getSeed() {
+			return seed;
+		}
+
+		public Contestant getContestant() {
+			return contestant;
+		}
+
+		/**
+		 * @return true if the driver reached the exit, false if the robot stopped or the driver gave up
+		 */
+		public boolean isExit() {
+			return exit;
+		}
+
+		public int getPathLength() {
+			return pathLength;
+		}
+
+		public float getEnergy() {
+			return energy;
+		}
+
+		/**
+		 * @return wall-clock time of the run in nanoseconds
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * @return the result as a line of CSV in the columns of CSV_HEADER
+		 */
+		public String toCsv() {
+			return String.format(Locale.ROOT, "%s,%d,%d,%s,%b,%d,%.2f,%d",
+					builder, skill, seed, contestant, exit, pathLength, energy, nanos);
+		}
+
+		/**
+		 * @return the result as a JSON object on a single line
+		 */
+		public String toJson() {
+			return String.format(Locale.ROOT,
+					"{\"builder\":\"%s\",\"skill\":%d,\"seed\":%d,\"driver\":\"%s\",\"exit\":%b,\"pathLength\":%d,\"energy\":%.2f,\"nanos\":%d}",
+					builder, skill, seed, contestant, exit, pathLength, energy, nanos);
+		}
+
+		@Override
+		public String toString() {
+			return toCsv();
+		}
+	}
+
+	/**
+	 * Results of the runs of a driver. The percentiles of the path length and the energy consumption
+	 * are taken over the runs that reached the exit, the percentiles of the time over all runs.
+	 */
+	public static final class Statistics {
+		private int runs;
+		private int exits;
+		private int[] pathLengths = new int[16];
+		private float[] energies = new float[16];
+		private long[] nanos = new long[16];
+
+		void add(Result r) {
+			if (runs == nanos.length)
+				nanos = Arrays.copyOf(nanos, 2*runs);
+			nanos[runs++] = r.getNanos();
+			if (r.isExit()) {
+				if (exits == pathLengths.length) {
+					pathLengths = Arrays.copyOf(pathLengths, 2*exits);
+					energies = Arrays.copyOf(energies, 2*exits);
+				}
+				pathLengths[exits] = r.getPathLength();
+				energies[exits] = r.getEnergy();
+				exits++;
+			}
+		}
+
+		/**
+		 * @return number of runs
+		 */
+		public int getRuns() {
+			return runs;
+		}
+
+		/**
+		 * @return number of runs that reached the exit
+		 */
+		public int getExits() {
+			return exits;
+		}
+
+		/**
+		 * @param p percentile in (0,100]
+		 * @return path length of the given percentile of the runs that reached the exit, 0 if there are none
+		 */
+		public int getPathLengthPercentile(double p) {
+			final int[] sorted = Arrays.copyOf(pathLengths, exits);
+			Arrays.sort(sorted);
+			return (0 == exits) ? 0 : sorted[rank(p, exits)];
+		}
+
+		/**
+		 * @param p percentile in (0,100]
+		 * @return energy consumption of the given percentile of the runs that reached the exit, 0 if there are none
+		 */
+		public float getEnergyPercentile(double p) {
+			final float[] sorted = Arrays.copyOf(energies, exits);
+			Arrays.sort(sorted);
+			return (0 == exits) ? 0 : sorted[rank(p, exits)];
+		}
+
+		/**
+		 * @param p percentile in (0,100]
+		 * @return time in nanoseconds of the given percentile of all runs, 0 if there are none
+		 */
+		public long getNanosPercentile(double p) {
+			final long[] sorted = Arrays.copyOf(nanos, runs);
+			Arrays.sort(sorted);
+			return (0 == runs) ? 0 : sorted[rank(p, runs)];
+		}
+
+		/**
+		 * @return index of the given percentile in a sorted array of n values by the nearest rank
+		 */
+		static int rank(double p, int n) {
+			if (p <= 0 || p > 100)
+				throw new IllegalArgumentException("Percentile must be in (0,100]: " + p);
+			return Math.max(0, (int) Math.ceil(p / 100 * n) - 1);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%d runs, %d exits, path length %d/%d/%d, energy %.1f/%.1f/%.1f, %.3f/%.3f/%.3f ms (50th/90th/99th percentile)",
+					runs, exits, getPathLengthPercentile(50), getPathLengthPercentile(90), getPathLengthPercentile(99),
+					getEnergyPercentile(50), getEnergyPercentile(90), getEnergyPercentile(99),
+					getNanosPercentile(50) / 1e6, getNanosPercentile(90) / 1e6, getNanosPercentile(99) / 1e6);
+		}
+	}
+
+	private final List<Builder> builders;
+	private final int[] skills;
+	private final int[] seeds;
+	private final List<Contestant> contestants;
+	private final boolean perfect;
+	private final int workers;
+
+	/**
+	 * Constructor
+	 * @param builders maze generation algorithms
+	 * @param skills skill levels of the mazes
+	 * @param seeds seeds of the random numbers of maze generation
+	 * @param contestants drivers that run on each maze
+	 * @param perfect true for mazes without rooms and loops
+	 * @param workers number of threads that run the drivers, at least 1
+	 */
+	public RobotTournament(List<Builder> builders, int[] skills, int[] seeds, List<Contestant> contestants,
+			boolean perfect, int workers) {
+		if (workers < 1)
+			throw new IllegalArgumentException("Number of workers must be positive: " + workers);
+		this.builders = new ArrayList<Builder>(builders);
+		this.skills = skills.clone();
+		this.seeds = seeds.clone();
+		this.contestants = new ArrayList<Contestant>(contestants);
+		this.perfect = perfect;
+		this.workers = workers;
+	}
+
+	/**
+	 * Runs every contestant on every maze and writes each result to the sink in the order the runs finish.
+	 * Returns when all runs have finished.
+	 * @param sink receives a header line for CSV and a line per result, is flushed but not closed
+	 * @param format of the lines
+	 * @return statistics of each contestant
+	 * @throws IOException if writing to the sink fails
+	 * @throws InterruptedException if the thread is interrupted while waiting for the runs to finish
+	 */
+	public Map<Contestant, Statistics> run(Writer sink, final Format format) throws IOException, InterruptedException {
+		final PrintWriter out = new PrintWriter(sink);
+		final Map<Contestant, Statistics> statistics = new EnumMap<Contestant, Statistics>(Contestant.class);
+		for (Contestant c : contestants)
+			statistics.put(c, new Statistics());
+		if (Format.CSV == format)
+			out.println(Result.CSV_HEADER);
+		// a few runs per thread are queued, the generating thread runs a driver itself if the queue is full
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(2*workers), new ThreadFactory() {
+			private int count = 0;
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Tournament worker " + count++);
+				t.setDaemon(true);
+				return t;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			for (final Builder builder : builders)
+				for (final int skill : skills)
+					for (final int seed : seeds) {
+						final MazeConfiguration mazeConfig = generate(builder, skill, perfect, seed);
+						for (final Contestant contestant : contestants) {
+							pool.execute(new Runnable() {
+								@Override
+								public void run() {
+									final Result r = play(builder, skill, seed, contestant, mazeConfig);
+									synchronized (statistics) {
+										out.println(Format.CSV == format ? r.toCsv() : r.toJson());
+										statistics.get(contestant).add(r);
+									}
+								}
+							});
+						}
+					}
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} finally {
+			pool.shutdownNow();
+		}
+		synchronized (statistics) {
+			out.flush();
+			if (out.checkError())
+				throw new IOException("Writing the results failed");
+			return statistics;
+		}
+	}
+
+	/**
+	 * Runs a driver with a new robot on a maze until it reaches the exit or stops.
+	 * @return result of the run
+	 */
+	static Result play(Builder builder, int skill, int seed, Contestant contestant, MazeConfiguration mazeConfig) {
+		final BasicRobotDriver driver = contestant.createDriver();
+		final HeadlessMazeController controller = new HeadlessMazeController(mazeConfig);
+		final Robot robot = new BasicRobot();
+		robot.setMaze(controller);
+		driver.setRobot(robot);
+		driver.setupUsingMaze(controller);
+		final long begin = System.nanoTime();
+		boolean exit;
+		try {
+			exit = driver.drive2Exit();
+		} catch (Exception e) {
+			exit = false; // the robot stopped, e.g. its battery is empty
+		}
+		final long nanos = System.nanoTime() - begin;
+		return new Result(builder, skill, seed, contestant, exit, driver.getPathLength(), driver.getEnergyConsumption(), nanos);
+	}
+
+	/**
+	 * Generates a maze, the same seed gives the same maze.
+	 */
+	static MazeConfiguration generate(final Builder builder, final int skill, final boolean perfect, int seed) {
+		final MazeConfiguration[] result = new MazeConfiguration[1];
+		SingleRandom.setSeed(seed);
+		MazeFactory factory = new MazeFactory(false);
+		factory.order(new Order() {
+			@Override
+			public int getSkillLevel() {
+				return skill;
+			}
+			@Override
+			public Builder getBuilder() {
+				return builder;
+			}
+			@Override
+			public boolean isPerfect() {
+				return perfect;
+			}
+			@Override
+			public void deliver(MazeConfiguration mazeConfig) {
+				result[0] = mazeConfig;
+			}
+			@Override
+			public void updateProgress(int percentage) {
+			}
+		});
+		factory.waitTillDelivered();
+		return result[0];
+	}
+
+	/**
+	 * Runs a tournament on mazes with rooms and prints the statistics of each driver.
+	 * Drivers print what they do on the console, so the results go to a file.
+	 * @param args optional comma separated builders, DFS,Prim,Kruskal by default,
+	 * optional skill levels in hex, 0123 by default, optional number of seeds, 10 by default,
+	 * optional comma separated drivers, WallFollowerLeft,WallFollowerRight,Wizard by default,
+	 * optional file for the results, tournament.csv by default, - for the console,
+	 * a file ending in .json gets a JSON object per line
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		final List<Builder> builders = new ArrayList<Builder>();
+		for (String name : ((args.length > 0) ? args[0] : "DFS,Prim,Kruskal").split(","))
+			builders.add(Builder.valueOf(name));
+		final String skillDigits = (args.length > 1) ? args[1] : "0123";
+		final int[] skills = new int[skillDigits.length()];
+		for (int i = 0; i < skills.length; i++)
+			skills[i] = Character.digit(skillDigits.charAt(i), 16);
+		final int[] seeds = new int[(args.length > 2) ? Integer.parseInt(args[2]) : 10];
+		for (int i = 0; i < seeds.length; i++)
+			seeds[i] = i + 1;
+		final List<Contestant> contestants = new ArrayList<Contestant>();
+		for (String name : ((args.length > 3) ? args[3] : "WallFollowerLeft,WallFollowerRight,Wizard").split(",")) {
+			final Contestant c = Contestant.forName(name);
+			if (null == c)
+				throw new IllegalArgumentException("Unknown driver: " + name);
+			contestants.add(c);
+		}
+		final String file = (args.length > 4) ? args[4] : "tournament.csv";
+		final Format format = file.toLowerCase(Locale.ROOT).endsWith(".json") ? Format.JSON : Format.CSV;
+		final RobotTournament tournament = new RobotTournament(builders, skills, seeds, contestants, false,
+				Runtime.getRuntime().availableProcessors());
+		final long begin = System.nanoTime();
+		final Map<Contestant, Statistics> statistics;
+		final Writer sink = "-".equals(file) ? new OutputStreamWriter(System.out) : new FileWriter(file);
+		try {
+			statistics = tournament.run(sink, format);
+		} finally {
+			if ("-".equals(file))
+				sink.flush();
+			else
+				sink.close();
+		}
+		System.out.println("RobotTournament: " + builders.size()*skills.length*seeds.length + " mazes in "
+				+ (System.nanoTime() - begin)/1000000 + " ms, results in " + file);
+		for (Map.Entry<Contestant, Statistics> e : statistics.entrySet())
+			System.out.println(String.format("%-18s %s", e.getKey(), e.getValue()));
+	}
+}
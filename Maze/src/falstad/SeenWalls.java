@@ -0,0 +1,182 @@
+package falstad;
+
+/**
+ * Memorizes which walls of the maze have been visible in the first person view, such that the MapDrawer can
+ * draw them. A wall is recorded as the north wall of the cell below it or the west wall of the cell to its right,
+ * so the set covers one more column and row than the maze to hold the walls on its east and south border.
+ *
+ * The walls are kept in two bitsets, the north walls row by row and the west walls column by column,
+ * such that a segment of the first person view, which runs along a row or a column, is a range of bits
+ * and is added with a few word operations. The next wall of a row or column is found a word at a time.
+ *
+ * Changes are counted in square regions of cells, such that a client that caches what it has drawn for a region
+ * can tell if a wall has been added to it since. Walls may be added by several threads at a time,
+ * e.g. the strips of the ParallelFirstPersonDrawer.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class SeenWalls implements TileRevisions {
+	/**
+	 * Logarithm of the side length of the regions of cells in which changes are counted.
+	 */
+	public static final int REGION_SHIFT = 3;
+
+	private final int width;
+	private final int height;
+	private final long[] north; // bit y*width+x is the north wall of cell (x,y)
+	private final long[] west; // bit x*height+y is the west wall of cell (x,y)
+	private final int[][] revisions; // number of walls added to each region
+
+	/**
+	 * Constructor for a set without walls.
+	 * @param width number of cells on the horizontal axis, one more than the width of the maze
+	 * @param height number of cells on the vertical axis, one more than the height of the maze
+	 */
+	public SeenWalls(int width, int height) {
+		this.width = width;
+		this.height = height;
+		north = new long[(width*height + 63) >>> 6];
+		west = new long[(width*height + 63) >>> 6];
+		revisions = new int[((width-1) >> REGION_SHIFT) + 1][((height-1) >> REGION_SHIFT) + 1];
+	}
+
+	/**
+	 * @return number of cells on the horizontal axis
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return number of cells on the vertical axis
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Tells if the north wall of the given cell has been seen.
+	 * @param x coordinate of cell
+	 * @param y coordinate of cell
+	 * @return true if it has been added
+	 */
+	public boolean hasNorthWall(int x, int y) {
+		final int i = y*width + x;
+		return 0 != (north[i >>> 6] & (1L << i));
+	}
+
+	/**
+	 * Tells if the west wall of the given cell has been seen.
+	 * @param x coordinate of cell
+	 * @param y coordinate of cell
+	 * @return true if it has been added
+	 */
+	public boolean hasWestWall(int x, int y) {
+		final int i = x*height + y;
+		return 0 != (west[i >>> 6] & (1L << i));
+	}
+
+	/**
+	 * Adds the north walls of the cells (x,y) to (x+length-1,y).
+	 * @param x coordinate of first cell
+	 * @param y coordinate of cells
+	 * @param length number of cells, the cells must be within the same row
+	 */
+	public synchronized void addNorthWalls(int x, int y, int length) {
+		addRange(north, y*width + x, length, true);
+	}
+
+	/**
+	 * Adds the west walls of the cells (x,y) to (x,y+length-1).
+	 * @param x coordinate of cells
+	 * @param y coordinate of first cell
+	 * @param length number of cells, the cells must be within the same column
+	 */
+	public synchronized void addWestWalls(int x, int y, int length) {
+		addRange(west, x*height + y, length, false);
+	}
+
+	/**
+	 * Finds the next cell of a row whose north wall has been seen.
+	 * @param x coordinate of cell to start from
+	 * @param y coordinate of row
+	 * @return coordinate of the first cell at or after x in row y whose north wall has been seen, -1 if there is none
+	 */
+	public int nextNorthWall(int x, int y) {
+		final int i = nextSetBit(north, y*width + x, (y+1)*width);
+		return (i < 0) ? -1 : i - y*width;
+	}
+
+	/**
+	 * Finds the next cell of a column whose west wall has been seen.
+	 * @param x coordinate of column
+	 * @param y coordinate of cell to start from
+	 * @return coordinate of the first cell at or after y in column x whose west wall has been seen, -1 if there is none
+	 */
+	public int nextWestWall(int x, int y) {
+		final int i = nextSetBit(west, x*height + y, (x+1)*height);
+		return (i < 0) ? -1 : i - x*height;
+	}
+
+	@Override
+	public int getRegionShift() {
+		return REGION_SHIFT;
+	}
+
+	/**
+	 * Tells the number of walls that have been added to the region that contains the given cell.
+	 * Adding a wall that has already been seen does not count.
+	 * @param x coordinate of cell
+	 * @param y coordinate of cell
+	 * @return number of walls added to the region of 2^REGION_SHIFT times 2^REGION_SHIFT cells
+	 */
+	@Override
+	public int getRevision(int x, int y) {
+		return revisions[x >> REGION_SHIFT][y >> REGION_SHIFT];
+	}
+
+	/**
+	 * Sets the bits from index from to from+length-1 and counts the bits that were not set before
+	 * in the revisions of their regions.
+	 * @param rows true if the bits are ordered row by row, false if column by column
+	 */
+	private void addRange(long[] bits, int from, int length, boolean rows) {
+		final int to = from + length; // exclusive
+		for (int w = from >>> 6; w <= (to-1) >>> 6; w++) {
+			long mask = -1L;
+			if (w == from >>> 6)
+				mask &= -1L << from;
+			if (w == (to-1) >>> 6)
+				mask &= -1L >>> -to;
+			long added = mask & ~bits[w];
+			bits[w] |= mask;
+			while (0 != added) {
+				final int i = (w << 6) + Long.numberOfTrailingZeros(added);
+				if (rows)
+					revisions[(i % width) >> REGION_SHIFT][(i / width) >> REGION_SHIFT]++;
+				else
+					revisions[(i / height) >> REGION_SHIFT][(i % height) >> REGION_SHIFT]++;
+				added &= added - 1;
+			}
+		}
+	}
+
+	/**
+	 * @return index of the first set bit from index from up to index to exclusive, -1 if there is none
+	 */
+	private static int nextSetBit(long[] bits, int from, int to) {
+		if (from >= to)
+			return -1;
+		int w = from >>> 6;
+		long word = bits[w] & (-1L << from);
+		while (0 == word) {
+			w++;
+			if (w << 6 >= to)
+				return -1;
+			word = bits[w];
+		}
+		final int i = (w << 6) + Long.numberOfTrailingZeros(word);
+		return (i < to) ? i : -1;
+	}
+}
@@ -0,0 +1,26 @@
+package falstad;
+
+/**
+ * Tells a cache of images of the map when the walls it has drawn have changed.
+ * The cells of the maze are split into square regions, each with a revision that changes whenever
+ * a wall in the region changes, such that the MapDrawer draws a tile or a region of its mipmaps again
+ * only when the revision of one of its regions is not the one it was drawn with.
+ *
+ * The SeenWalls count the walls that have been seen in each region.
+ *
+ * @author Ben Zhang
+ *
+ */
+public interface TileRevisions {
+	/**
+	 * @return logarithm of the side length of a region in cells
+	 */
+	int getRegionShift();
+
+	/**
+	 * @param x coordinate of cell
+	 * @param y coordinate of cell
+	 * @return revision of the region that contains the cell
+	 */
+	int getRevision(int x, int y);
+}
@@ -0,0 +1,100 @@
+package falstad;
+
+/**
+ * Table of the view directions of a full turn in equal steps, such that a rotation does not compute
+ * a cosine and sine for every frame. A view direction is a vector of length 1 in 16.16 fixed point,
+ * as the viewers expect it in their redraw method, with angle 0 pointing east and angles growing towards south.
+ *
+ * The number of steps is a multiple of 4, such that the directions of the four quarter turns are in the table
+ * and are exactly (1,0), (0,1), (-1,0) and (0,-1). A step is an angle of 360 / steps degrees,
+ * steps outside of [0,steps) are taken modulo steps.
+ *
+ * The MazeController interpolates the direction during the animation of a rotation in steps of its table,
+ * see Constants.ROTATION_STEPS, the HeadlessRenderer looks up the directions of its poses.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class ViewDirections {
+	private final int steps;
+	private final int[] dx; // x coordinate of direction of step i in 16.16 fixed point
+	private final int[] dy; // y coordinate of direction of step i in 16.16 fixed point
+
+	/**
+	 * Constructor, computes the table.
+	 * @param steps number of directions in a full turn, a positive multiple of 4
+	 */
+	public ViewDirections(int steps) {
+		if (steps <= 0 || 0 != steps % 4)
+			throw new IllegalArgumentException("Steps must be a positive multiple of 4: " + steps);
+		this.steps = steps;
+		dx = new int[steps];
+		dy = new int[steps];
+		// the first quarter is computed, the other quarters are the same vectors rotated by 90 degrees,
+		// which keeps the quarter turns exact and the table symmetric
+		final int quarter = steps/4;
+		for (int i = 0; i < quarter; i++) {
+			final double radians = 2*Math.PI*i/steps;
+			final int c = (int) Math.round(Math.cos(radians)*(1<<16));
+			final int s = (int) Math.round(Math.sin(radians)*(1<<16));
+			dx[i] = c;
+			dy[i] = s;
+			dx[i+quarter] = -s;
+			dy[i+quarter] = c;
+			dx[i+2*quarter] = -c;
+			dy[i+2*quarter] = -s;
+			dx[i+3*quarter] = s;
+			dy[i+3*quarter] = -c;
+		}
+	}
+
+	/**
+	 * @return number of directions in a full turn
+	 */
+	public int getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @param step angle in steps
+	 * @return x coordinate of the view direction in 16.16 fixed point
+	 */
+	public int getDx(int step) {
+		return dx[normalize(step)];
+	}
+
+	/**
+	 * @param step angle in steps
+	 * @return y coordinate of the view direction in 16.16 fixed point
+	 */
+	public int getDy(int step) {
+		return dy[normalize(step)];
+	}
+
+	/**
+	 * Converts an angle in degrees into steps, angles that are not a multiple of a step are rounded towards 0.
+	 * Multiples of 90 degrees are converted exactly.
+	 * @param degrees angle, may be negative or beyond a full turn as for a change of angle
+	 * @return angle in steps, not taken modulo steps
+	 */
+	public int toSteps(int degrees) {
+		return (int) ((long) degrees * steps / 360);
+	}
+
+	/**
+	 * Converts an angle in steps into degrees in [0,360), rounded down.
+	 * @param step angle in steps
+	 * @return angle in degrees
+	 */
+	public int toDegrees(int step) {
+		return (int) ((long) normalize(step) * 360 / steps);
+	}
+
+	/**
+	 * @return step modulo steps in [0,steps)
+	 */
+	private int normalize(int step) {
+		final int i = step % steps;
+		return (i < 0) ? i + steps : i;
+	}
+}
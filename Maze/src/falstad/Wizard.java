@@ -24,7 +24,7 @@ public class Wizard extends BasicRobotDriver {
 	protected MazeConfiguration mazeConfig;
 	
 	@Override
-	public void setupUsingMaze(MazeController controller){
+	public void setupUsingMaze(RobotMaze controller){
 		mazeConfig = controller.getMazeConfiguration();
 	}
 
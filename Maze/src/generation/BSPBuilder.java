@@ -4,6 +4,14 @@ import falstad.Constants;
 //import falstad.Maze;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 
 /**
@@ -22,9 +30,23 @@ public class BSPBuilder {
 	private final int colchange ;			// comes from a random number, purpose unclear, 
 	// colchange: reason for randomization unclear, used to determine color of segment 
 	private final int expectedPartiters ; 	// comes from Constants partct array, entry chosen according to skill level
-	// only usage is in updateProgressBar to estimate progress made in the BSP tree construction
+	// only reported in BSPTreeStats to show how well it estimates the work of the BSP tree construction
 	int partiters = 0 ; // relocated from MazeBuilder attribute partiters here. 
-	private final Order order ; 		// current order
+	private int percentage ; 		// last reported progress, kept to report monotonic progress
+	private MazeBuildListener listener ; // receives measurements on the construction, may be null
+	private Order order ; 		// current order, reset once a lazy tree is handed over as there is no progress to report afterwards
+	private static ExecutorService bandPool ; // scans bands of large mazes, shared by all builders, see getBandPool
+	/**
+	 * Counters for a single run of genNodes, i.e. for the whole tree or for the expansion of one lazy node.
+	 * Lazy nodes may be expanded on several threads at the same time, so each run counts on its own.
+	 * Progress is measured by the fraction of segments that have their partition bit set.
+	 */
+	private static final class Partitioning {
+		int partiters ; 		// number of candidates graded by findPartitionCandidate
+		int partitioned ; 		// number of segments whose partition bit has been set by genNodes
+		int unpartitioned ; 	// number of segments that still need to be considered as a partition
+	}
+
 	/**
 	 * Constructor
 	 * @param order
@@ -48,29 +70,96 @@ public class BSPBuilder {
 		partiters = 0 ; // counter for keeping track of progress made in BSP calculation, starts at 0
 	}
 
+	/**
+	 * Sets a listener that receives timings for the segments and partition phase
+	 * and statistics on the resulting tree.
+	 * @param listener may be null
+	 */
+	public void setBuildListener(MazeBuildListener listener) {
+		this.listener = listener ;
+	}
+
 	/**
 	 * Method generates the nodes. In every node, it has two section, left and right. It chooses the segment
 	 * which has the minimum grade value and then split this node into two nodes through this segment.
 	 * If all the segments in one node are partitioned, it will stop to split.
 	 * @param sl
+	 * @param run counts the work
+	 * @return root node for BSP tree
+	 * @throws InterruptedException 
+	 */
+	private BSPNode genNodes(ArrayList<Seg> sl, Partitioning run) throws InterruptedException {
+		return genNodes(sl, false, run);
+	}
+
+	/**
+	 * Method generates the nodes as genNodes does, but it can stop after a single split.
+	 * @param sl
+	 * @param lazy if true, both branches of the new node are left as BSPLazyNodes that split later on demand
+	 * @param run counts the work
 	 * @return root node for BSP tree
 	 * @throws InterruptedException 
 	 */
-	private BSPNode genNodes(ArrayList<Seg> sl) throws InterruptedException {
+	private BSPNode genNodes(ArrayList<Seg> sl, boolean lazy, Partitioning run) throws InterruptedException {
 		// if there is no segment with a partition bit set to false, there is nothing else to do and we are at a leaf node
 		if (countNonPartitions(sl) == 0)
 			return new BSPLeaf(sl);
 		// from the ones that have a partition bit set to false, pick a candidate with a low grade
-		Seg pe = findPartitionCandidate(sl);
+		Seg pe = findPartitionCandidate(sl, run);
 		// work on segment pe
 		// mark pe as partitioned
 		pe.setPartition(true);
+		run.partitioned++;
+		run.unpartitioned--;
 		final int x  = pe.getStartPositionX();
 		final int y  = pe.getStartPositionY();
 		final int dx = pe.getExtensionX();
 		final int dy = pe.getExtensionY();
 		final ArrayList<Seg> lsl = new ArrayList<Seg>();
 		final ArrayList<Seg> rsl = new ArrayList<Seg>();
+		partitionSegments(sl, x, y, dx, dy, pe.getDir(), lsl, rsl, run);
+		if (lsl.size() == 0)
+			return new BSPLeaf(rsl);
+		if (rsl.size() == 0)
+			return new BSPLeaf(lsl);
+		if (lazy)
+			return new BSPBranch(x, y, dx, dy, new BSPLazyNode(this, lsl), new BSPLazyNode(this, rsl));
+		return new BSPBranch(x, y, dx, dy, genNodes(lsl, run), genNodes(rsl, run)); // recursion on both branches
+	}
+
+	/**
+	 * Performs a single split on the given segments for a BSPLazyNode.
+	 * Called from the rendering side, so there is no progress to report.
+	 * Called for different nodes on different threads, so the counters are local to the expansion.
+	 * @param sl segments of the lazy node
+	 * @return a leaf or a branch whose children are lazy nodes
+	 */
+	BSPNode expandLazyNode(ArrayList<Seg> sl) {
+		try {
+			return genNodes(sl, true, new Partitioning());
+		} catch (InterruptedException e) {
+			// only happens while reporting progress to an order, which is gone at this point
+			Thread.currentThread().interrupt();
+			return new BSPLeaf(sl);
+		}
+	}
+
+	/**
+	 * Distributes the given segments on the left and right hand side of the line given by (x,y) and (dx,dy).
+	 * Segments that cross the line are split into two and each part is put on its side.
+	 * Segments on the line are assigned according to their direction and get their partition bit set.
+	 * @param sl segments to distribute
+	 * @param x coordinate of a point on the line
+	 * @param y coordinate of a point on the line
+	 * @param dx direction of the line
+	 * @param dy direction of the line
+	 * @param dir direction as encoded by Seg.getDir() for a segment on the line
+	 * @param lsl receives segments on the left hand side
+	 * @param rsl receives segments on the right hand side
+	 * @param run counts the segments that get their partition bit set or that are added by a split
+	 */
+	private void partitionSegments(ArrayList<Seg> sl, int x, int y, int dx, int dy, int dir,
+			ArrayList<Seg> lsl, ArrayList<Seg> rsl, Partitioning run) {
 		for (int i = 0; i != sl.size(); i++) {
 			Seg se = (Seg) sl.get(i);
 			int df1x = se.getStartPositionX() - x;
@@ -107,27 +196,37 @@ public class BSPBuilder {
 					}
 					sps1.setPartition(se.isPartition());
 					sps2.setPartition(se.isPartition());
+					if (!se.isPartition())
+						run.unpartitioned++; // one more segment to consider
 					continue;
 				}
 			}
 			// decide where to add current segment
-			if (dot1 > 0 || (dot1 == 0 && se.getDir() == pe.getDir())) {
+			if (dot1 > 0 || (dot1 == 0 && se.getDir() == dir)) {
 				rsl.add(se);
 				if (dot1 == 0)
-					se.setPartition(true);
-			} else if (dot1 < 0 || (dot1 == 0 && se.getDir() == -pe.getDir())) { 
+					markPartitioned(se, run);
+			} else if (dot1 < 0 || (dot1 == 0 && se.getDir() == -dir)) { 
 				lsl.add(se);
 				if (dot1 == 0)
-					se.setPartition(true);
+					markPartitioned(se, run);
 			} else {
 				dbg("error xx 1 "+dot1);
 			}
 		}
-		if (lsl.size() == 0)
-			return new BSPLeaf(rsl);
-		if (rsl.size() == 0)
-			return new BSPLeaf(lsl);
-		return new BSPBranch(x, y, dx, dy, genNodes(lsl), genNodes(rsl)); // recursion on both branches
+	}
+
+	/**
+	 * Sets the partition bit of a segment that lies on a partition and counts it for the progress.
+	 * @param se segment on the partition
+	 * @param run counts the segment
+	 */
+	private static void markPartitioned(Seg se, Partitioning run) {
+		if (!se.isPartition()) {
+			run.partitioned++;
+			run.unpartitioned--;
+		}
+		se.setPartition(true);
 	}
 
 	/**
@@ -148,10 +247,11 @@ public class BSPBuilder {
 	/**
 	 * It finds the segment which has the minimum grade value.
 	 * @param sl vector of segment
+	 * @param run counts the candidates
 	 * @return Segment that is best candidate according to grade partition (smallest grade)
 	 * @throws InterruptedException 
 	 */
-	private Seg findPartitionCandidate(ArrayList<Seg> sl) throws InterruptedException {
+	private Seg findPartitionCandidate(ArrayList<Seg> sl, Partitioning run) throws InterruptedException {
 		Seg pe = null ;
 		int bestgrade = 5000; // used to compute the minimum of all observed grade values, set to some high initial value
 		final int maxtries = 50; // constant, only used to determine skip
@@ -165,9 +265,9 @@ public class BSPBuilder {
 			if (pk.isPartition())
 				continue;
 			// provide feedback for progress bar every 32 iterations
-			partiters++;
-			if ((partiters & 31) == 0) {
-				updateProgressBar(partiters); // side effect: update progress bar
+			run.partiters++;
+			if ((run.partiters & 31) == 0) {
+				updateProgressBar(run); // side effect: update progress bar
 			}
 			// check grade and keep track of minimum
 			int grade = grade_partition(sl, pk);
@@ -176,18 +276,28 @@ public class BSPBuilder {
 				pe = pk; // determine segment with smallest grade
 			}
 		}
+		// the skip may step over all candidates if only few segments are left without partition bit,
+		// which happens when a leaf is split again for a handful of new segments, so take the first one
+		if (null == pe) {
+			for (Seg pk : sl) {
+				if (!pk.isPartition())
+					return pk;
+			}
+		}
 		return pe;
 	}
 
 	/**
-	 * Push information on progress into maze such that UI can update progress bar
-	 * @param partiters
+	 * Push information on progress into maze such that UI can update progress bar.
+	 * Progress is the fraction of segments whose partition bit is set, as genNodes is done
+	 * when no segment is left to consider. Splitting segments adds more segments to consider, 
+	 * so the fraction may drop a little, the reported percentage does not.
 	 */
-	private void updateProgressBar(int partiters) throws InterruptedException {
+	private void updateProgressBar(Partitioning run) throws InterruptedException {
 		// During maze generation, the most time consuming part needs to occasionally update the current screen
 		// 
-		int percentage = partiters*100/expectedPartiters ;
-		if (null != order) {
+		if (null != order && run.partitioned + run.unpartitioned > 0) {
+			percentage = Math.max(percentage, (int)((long)run.partitioned*100/(run.partitioned + run.unpartitioned))) ;
 			order.updateProgress(percentage) ;
 			if (percentage < 100) {
 				// give main thread a chance to process keyboard events
@@ -209,10 +319,40 @@ public class BSPBuilder {
 
 
 	/**
-	 * Identifies segments of continuous walls on the maze and fills the segment list 
+	 * Identifies segments of continuous walls on the maze and fills the segment list.
+	 * Large mazes are scanned in parallel, see generateSegmentsInBands, 
+	 * the resulting list is the same either way.
+	 * @param timer measures the phase, includes the memory allocated by the threads of a parallel scan
+	 * @return vector of segments
+	 * @throws InterruptedException if the order is cancelled during a parallel scan
+	 */
+	private ArrayList<Seg> generateSegments(PhaseTimer timer) throws InterruptedException {
+		int threads = (width*height >= Constants.PARALLEL_SEGMENTS_MIN_CELLS) ? 
+				Runtime.getRuntime().availableProcessors() : 1;
+		return generateSegments(threads, timer);
+	}
+
+	/**
+	 * Identifies segments of continuous walls on the maze with the given number of threads.
+	 * @param threads number of threads to use, a single thread scans on the calling thread
 	 * @return vector of segments
+	 * @throws InterruptedException if the order is cancelled during a parallel scan
 	 */
-	private ArrayList<Seg> generateSegments() {
+	ArrayList<Seg> generateSegments(int threads) throws InterruptedException {
+		return generateSegments(threads, new PhaseTimer(null));
+	}
+
+	/**
+	 * Identifies segments of continuous walls on the maze with the given number of threads.
+	 * @param threads number of threads to use, a single thread scans on the calling thread
+	 * @param timer measures the phase, includes the memory allocated by the threads of a parallel scan
+	 * @return vector of segments
+	 * @throws InterruptedException if the order is cancelled during a parallel scan
+	 */
+	private ArrayList<Seg> generateSegments(int threads, PhaseTimer timer) throws InterruptedException {
+		if (threads > 1)
+			return generateSegmentsInBands(threads, timer);
+		
 		ArrayList<Seg> sl = new ArrayList<Seg>();
 
 		generateSegmentForHorizontalWalls(sl); 
@@ -222,45 +362,145 @@ public class BSPBuilder {
 		return sl ;
 	}
 
+	/**
+	 * Identifies segments of continuous walls on the maze with several threads.
+	 * Rows and columns are scanned independently of each other, so the grid is split into 
+	 * bands of consecutive rows (for horizontal walls) and bands of consecutive columns 
+	 * (for vertical walls) and each band is scanned into its own SegmentBuffer.
+	 * The buffers are concatenated in the order of the serial scan, all rows first then all columns,
+	 * such that the segment list and hence the BSP tree is identical to the serial version.
+	 * The bands run on a shared pool of daemon threads, see getBandPool.
+	 * @param threads number of threads the work is split for, determines the number of bands
+	 * @param timer measures the phase, gets the memory allocated by the bands added
+	 * @return vector of segments
+	 * @throws InterruptedException if the order is cancelled, bands that have not been scanned are cancelled as well
+	 */
+	private ArrayList<Seg> generateSegmentsInBands(int threads, PhaseTimer timer) throws InterruptedException {
+		// a few bands per thread to even out the load
+		final int rowsPerBand = Math.max(1, height / (4*threads));
+		final int columnsPerBand = Math.max(1, width / (4*threads));
+		ArrayList<Callable<SegmentBuffer>> bands = new ArrayList<Callable<SegmentBuffer>>();
+		for (int y = 0; y < height; y += rowsPerBand) {
+			final int from = y;
+			final int to = Math.min(height, y + rowsPerBand);
+			bands.add(timer.measure(new Callable<SegmentBuffer>() {
+				@Override
+				public SegmentBuffer call() {
+					SegmentBuffer buf = new SegmentBuffer(2*width);
+					for (int row = from; row < to && !Thread.currentThread().isInterrupted(); row++)
+						generateSegmentsForRow(buf, row);
+					return buf;
+				}
+			}));
+		}
+		for (int x = 0; x < width; x += columnsPerBand) {
+			final int from = x;
+			final int to = Math.min(width, x + columnsPerBand);
+			bands.add(timer.measure(new Callable<SegmentBuffer>() {
+				@Override
+				public SegmentBuffer call() {
+					SegmentBuffer buf = new SegmentBuffer(2*height);
+					for (int column = from; column < to && !Thread.currentThread().isInterrupted(); column++)
+						generateSegmentsForColumn(buf, column);
+					return buf;
+				}
+			}));
+		}
+		// invokeAll returns the futures in the order of the bands, 
+		// an interrupt while waiting cancels the bands and ends up with the caller
+		List<Future<SegmentBuffer>> results = getBandPool().invokeAll(bands);
+		ArrayList<Seg> sl = new ArrayList<Seg>();
+		try {
+			for (Future<SegmentBuffer> result : results) {
+				result.get().appendTo(sl, colchange);
+			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to scan walls of maze", e.getCause());
+		}
+		return sl;
+	}
+
+	/**
+	 * @return the pool of threads that scan bands, one thread per available processor
+	 */
+	private static synchronized ExecutorService getBandPool() {
+		if (null == bandPool) {
+			bandPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private int count = 0;
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Segment band " + count++);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return bandPool;
+	}
+
 	/**
 	 * Identify segments of continuous walls in a vertical direction
 	 * @param sl
 	 */
 	private void generateSegmentsForVerticalWalls(ArrayList<Seg> sl) {
-		int x;
-		int y;
+		SegmentBuffer buf = new SegmentBuffer(2*height);
 		// we search for vertical walls, so for each row
-		for (x = 0; x != width; x++) {
-			y = 0;
-			while (y < height) {
-				// find the beginning of a segment
-				if (cells.hasNoWall(x,y, CardinalDirection.West)) {
-					y++;
-					continue;
-				} 
-				int starty = y;
-				// find the end of a segment
-				y = findEndOfVerticalSegment(x, y, CardinalDirection.West);
-				// create segment with (x,starty) being being the actual start position of the segment, y-starty being the positive length
-				sl.add(new Seg(x*Constants.MAP_UNIT, starty*Constants.MAP_UNIT,
-						0, (y-starty)*Constants.MAP_UNIT, dists.getDistance(x, starty), colchange));
-			}
-			y = 0;
-			while (y < height) {
-				// find the beginning of a segment
-				if (cells.hasNoWall(x,y, CardinalDirection.East)) {
-					y++;
-					continue;
-				} 
-				int starty = y;
-				// find the end of a segment
-				y = findEndOfVerticalSegment(x, y, CardinalDirection.East);
-				// create segment with (x+1,y) being being one off in both directions from the last cell in this segment, starty-y being the negative length
-				// since we are looking at right walls, one off in the right direction (x+1) are then cells that have this segment on its left hand side
-				// for some reason the end position is used as a starting position and therefore the length & direction is inverse 
-				sl.add(new Seg((x+1)*Constants.MAP_UNIT, y*Constants.MAP_UNIT,
-						0, (starty-y)*Constants.MAP_UNIT, dists.getDistance(x, starty), colchange));
-			}
+		for (int x = 0; x != width; x++) {
+			generateSegmentsForColumn(buf, x);
+		}
+		buf.appendTo(sl, colchange);
+	}
+
+	/**
+	 * Identify segments of continuous walls in a vertical direction for a single column of cells
+	 * and add them to the list of segments.
+	 * @param sl
+	 * @param x index of the column
+	 */
+	private void generateSegmentsForColumn(ArrayList<Seg> sl, int x) {
+		SegmentBuffer buf = new SegmentBuffer(2*height);
+		generateSegmentsForColumn(buf, x);
+		buf.appendTo(sl, colchange);
+	}
+
+	/**
+	 * Identify segments of continuous walls in a vertical direction for a single column of cells,
+	 * i.e. segments for walls on the left hand side of the column and on its right hand side.
+	 * Only reads the cells, so different columns can be scanned concurrently.
+	 * @param buf buffer to add segments to
+	 * @param x index of the column
+	 */
+	private void generateSegmentsForColumn(SegmentBuffer buf, int x) {
+		int y;
+		y = 0;
+		while (y < height) {
+			// find the beginning of a segment
+			if (cells.hasNoWall(x,y, CardinalDirection.West)) {
+				y++;
+				continue;
+			} 
+			int starty = y;
+			// find the end of a segment
+			y = findEndOfVerticalSegment(x, y, CardinalDirection.West);
+			// create segment with (x,starty) being being the actual start position of the segment, y-starty being the positive length
+			buf.add(x*Constants.MAP_UNIT, starty*Constants.MAP_UNIT,
+					0, (y-starty)*Constants.MAP_UNIT, dists.getDistance(x, starty));
+		}
+		y = 0;
+		while (y < height) {
+			// find the beginning of a segment
+			if (cells.hasNoWall(x,y, CardinalDirection.East)) {
+				y++;
+				continue;
+			} 
+			int starty = y;
+			// find the end of a segment
+			y = findEndOfVerticalSegment(x, y, CardinalDirection.East);
+			// create segment with (x+1,y) being being one off in both directions from the last cell in this segment, starty-y being the negative length
+			// since we are looking at right walls, one off in the right direction (x+1) are then cells that have this segment on its left hand side
+			// for some reason the end position is used as a starting position and therefore the length & direction is inverse 
+			buf.add((x+1)*Constants.MAP_UNIT, y*Constants.MAP_UNIT,
+					0, (starty-y)*Constants.MAP_UNIT, dists.getDistance(x, starty));
 		}
 	}
 
@@ -289,47 +529,71 @@ public class BSPBuilder {
 	 * @param sl
 	 */
 	private void generateSegmentForHorizontalWalls(ArrayList<Seg> sl) {
-		int x;
-		int y;
+		SegmentBuffer buf = new SegmentBuffer(2*width);
 		// we search for horizontal walls, so for each column
-		for (y = 0; y != height; y++) {
-			// first round through rows
-			x = 0;
-			while (x < width) {
-				// find the beginning of a segment
-				if (cells.hasNoWall(x,y, CardinalDirection.North)) {
-					x++;
-					continue;
-				} 
-				// found one
-				int startx = x;
-				// find the end of a segment
-				// follow segment with wall on top till
-				// x is the first index of a cell that has no wall on top
-				// stop at outer bound or when hitting a wall (cell has wall on left)
-				// such that length of the segment is startx-x, which is a negative value btw
-				x = findEndOfHorizontalSegment(x, y, CardinalDirection.North);
-				// create segment with (x,y) being the end positions, startx-x being the negative length
-				// note the (x,y) is not part of the segment
-				sl.add(new Seg(x*Constants.MAP_UNIT, y*Constants.MAP_UNIT,
-						(startx-x)*Constants.MAP_UNIT, 0, dists.getDistance(startx, y), colchange));
-			}
-			// second round through rows, same for bottom walls
-			x = 0;
-			while (x < width) {
-				// find the beginning of a segment
-				if (cells.hasNoWall(x,y, CardinalDirection.South)) {
-					x++;
-					continue;
-				} 
-				int startx = x;
-				// find the end of a segment
-				x = findEndOfHorizontalSegment(x, y, CardinalDirection.South);
-				// create segment with (startx,y+1) being one below the start position, x-startx being the positive length
-				// so this may represent a bottom wall segment as a top wall segment one below
-				sl.add(new Seg(startx*Constants.MAP_UNIT, (y+1)*Constants.MAP_UNIT,
-						(x-startx)*Constants.MAP_UNIT, 0, dists.getDistance(startx, y), colchange));
-			}
+		for (int y = 0; y != height; y++) {
+			generateSegmentsForRow(buf, y);
+		}
+		buf.appendTo(sl, colchange);
+	}
+
+	/**
+	 * Identify segments of continuous walls in a horizontal direction for a single row of cells
+	 * and add them to the list of segments.
+	 * @param sl
+	 * @param y index of the row
+	 */
+	private void generateSegmentsForRow(ArrayList<Seg> sl, int y) {
+		SegmentBuffer buf = new SegmentBuffer(2*width);
+		generateSegmentsForRow(buf, y);
+		buf.appendTo(sl, colchange);
+	}
+
+	/**
+	 * Identify segments of continuous walls in a horizontal direction for a single row of cells,
+	 * i.e. segments for walls on top of the row and at its bottom.
+	 * Only reads the cells, so different rows can be scanned concurrently.
+	 * @param buf buffer to add segments to
+	 * @param y index of the row
+	 */
+	private void generateSegmentsForRow(SegmentBuffer buf, int y) {
+		int x;
+		// first round through rows
+		x = 0;
+		while (x < width) {
+			// find the beginning of a segment
+			if (cells.hasNoWall(x,y, CardinalDirection.North)) {
+				x++;
+				continue;
+			} 
+			// found one
+			int startx = x;
+			// find the end of a segment
+			// follow segment with wall on top till
+			// x is the first index of a cell that has no wall on top
+			// stop at outer bound or when hitting a wall (cell has wall on left)
+			// such that length of the segment is startx-x, which is a negative value btw
+			x = findEndOfHorizontalSegment(x, y, CardinalDirection.North);
+			// create segment with (x,y) being the end positions, startx-x being the negative length
+			// note the (x,y) is not part of the segment
+			buf.add(x*Constants.MAP_UNIT, y*Constants.MAP_UNIT,
+					(startx-x)*Constants.MAP_UNIT, 0, dists.getDistance(startx, y));
+		}
+		// second round through rows, same for bottom walls
+		x = 0;
+		while (x < width) {
+			// find the beginning of a segment
+			if (cells.hasNoWall(x,y, CardinalDirection.South)) {
+				x++;
+				continue;
+			} 
+			int startx = x;
+			// find the end of a segment
+			x = findEndOfHorizontalSegment(x, y, CardinalDirection.South);
+			// create segment with (startx,y+1) being one below the start position, x-startx being the positive length
+			// so this may represent a bottom wall segment as a top wall segment one below
+			buf.add(startx*Constants.MAP_UNIT, (y+1)*Constants.MAP_UNIT,
+					(x-startx)*Constants.MAP_UNIT, 0, dists.getDistance(startx, y));
 		}
 	}
 
@@ -393,16 +657,207 @@ public class BSPBuilder {
 	 * @throws InterruptedException 
 	 */
 	public BSPNode generateBSPNodes() throws InterruptedException {
+		final PhaseTimer timer = new PhaseTimer(listener);
+		timer.start();
 		// determine segments, i.e. walls over multiple cells in a vertical or horizontal direction
-		ArrayList<Seg> seglist = generateSegments();
+		ArrayList<Seg> seglist = generateSegments(timer);
 
 		setPartitionBitForCertainSegments(seglist); // partition bit true means that those are not considered any further for node generation
+		timer.stop(MazeBuildListener.Phase.SEGMENTS);
 
 		// TODO: check why this is done. It creates a top wall on position (0,0). This may even corrupt a maze and block its exit!
 		Wall wall = new Wall(0, 0, CardinalDirection.North) ;
 		cells.addWall(wall, false);
 
-		return genNodes(seglist); // creates a data structure to quickly search for segments
+		timer.start();
+		final Partitioning run = new Partitioning();
+		run.unpartitioned = countNonPartitions(seglist);
+		percentage = 0;
+		BSPNode root = genNodes(seglist, run); // creates a data structure to quickly search for segments
+		partiters = run.partiters;
+		timer.stop(MazeBuildListener.Phase.PARTITION);
+		if (null != listener)
+			listener.treeCompleted(new BSPTreeStats(root, partiters, expectedPartiters));
+		return root;
+	}
+	/**
+	 * Generate a tree of BSP nodes for a given maze that is only split on demand.
+	 * Only the segments are determined up front, the root is a BSPLazyNode that partitions
+	 * its segments when it is expanded, e.g. when the FirstPersonDrawer reaches it 
+	 * with a visible bounding box. This makes the generation time for large mazes
+	 * independent of the time needed to partition all segments.
+	 * @return root node for BSP tree
+	 * @throws InterruptedException if the order is cancelled while the segments are determined
+	 */
+	public BSPNode generateLazyBSPNodes() throws InterruptedException {
+		final PhaseTimer timer = new PhaseTimer(listener);
+		timer.start();
+		ArrayList<Seg> seglist = generateSegments(timer);
+
+		setPartitionBitForCertainSegments(seglist);
+		timer.stop(MazeBuildListener.Phase.SEGMENTS);
+
+		// same as in generateBSPNodes
+		Wall wall = new Wall(0, 0, CardinalDirection.North) ;
+		cells.addWall(wall, false);
+
+		// nodes get expanded during play, progress is not reported beyond this point
+		order = null ;
+		BSPNode root = new BSPLazyNode(this, seglist);
+		if (null != listener)
+			listener.treeCompleted(new BSPTreeStats(root, partiters, expectedPartiters));
+		return root;
+	}
+
+	/**
+	 * Updates a tree of BSP nodes after walls have been added to or removed from the cells of the maze.
+	 * Only the segments in the rows and columns around the changed walls are generated again. 
+	 * Leaf nodes whose bounding box touches these rows and columns drop their outdated segments, 
+	 * the new segments are pushed down the tree along the existing partitions (split if necessary) 
+	 * and each leaf that receives new segments is partitioned again with genNodes.
+	 * Subtrees that are not affected are reused as they are.
+	 * Segments that are reused keep the distance and hence the color they got when they were generated,
+	 * only new segments get theirs from the distances of this builder. A wall change that changes distances 
+	 * to the exit thus leaves a tree whose colors are partly based on the old distances, use generateBSPNodes
+	 * if the colors need to follow the new distances.
+	 * @param root of the tree to update, as obtained from generateBSPNodes
+	 * @param changedWalls walls that have been added or removed in the cells since the tree was built
+	 * @return root node of the updated tree, may be the given root if nothing changed
+	 * @throws InterruptedException 
+	 */
+	public BSPNode updateBSPNodes(BSPNode root, Collection<Wall> changedWalls) throws InterruptedException {
+		// a wall change can shorten, extend, split or merge segments in its own row or column
+		// and it can move the end point of segments in the neighboring rows and columns
+		final boolean[] rows = new boolean[height];
+		final boolean[] columns = new boolean[width];
+		for (Wall wall : changedWalls) {
+			for (int i = -1; i <= 1; i++) {
+				if (0 <= wall.getY()+i && wall.getY()+i < height)
+					rows[wall.getY()+i] = true;
+				if (0 <= wall.getX()+i && wall.getX()+i < width)
+					columns[wall.getX()+i] = true;
+			}
+		}
+		ArrayList<Seg> seglist = new ArrayList<Seg>();
+		for (int y = 0; y != height; y++) {
+			if (rows[y])
+				generateSegmentsForRow(seglist, y);
+		}
+		for (int x = 0; x != width; x++) {
+			if (columns[x])
+				generateSegmentsForColumn(seglist, x);
+		}
+		setPartitionBitForCertainSegments(seglist);
+		
+		return updateNode(root, seglist, rows, columns, new Partitioning());
+	}
+
+	/**
+	 * Recursive method for updateBSPNodes that works on a subtree
+	 * @param n is the root of the subtree
+	 * @param sl new segments that belong into this subtree
+	 * @param rows tells which rows of cells had their segments generated again
+	 * @param columns tells which columns of cells had their segments generated again
+	 * @param run counts the work
+	 * @return root of the updated subtree, n if the subtree did not change
+	 * @throws InterruptedException 
+	 */
+	private BSPNode updateNode(BSPNode n, ArrayList<Seg> sl, boolean[] rows, boolean[] columns, Partitioning run) 
+			throws InterruptedException {
+		if (sl.isEmpty() && !isOutdated(n, rows, columns))
+			return n;
+		if (n instanceof BSPLazyNode) {
+			// the drawer or a prefetch thread may expand the node at any time, 
+			// so its state is read in one step and the new node works on copies of its segments
+			final ArrayList<Seg> lazySegments = new ArrayList<Seg>();
+			final BSPNode expanded = ((BSPLazyNode) n).getExpansionOrSegments(lazySegments);
+			if (null != expanded)
+				return updateNode(expanded, sl, rows, columns, run);
+			// no need to split anything, just swap the segments in the raw list
+			for (Seg se : lazySegments) {
+				if (!isOutdated(se, rows, columns))
+					sl.add(se);
+			}
+			return new BSPLazyNode(this, sl);
+		}
+		if (n.isIsleaf()) {
+			ArrayList<Seg> slist = new ArrayList<Seg>();
+			for (Seg se : ((BSPLeaf) n).getSlist()) {
+				if (!isOutdated(se, rows, columns))
+					slist.add(se);
+			}
+			if (sl.isEmpty() && slist.size() == ((BSPLeaf) n).getSlist().size())
+				return n;
+			// put new segments in front such that findPartitionCandidate considers them first
+			sl.addAll(slist);
+			return genNodes(sl, run);
+		}
+		BSPBranch b = (BSPBranch) n;
+		final ArrayList<Seg> lsl = new ArrayList<Seg>();
+		final ArrayList<Seg> rsl = new ArrayList<Seg>();
+		partitionSegments(sl, b.getX(), b.getY(), b.getDx(), b.getDy(), getDir(b.getDx(), b.getDy()), lsl, rsl, run);
+		BSPNode l = updateNode(b.getLeftBranch(), lsl, rows, columns, run);
+		BSPNode r = updateNode(b.getRightBranch(), rsl, rows, columns, run);
+		if (l == b.getLeftBranch() && r == b.getRightBranch())
+			return n;
+		// drop branches that lost all of their segments
+		if (isEmptyLeaf(l))
+			return r;
+		if (isEmptyLeaf(r))
+			return l;
+		return new BSPBranch(b.getX(), b.getY(), b.getDx(), b.getDy(), l, r);
+	}
+
+	/**
+	 * Tells if the bounding box of the node touches any of the given rows or columns
+	 */
+	private static boolean isOutdated(BSPNode n, boolean[] rows, boolean[] columns) {
+		// horizontal segments of row y are located on y or y+1, vertical ones of column x on x or x+1
+		for (int y = Math.max(0, n.getLowerBoundY()/Constants.MAP_UNIT-1); 
+				y < rows.length && y*Constants.MAP_UNIT <= n.getUpperBoundY(); y++) {
+			if (rows[y])
+				return true;
+		}
+		for (int x = Math.max(0, n.getLowerBoundX()/Constants.MAP_UNIT-1); 
+				x < columns.length && x*Constants.MAP_UNIT <= n.getUpperBoundX(); x++) {
+			if (columns[x])
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Tells if the segment was generated for one of the given rows or columns.
+	 * The direction of a segment tells if it was generated for a wall on top or bottom 
+	 * respectively left or right of the cells, see generateSegmentsForRow and generateSegmentsForColumn.
+	 */
+	private static boolean isOutdated(Seg se, boolean[] rows, boolean[] columns) {
+		if (se.getExtensionY() == 0) {
+			int y = se.getStartPositionY()/Constants.MAP_UNIT;
+			if (se.getExtensionX() > 0)
+				y--; // bottom wall of row y-1
+			return 0 <= y && y < rows.length && rows[y];
+		}
+		int x = se.getStartPositionX()/Constants.MAP_UNIT;
+		if (se.getExtensionY() < 0)
+			x--; // right wall of column x-1
+		return 0 <= x && x < columns.length && columns[x];
+	}
+
+	private static boolean isEmptyLeaf(BSPNode n) {
+		return n.isIsleaf() && ((BSPLeaf) n).getSlist().isEmpty();
+	}
+
+	/**
+	 * Computes the direction encoding of Seg.getDir() for a given extension
+	 * @param dx extension in x direction
+	 * @param dy extension in y direction
+	 * @return value in {-2,-1,1,2}
+	 */
+	private static int getDir(int dx, int dy) {
+		if (dx != 0)
+			return (dx < 0) ? 1 : -1;
+		return (dy < 0) ? 2 : -2;
 	}
 	/**
 	 * Provides the sign of a given integer number
@@ -0,0 +1,262 @@
+package generation;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import falstad.Constants;
+
+/**
+ * A compact binary format for a tree of BSPNodes as an alternative to the XML elements
+ * written by BSPNode.store and its subclasses.
+ *
+ * The tree is written in preorder with a single tag byte per node. Bounds are not written,
+ * the BSPLeaf and BSPBranch constructors compute them from the segments on load.
+ * Segment positions are written as the difference to the previous segment and in multiples of
+ * Constants.MAP_UNIT, the extension as a single signed length as segments are either horizontal
+ * or vertical. All integers are variable length encoded, so small differences take a single byte.
+ * Colors are not written as Seg derives them from the distance and the colchange value
+ * of the BSPBuilder, which the caller passes in and which is written once in the header. Values that do not fit this scheme,
+ * i.e. coordinates off the grid or colors that have been set explicitly, are written as they are,
+ * such that a round trip is lossless in any case.
+ *
+ * @author Ben Zhang
+ *
+ */
+public final class BSPCodec {
+	private static final int MAGIC = 0x42535031; // "BSP1"
+	// tags for nodes
+	private static final int TAG_LEAF = 0;
+	private static final int TAG_BRANCH = 1;
+	private static final int TAG_BRANCH_RAW = 2; // branch with coordinates off the grid
+	// flags for segments
+	private static final int FLAG_PARTITION = 1;
+	private static final int FLAG_SEEN = 2;
+	private static final int FLAG_VERTICAL = 4; // extension is in y direction
+	private static final int FLAG_COLOR = 8; // color is written explicitly
+	private static final int FLAG_RAW = 16; // coordinates are off the grid
+
+	private static final int U = Constants.MAP_UNIT;
+
+	private final int colchange; // used to reconstruct colors of segments
+	// start position of the previously written or read segment, basis for delta encoding
+	private int prevX;
+	private int prevY;
+
+	private BSPCodec(int colchange) {
+		this.colchange = colchange;
+		prevX = 0;
+		prevY = 0;
+	}
+
+	/**
+	 * Encodes a tree of BSPNodes into a byte array.
+	 * @param root of the tree
+	 * @param colchange value the BSPBuilder used for the colors of the segments, see MazeConfiguration.getColchange
+	 * @return binary representation of the tree
+	 */
+	public static byte[] encode(BSPNode root, int colchange) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			write(root, colchange, new DataOutputStream(bytes));
+		} catch (IOException e) {
+			// not thrown by a ByteArrayOutputStream
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a tree of BSPNodes from a byte array produced by encode.
+	 * @param data binary representation of the tree
+	 * @return root of the tree
+	 * @throws IOException if data is not a valid encoding of a tree
+	 */
+	public static BSPNode decode(byte[] data) throws IOException {
+		return read(new DataInputStream(new ByteArrayInputStream(data)));
+	}
+
+	/**
+	 * Writes a tree of BSPNodes. Lazy nodes are expanded first, such that
+	 * the format does not need to know about them.
+	 * Segments whose color differs from the one colchange gives are written with their color.
+	 * @param root of the tree
+	 * @param colchange value the BSPBuilder used for the colors of the segments, see MazeConfiguration.getColchange
+	 * @param out to write to
+	 * @throws IOException if writing fails
+	 */
+	public static void write(BSPNode root, int colchange, DataOutput out) throws IOException {
+		BSPCodec codec = new BSPCodec(colchange);
+		out.writeInt(MAGIC);
+		out.writeInt(codec.colchange);
+		codec.writeNode(root, out);
+	}
+
+	/**
+	 * Reads a tree of BSPNodes as written by write.
+	 * @param in to read from
+	 * @return root of the tree
+	 * @throws IOException if reading fails or the input is not a valid encoding of a tree
+	 */
+	public static BSPNode read(DataInput in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a binary BSP tree");
+		BSPCodec codec = new BSPCodec(in.readInt());
+		return codec.readNode(in);
+	}
+
+	/////////////////////// writing //////////////////////////////
+	private void writeNode(BSPNode n, DataOutput out) throws IOException {
+		// a branch always has two children, the constructor of BSPBranch needs them for its bounds
+		if (n instanceof BSPLazyNode)
+			n = ((BSPLazyNode) n).expand();
+		if (n.isIsleaf()) {
+			out.writeByte(TAG_LEAF);
+			ArrayList<Seg> sl = ((BSPLeaf) n).getSlist();
+			writeVarInt(out, sl.size());
+			for (Seg se : sl)
+				writeSeg(se, out);
+		}
+		else {
+			BSPBranch b = (BSPBranch) n;
+			if (onGrid(b.getX()) && onGrid(b.getY()) && onGrid(b.getDx()) && onGrid(b.getDy())) {
+				out.writeByte(TAG_BRANCH);
+				writeSignedVarInt(out, b.getX() / U);
+				writeSignedVarInt(out, b.getY() / U);
+				writeSignedVarInt(out, b.getDx() / U);
+				writeSignedVarInt(out, b.getDy() / U);
+			}
+			else {
+				out.writeByte(TAG_BRANCH_RAW);
+				writeSignedVarInt(out, b.getX());
+				writeSignedVarInt(out, b.getY());
+				writeSignedVarInt(out, b.getDx());
+				writeSignedVarInt(out, b.getDy());
+			}
+			writeNode(b.getLeftBranch(), out);
+			writeNode(b.getRightBranch(), out);
+		}
+	}
+
+	private void writeSeg(Seg se, DataOutput out) throws IOException {
+		int deltaX = se.getStartPositionX() - prevX;
+		int deltaY = se.getStartPositionY() - prevY;
+		boolean vertical = (se.getExtensionX() == 0);
+		int length = vertical ? se.getExtensionY() : se.getExtensionX();
+		boolean raw = !(onGrid(deltaX) && onGrid(deltaY) && onGrid(length));
+		int rgb = se.getColor().getRGB();
+		boolean color = (Seg.computeColor(se.getExtensionX(), se.getDistance(), colchange).getRGB() != rgb);
+
+		int flags = 0;
+		if (se.isPartition())
+			flags |= FLAG_PARTITION;
+		if (se.isSeen())
+			flags |= FLAG_SEEN;
+		if (vertical)
+			flags |= FLAG_VERTICAL;
+		if (color)
+			flags |= FLAG_COLOR;
+		if (raw)
+			flags |= FLAG_RAW;
+		out.writeByte(flags);
+		int scale = raw ? 1 : U;
+		writeSignedVarInt(out, deltaX / scale);
+		writeSignedVarInt(out, deltaY / scale);
+		writeSignedVarInt(out, length / scale);
+		writeSignedVarInt(out, se.getDistance());
+		if (color)
+			out.writeInt(rgb);
+		prevX = se.getStartPositionX();
+		prevY = se.getStartPositionY();
+	}
+
+	private static boolean onGrid(int value) {
+		return value % U == 0;
+	}
+
+	/**
+	 * Writes a non-negative value in 7 bit groups, lowest group first,
+	 * the highest bit of each byte tells if more bytes follow.
+	 */
+	private static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Writes a value such that values close to 0 take few bytes, regardless of sign.
+	 */
+	private static void writeSignedVarInt(DataOutput out, int value) throws IOException {
+		writeVarInt(out, (value << 1) ^ (value >> 31));
+	}
+
+	/////////////////////// reading //////////////////////////////
+	private BSPNode readNode(DataInput in) throws IOException {
+		int tag = in.readUnsignedByte();
+		switch (tag) {
+		case TAG_LEAF:
+			int n = readVarInt(in);
+			ArrayList<Seg> sl = new ArrayList<Seg>(n);
+			for (int i = 0; i < n; i++)
+				sl.add(readSeg(in));
+			return new BSPLeaf(sl);
+		case TAG_BRANCH:
+		case TAG_BRANCH_RAW:
+			int scale = (TAG_BRANCH == tag) ? U : 1;
+			int x = readSignedVarInt(in) * scale;
+			int y = readSignedVarInt(in) * scale;
+			int dx = readSignedVarInt(in) * scale;
+			int dy = readSignedVarInt(in) * scale;
+			BSPNode l = readNode(in);
+			BSPNode r = readNode(in);
+			return new BSPBranch(x, y, dx, dy, l, r);
+		default:
+			throw new IOException("Unknown node tag in binary BSP tree: " + tag);
+		}
+	}
+
+	private Seg readSeg(DataInput in) throws IOException {
+		int flags = in.readUnsignedByte();
+		int scale = ((flags & FLAG_RAW) != 0) ? 1 : U;
+		int x = prevX + readSignedVarInt(in) * scale;
+		int y = prevY + readSignedVarInt(in) * scale;
+		int length = readSignedVarInt(in) * scale;
+		int dist = readSignedVarInt(in);
+		if (length == 0)
+			throw new IOException("Segment without extension in binary BSP tree");
+		Seg se = ((flags & FLAG_VERTICAL) != 0) ?
+				new Seg(x, y, 0, length, dist, colchange) : new Seg(x, y, length, 0, dist, colchange);
+		if ((flags & FLAG_COLOR) != 0)
+			se.setColor(new Color(in.readInt(), true));
+		se.setPartition((flags & FLAG_PARTITION) != 0);
+		se.setSeen((flags & FLAG_SEEN) != 0);
+		prevX = x;
+		prevY = y;
+		return se;
+	}
+
+	private static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed integer in binary BSP tree");
+	}
+
+	private static int readSignedVarInt(DataInput in) throws IOException {
+		int value = readVarInt(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ *
+ */
+package generation;
+
+import java.util.ArrayList;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * A node for a tree of BSPNodes whose segments have not been partitioned yet.
+ * It carries the raw list of segments and their bounding box. On the first call to expand
+ * it lets the BSPBuilder perform a single split, which results in a leaf or in a branch
+ * whose children are lazy nodes again. The tree thus grows only where it is traversed.
+ *
+ * The FirstPersonDrawer expands nodes as it reaches them with a visible bounding box,
+ * a background thread can expand nodes ahead of the player's motion with expandAround.
+ * Expansion is synchronized, so both can work on the same tree.
+ */
+public class BSPLazyNode extends BSPNode {
+
+	private final BSPBuilder builder; // performs the split
+	private ArrayList<Seg> slist; // list of segments, released after expansion, guarded by this
+	private volatile BSPNode node; // result of the expansion, null before
+
+	/**
+	 * Constructor
+	 * @param builder performs the split on expansion
+	 * @param sl is a list of segments
+	 */
+	BSPLazyNode(BSPBuilder builder, ArrayList<Seg> sl) {
+		this.builder = builder;
+		slist = sl;
+		// same bounds as a leaf with these segments
+		setLowerBoundX(1000000);
+		setUpperBoundX(-1000000);
+		setLowerBoundY(1000000);
+		setUpperBoundY(-1000000);
+		for (Seg se : sl) {
+			fix_bounds(se.getStartPositionX(), se.getStartPositionY());
+			fix_bounds(se.getEndPositionX(), se.getEndPositionY());
+		}
+	}
+
+	/**
+	 * Splits the segments of this node once, if not done before.
+	 * @return the node that replaces this node in the tree, a leaf or a branch
+	 */
+	public BSPNode expand() {
+		BSPNode result = node;
+		if (null != result)
+			return result;
+		synchronized (this) {
+			if (null == node) {
+				node = builder.expandLazyNode(slist);
+				slist = null;
+			}
+			return node;
+		}
+	}
+
+	/**
+	 * @return true if expand has been called before
+	 */
+	public boolean isExpanded() {
+		return null != node;
+	}
+
+	/**
+	 * Expands all nodes of the subtree whose bounding box is within the given
+	 * distance of the (x,y) position. Intended to run on a background thread
+	 * such that the nodes are ready when the player gets there.
+	 * @param x coordinate of position in map units
+	 * @param y coordinate of position in map units
+	 * @param radius distance in map units
+	 */
+	public void expandAround(int x, int y, int radius) {
+		expandAround(this, x, y, radius);
+	}
+
+	private static void expandAround(BSPNode n, int x, int y, int radius) {
+		while (!Thread.currentThread().isInterrupted()) {
+			if (x < n.getLowerBoundX()-radius || x > n.getUpperBoundX()+radius ||
+					y < n.getLowerBoundY()-radius || y > n.getUpperBoundY()+radius)
+				return;
+			if (n instanceof BSPLazyNode) {
+				n = ((BSPLazyNode) n).expand();
+				continue;
+			}
+			if (n.isIsleaf())
+				return;
+			expandAround(((BSPBranch) n).getLeftBranch(), x, y, radius);
+			n = ((BSPBranch) n).getRightBranch();
+		}
+	}
+
+	/**
+	 * Expands the whole subtree.
+	 */
+	public void expandAll() {
+		expandAll(this);
+	}
+
+	private static void expandAll(BSPNode n) {
+		while (true) {
+			if (n instanceof BSPLazyNode) {
+				n = ((BSPLazyNode) n).expand();
+				continue;
+			}
+			if (n.isIsleaf())
+				return;
+			expandAll(((BSPBranch) n).getLeftBranch());
+			n = ((BSPBranch) n).getRightBranch();
+		}
+	}
+
+	/**
+	 * @return tells if object is a leaf node
+	 */
+	@Override
+	public boolean isIsleaf() {
+		return false ;
+	}
+
+	/**
+	 * Stores the fully expanded subtree, such that the file format
+	 * does not need to know about lazy nodes.
+	 */
+	@Override
+	public int store(Document doc, Element mazeXML, int number) {
+		expandAll();
+		return expand().store(doc, mazeXML, number);
+	}
+
+	/**
+	 * Gives the result of the expansion or, if the node has not been expanded, copies of its segments.
+	 * Both are read under the lock of expand, such that an expansion on another thread cannot release 
+	 * the segments in between or change the partition bits of the copies later on.
+	 * @param segments receives copies of the segments if the node has not been expanded
+	 * @return the node that replaces this node in the tree, null if the node has not been expanded
+	 */
+	synchronized BSPNode getExpansionOrSegments(ArrayList<Seg> segments) {
+		if (null == node) {
+			for (Seg se : slist)
+				segments.add(se.copy());
+		}
+		return node;
+	}
+}
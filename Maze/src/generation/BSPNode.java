@@ -25,6 +25,8 @@ public class BSPNode {
 	private int yl;
 	private int xu;
 	private int yu;    
+	/* number of this node in a PotentiallyVisibleSet, -1 if not numbered */
+	private int visibilityIndex = -1;
     
 	/**
 	 * Store the content of a BSPNode including data of branches and leaves as special cases.
@@ -145,4 +147,19 @@ public class BSPNode {
 	public void setUpperBoundY(int yu) {
 		this.yu = yu;
 	}
+
+	/**
+	 * Sets the number of this node in a PotentiallyVisibleSet.
+	 * @param index number of node, nodes are numbered in preorder
+	 */
+	void setVisibilityIndex(int index) {
+		visibilityIndex = index;
+	}
+
+	/**
+	 * @return number of this node in a PotentiallyVisibleSet, -1 if nodes have not been numbered
+	 */
+	int getVisibilityIndex() {
+		return visibilityIndex;
+	}
 }
\ No newline at end of file
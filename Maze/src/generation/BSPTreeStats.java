@@ -0,0 +1,145 @@
+package generation;
+
+import java.util.Arrays;
+
+/**
+ * Describes the shape of a tree of BSPNodes: how many splits it has, how deep its leaves are
+ * and how many segments they carry. It also keeps the number of partition iterations that
+ * the BSPBuilder needed next to the number that Constants.SKILL_PARTCT expects for the skill level,
+ * which shows how far off a progress estimate based on that constant would be.
+ * Lazy nodes that have not been expanded are counted separately and not traversed.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class BSPTreeStats {
+	private int splits; 		// number of branch nodes
+	private int leaves; 		// number of leaf nodes
+	private int lazyNodes; 		// number of lazy nodes that have not been expanded
+	private int segments; 		// number of segments in all leaves
+	private int[] depths; 		// depths[d] is the number of leaves at depth d, the root has depth 0
+	private int[] leafSizes; 	// leafSizes[n] is the number of leaves with n segments
+	private final int partitionIterations;
+	private final int expectedPartitionIterations;
+
+	/**
+	 * Constructor, traverses the given tree.
+	 * @param root of the tree
+	 * @param partitionIterations number of partition candidates the BSPBuilder graded
+	 * @param expectedPartitionIterations number of iterations expected for the skill level
+	 */
+	public BSPTreeStats(BSPNode root, int partitionIterations, int expectedPartitionIterations) {
+		this.partitionIterations = partitionIterations;
+		this.expectedPartitionIterations = expectedPartitionIterations;
+		depths = new int[8];
+		leafSizes = new int[8];
+		if (null != root)
+			visit(root, 0);
+	}
+
+	private void visit(BSPNode n, int depth) {
+		if (n instanceof BSPLazyNode) {
+			BSPLazyNode lazy = (BSPLazyNode) n;
+			if (!lazy.isExpanded()) {
+				lazyNodes++;
+				return;
+			}
+			n = lazy.expand();
+		}
+		if (n.isIsleaf()) {
+			int size = ((BSPLeaf) n).getSlist().size();
+			leaves++;
+			segments += size;
+			depths = increment(depths, depth);
+			leafSizes = increment(leafSizes, size);
+			return;
+		}
+		splits++;
+		visit(((BSPBranch) n).getLeftBranch(), depth+1);
+		visit(((BSPBranch) n).getRightBranch(), depth+1);
+	}
+
+	private static int[] increment(int[] histogram, int index) {
+		if (index >= histogram.length)
+			histogram = Arrays.copyOf(histogram, Math.max(index+1, 2*histogram.length));
+		histogram[index]++;
+		return histogram;
+	}
+
+	private static int lastIndex(int[] histogram) {
+		int i = histogram.length-1;
+		while (i > 0 && histogram[i] == 0)
+			i--;
+		return i;
+	}
+
+	/**
+	 * @return number of branch nodes
+	 */
+	public int getSplits() {
+		return splits;
+	}
+	/**
+	 * @return number of leaf nodes
+	 */
+	public int getLeaves() {
+		return leaves;
+	}
+	/**
+	 * @return number of lazy nodes that have not been expanded
+	 */
+	public int getLazyNodes() {
+		return lazyNodes;
+	}
+	/**
+	 * @return number of segments in all leaves
+	 */
+	public int getSegments() {
+		return segments;
+	}
+	/**
+	 * @return depth of the deepest leaf, 0 if there is none
+	 */
+	public int getMaxDepth() {
+		return lastIndex(depths);
+	}
+	/**
+	 * @return histogram of leaf depths, entry d is the number of leaves at depth d
+	 */
+	public int[] getDepthHistogram() {
+		return Arrays.copyOf(depths, getMaxDepth()+1);
+	}
+	/**
+	 * @return histogram of leaf sizes, entry n is the number of leaves with n segments
+	 */
+	public int[] getLeafSizeHistogram() {
+		return Arrays.copyOf(leafSizes, lastIndex(leafSizes)+1);
+	}
+	/**
+	 * @return number of partition candidates the BSPBuilder graded
+	 */
+	public int getPartitionIterations() {
+		return partitionIterations;
+	}
+	/**
+	 * @return number of iterations that Constants.SKILL_PARTCT expects
+	 */
+	public int getExpectedPartitionIterations() {
+		return expectedPartitionIterations;
+	}
+	/**
+	 * @return actual over expected partition iterations, 1.0 for a perfect estimate, 0 if nothing was expected
+	 */
+	public double getEstimateRatio() {
+		return (expectedPartitionIterations > 0) ? (double) partitionIterations / expectedPartitionIterations : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "BSPTreeStats: splits " + splits + ", leaves " + leaves + ", lazy " + lazyNodes
+				+ ", segments " + segments + ", max depth " + getMaxDepth()
+				+ ", depths " + Arrays.toString(getDepthHistogram())
+				+ ", leaf sizes " + Arrays.toString(getLeafSizeHistogram())
+				+ ", partiters " + partitionIterations + "/" + expectedPartitionIterations;
+	}
+}
@@ -0,0 +1,38 @@
+package generation;
+
+/**
+ * Receives measurements on the generation of a maze, i.e. how much time and memory
+ * each phase of the MazeBuilder and BSPBuilder takes and what the resulting tree of BSPNodes looks like.
+ * A listener is registered with the MazeFactory and is called on the thread that builds the maze.
+ *
+ * @author Ben Zhang
+ *
+ */
+public interface MazeBuildListener {
+
+	/**
+	 * Phases of the maze generation in the order they are performed.
+	 */
+	enum Phase {
+		ROOMS, 		// placing rooms, only for mazes that are not perfect
+		PATHWAYS, 	// removing walls such that all cells are connected
+		DISTANCES, 	// computing distances to the exit
+		SEGMENTS, 	// identifying segments of continuous walls
+		PARTITION 	// building the tree of BSPNodes, not performed up front for lazily partitioned trees
+	}
+
+	/**
+	 * Called when a phase is completed.
+	 * @param phase that has been completed
+	 * @param nanos wall-clock time the phase took in nanoseconds
+	 * @param allocatedBytes memory allocated by the building thread during the phase, including the pool threads 
+	 * that scan the segments of large mazes in parallel, -1 if the JVM cannot tell
+	 */
+	void phaseCompleted(Phase phase, long nanos, long allocatedBytes);
+
+	/**
+	 * Called when the tree of BSPNodes is available.
+	 * @param stats describes the shape of the tree and how well the progress estimate fits
+	 */
+	void treeCompleted(BSPTreeStats stats);
+}
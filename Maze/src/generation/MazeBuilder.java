@@ -35,6 +35,7 @@ public class MazeBuilder implements Runnable {
 	// class internal local variables
 	protected SingleRandom random ; // random number stream, used to make randomized decisions, e.g for direction to go
 	Order order; // describes what is wanted, e.g. a perfect maze or not
+	private MazeBuildListener listener; // receives measurements on the generation, may be null
 	
 	// constants
 	static final long SLEEP_INTERVAL = 100 ; //constant used for brief breaks to recognize interrupted signal, unit is millisecond
@@ -82,6 +83,14 @@ public class MazeBuilder implements Runnable {
 		cells = new Cells(width,height) ;
 		dists = new Distance(width,height) ;
 	}
+	/**
+	 * Sets a listener that receives timings for each phase of the generation
+	 * and statistics on the resulting tree of BSPNodes.
+	 * @param listener may be null
+	 */
+	public void setBuildListener(MazeBuildListener listener) {
+		this.listener = listener;
+	}
 	/**
 	 * Main method to run construction of a new maze in a thread of its own.
 	 * This method is called by the MazeFactory to generate a maze.
@@ -92,8 +101,12 @@ public class MazeBuilder implements Runnable {
 			// create an initial invalid maze where all walls and borders are up
 			cells.initialize();
 			// place rooms in maze as needed
-			if (rooms > 0)
+			if (rooms > 0) {
+				PhaseTimer timer = new PhaseTimer(listener);
+				timer.start();
 				generateRooms();
+				timer.stop(MazeBuildListener.Phase.ROOMS);
+			}
 			
 			Thread.sleep(SLEEP_INTERVAL) ; // test if thread has been interrupted, i.e. notified to stop
 
@@ -104,7 +117,10 @@ public class MazeBuilder implements Runnable {
 
 			final int colchange = random.nextIntWithinInterval(0, 255); // used in the constructor for Segments  class Seg
 			final BSPBuilder b = new BSPBuilder(order, dists, cells, width, height, colchange, expectedPartiters) ;
-			BSPNode root = b.generateBSPNodes(); // takes a long time, updates progressbar, 
+			b.setBuildListener(listener);
+			// for large mazes, the tree is only partitioned on demand while the maze is explored
+			BSPNode root = (width*height >= Constants.LAZY_BSP_MIN_CELLS) ? b.generateLazyBSPNodes() :
+				b.generateBSPNodes(); // takes a long time, updates progressbar, 
 			// it also internally checks for cancel requests
 			// and throws an interrupted exception if that happens
 
@@ -117,6 +133,7 @@ public class MazeBuilder implements Runnable {
 			mazeConfig.setMazecells(cells);
 			mazeConfig.setMazedists(dists);
 			mazeConfig.setRootnode(root);
+			mazeConfig.setColchange(colchange);
 			mazeConfig.setStartingPosition(startx, starty);
 			order.deliver(mazeConfig);
 			order.updateProgress(100); // Order interface promises to communicate 100% upon delivery
@@ -217,9 +234,14 @@ public class MazeBuilder implements Runnable {
 		// generate paths in cells such that there is one strongly connected component
 		// i.e. between any two cells in the maze there is a path to get from one to the other
 		// the search algorithms starts at some random point
+		final PhaseTimer timer = new PhaseTimer(listener);
+		timer.start();
 		generatePathways(); 
+		timer.stop(MazeBuildListener.Phase.PATHWAYS);
 
+		timer.start();
 		final int[] remote = dists.computeDistances(cells) ;
+		timer.stop(MazeBuildListener.Phase.DISTANCES);
 
 		// identify cell with the greatest distance
 		final int[] pos = dists.getStartPosition();
@@ -73,6 +73,19 @@ public interface MazeConfiguration {
 	 * @param rootnode the rootnode to set
 	 */
 	void setRootnode(BSPNode rootnode);
+
+	/**
+	 * Gets the value that determines the colors of segments, see Seg.computeColor.
+	 * Drawers that do not use the tree of segments need it to show walls in the same colors.
+	 * @return the colchange value
+	 */
+	int getColchange();
+
+	/**
+	 * Sets the value that determines the colors of segments.
+	 * @param colchange the colchange value to set
+	 */
+	void setColchange(int colchange);
 	/**
 	 * Tells if (x,y) coordinate is within range.
 	 * @param x is on the horizontal axis
@@ -21,6 +21,7 @@ public class MazeContainer implements MazeConfiguration {
 	// a segment is a continuous sequence of walls in vertical or horizontal direction
 	// a subset of segments need to be quickly identified for drawing
 	// the BSP tree partitions the set of all segments and provides a binary search tree for the partitions
+	private int colchange ; // determines colors of segments, see Seg.computeColor
 	private int[] start ;
 	/**
 	 * 
@@ -91,6 +92,20 @@ public class MazeContainer implements MazeConfiguration {
 	public void setRootnode(BSPNode rootnode) {
 		this.rootnode = rootnode;
 	}
+
+	/**
+	 * @return the value that determines the colors of segments
+	 */
+	public int getColchange() {
+		return colchange;
+	}
+
+	/**
+	 * @param colchange the value that determines the colors of segments
+	 */
+	public void setColchange(int colchange) {
+		this.colchange = colchange;
+	}
 	/**
 	 * Tells if given (x,y) position is valid, i.e. within legal range of values
 	 * @param x is on the horizontal axis 
@@ -22,6 +22,7 @@ public class MazeFactory implements Factory {
 	private MazeBuilder builder;
 	// 
 	private Thread buildThread; // computations are performed in own separated thread with this.run()
+	private MazeBuildListener buildListener; // passed on to each builder, may be null
 	
 	//////////////////////// Constructor ////////////////////////////////////////
 	/**
@@ -37,6 +38,15 @@ public class MazeFactory implements Factory {
 		this.deterministic = deterministic;
 	}
 	
+	/**
+	 * Sets a listener that receives measurements on the generation of each following order.
+	 * It is called on the thread that builds the maze.
+	 * @param listener may be null to stop measuring
+	 */
+	public void setBuildListener(MazeBuildListener listener) {
+		buildListener = listener;
+	}
+	
 	//////////////////////// Factory interface //////////////////////////////////
 	@Override
 	public boolean order(Order order) {
@@ -106,6 +116,7 @@ public class MazeFactory implements Factory {
 			return;
 		System.out.println("MazeFactory.buildOrder: started") ;
 		builder.buildOrder(currentOrder);
+		builder.setBuildListener(buildListener);
 		buildThread = new Thread(builder);
 		buildThread.start();
 	}
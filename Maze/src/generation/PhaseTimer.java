@@ -0,0 +1,89 @@
+package generation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures wall-clock time and allocated memory of the phases of a maze generation
+ * on the current thread and reports them to a MazeBuildListener.
+ * Work that the current thread hands over to other threads is included if its tasks are wrapped with measure.
+ * Without a listener it does nothing, so builders can use it unconditionally.
+ *
+ * @author Ben Zhang
+ *
+ */
+final class PhaseTimer {
+	private final MazeBuildListener listener; // may be null
+	private long startNanos;
+	private long startBytes;
+	private final AtomicLong taskBytes = new AtomicLong(); // allocated by measured tasks since start
+
+	/**
+	 * Constructor
+	 * @param listener receives measurements, may be null
+	 */
+	PhaseTimer(MazeBuildListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts the measurement for the next phase.
+	 */
+	void start() {
+		if (null == listener)
+			return;
+		taskBytes.set(0);
+		startBytes = getAllocatedBytes();
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Wraps a task that runs on another thread for the current phase, 
+	 * such that the memory it allocates on that thread is added to the phase.
+	 * @param task to run on another thread
+	 * @return the task itself if nothing is measured, a wrapper that measures it otherwise
+	 */
+	<T> Callable<T> measure(final Callable<T> task) {
+		if (null == listener)
+			return task;
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				final long before = getAllocatedBytes();
+				try {
+					return task.call();
+				} finally {
+					if (before >= 0)
+						taskBytes.addAndGet(getAllocatedBytes() - before);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Ends the measurement and reports it for the given phase.
+	 * @param phase that has been completed
+	 */
+	void stop(MazeBuildListener.Phase phase) {
+		if (null == listener)
+			return;
+		long nanos = System.nanoTime() - startNanos;
+		long bytes = getAllocatedBytes();
+		listener.phaseCompleted(phase, nanos, (bytes < 0 || startBytes < 0) ? -1 : bytes - startBytes + taskBytes.get());
+	}
+
+	/**
+	 * @return memory allocated by the current thread so far, -1 if not supported by the JVM
+	 */
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+			if (b.isThreadAllocatedMemorySupported() && b.isThreadAllocatedMemoryEnabled())
+				return b.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
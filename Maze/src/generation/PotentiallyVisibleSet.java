@@ -0,0 +1,525 @@
+package generation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import falstad.Constants;
+
+/**
+ * Stores for each cell of a maze the set of BSP nodes that may be visible from somewhere in that cell.
+ * The FirstPersonDrawer consults it to skip subtrees whose leaves cannot be seen from the current cell,
+ * even if their bounding box is within the field of view and not yet covered by walls in front.
+ *
+ * Nodes are numbered in preorder and keep their number. A leaf is in the set of a cell if one of its
+ * segments may be visible, a branch is in the set if any leaf of its subtree is, such that the check
+ * for a subtree is a single bit test. The set of a cell is a bitset with one bit per node,
+ * stored in a single long array for all cells.
+ *
+ * The sets are conservative: a wall is in the set of a cell if there is a line from some point in the cell
+ * to some point on the wall that does not cross any other wall. A line of sight passes through the cells
+ * in a staircase that goes one way in x and one way in y, so the sets are computed by a flood from each cell
+ * through open borders of cells in each of the four diagonal directions. Lines with a slope between -1 and 1
+ * are written as y = a*x + b, steeper ones as x = a*y + b, and within one direction and one of these two forms,
+ * the condition that a line meets a cell or a border is linear in (a,b). The flood carries the convex polygon
+ * of all (a,b) of lines that meet the start cell and every border on the way and stops where the polygon is empty.
+ * Where two ways meet in a cell, it continues with the convex hull of both polygons, which can only add lines.
+ * Leaves with segments that are not on the borders of cells are in the set of every cell.
+ *
+ * The set can be written and read in a binary format such that it only needs to be computed once
+ * for a maze that is stored in a file, see MazeFileWriter and MazeFileReader. The file holds a checksum
+ * of the walls and the tree, a set is only read back for the maze it was computed for.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class PotentiallyVisibleSet {
+	private static final int MAGIC = 0x50565332; // "PVS2"
+	// increased whenever the way sets are computed changes, such that older files are not read
+	private static final int REVISION = 1;
+	private static final int U = Constants.MAP_UNIT;
+	// tolerance for rounding errors in the polygons of lines, errs on the side of visibility
+	private static final double EPS = 1e-9;
+
+	private final int width;
+	private final int height;
+	private final int nodes; // number of nodes in tree
+	private final long checksum; // of walls and tree, see checksum
+	private final int words; // longs per cell
+	private final long[] bits; // bit for node i of cell (x,y) is bit i%64 of bits[(y*width+x)*words + i/64]
+	private int[] parent; // number of the parent of each node, -1 for the root, only needed while building
+
+	private PotentiallyVisibleSet(int width, int height, int nodes, long checksum) {
+		this.width = width;
+		this.height = height;
+		this.nodes = nodes;
+		this.checksum = checksum;
+		words = (nodes + 63) / 64;
+		bits = new long[width*height*words];
+	}
+
+	/**
+	 * Computes the sets for all cells of a maze. Lazy nodes are expanded, the nodes of the
+	 * tree get numbered. Intended to run on a background thread, it checks for interrupts.
+	 * @param root of the tree of segments
+	 * @param cells walls of the maze
+	 * @param width of maze
+	 * @param height of maze
+	 * @return the sets
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	public static PotentiallyVisibleSet build(BSPNode root, Cells cells, int width, int height) throws InterruptedException {
+		ArrayList<BSPNode> nodeList = new ArrayList<BSPNode>();
+		ArrayList<Integer> parentList = new ArrayList<Integer>();
+		numberNodes(root, -1, nodeList, parentList);
+		PotentiallyVisibleSet pvs = new PotentiallyVisibleSet(width, height, nodeList.size(),
+				checksum(nodeList, cells, width, height));
+		pvs.parent = new int[parentList.size()];
+		for (int i = 0; i < pvs.parent.length; i++)
+			pvs.parent[i] = parentList.get(i);
+		ArrayList<Integer> offGrid = new ArrayList<Integer>();
+		int[] wallLeaf = pvs.mapWallsToLeaves(nodeList, offGrid);
+		Flood flood = pvs.new Flood(cells, wallLeaf);
+		for (int y = 0; y < height; y++) {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			for (int x = 0; x < width; x++) {
+				flood.fill(x, y);
+				for (int leaf : offGrid)
+					pvs.mark((y*width+x)*pvs.words, leaf);
+			}
+		}
+		pvs.parent = null;
+		return pvs;
+	}
+
+	/**
+	 * Numbers the nodes of a subtree in preorder, lazy nodes get the number of their expansion.
+	 * @param n root of subtree
+	 * @param parent number of the parent of n, -1 for the root of the tree
+	 * @param nodeList gets the nodes in the order of their numbers
+	 * @param parentList gets the numbers of their parents
+	 */
+	private static void numberNodes(BSPNode n, int parent, ArrayList<BSPNode> nodeList, ArrayList<Integer> parentList) {
+		BSPNode node = (n instanceof BSPLazyNode) ? ((BSPLazyNode) n).expand() : n;
+		final int index = nodeList.size();
+		nodeList.add(node);
+		parentList.add(parent);
+		node.setVisibilityIndex(index);
+		if (node != n)
+			n.setVisibilityIndex(index);
+		if (!node.isIsleaf()) {
+			numberNodes(((BSPBranch) node).getLeftBranch(), index, nodeList, parentList);
+			numberNodes(((BSPBranch) node).getRightBranch(), index, nodeList, parentList);
+		}
+	}
+
+	/**
+	 * Computes a checksum of the walls of all cells and the segments of the tree in preorder,
+	 * such that a set that is read from a file can be checked against the maze it is meant for.
+	 */
+	private static long checksum(ArrayList<BSPNode> nodeList, Cells cells, int width, int height) {
+		CRC32 crc = new CRC32();
+		DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				// only the checksum is of interest
+			}
+		}, crc));
+		try {
+			out.writeInt(width);
+			out.writeInt(height);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int walls = 0;
+					for (CardinalDirection dir : CardinalDirection.values()) {
+						if (cells.hasWall(x, y, dir))
+							walls |= 1 << dir.ordinal();
+					}
+					out.writeByte(walls);
+				}
+			}
+			for (BSPNode node : nodeList) {
+				out.writeBoolean(node.isIsleaf());
+				if (!node.isIsleaf())
+					continue;
+				ArrayList<Seg> segments = ((BSPLeaf) node).getSlist();
+				out.writeInt(segments.size());
+				for (Seg seg : segments) {
+					out.writeInt(seg.getStartPositionX());
+					out.writeInt(seg.getStartPositionY());
+					out.writeInt(seg.getExtensionX());
+					out.writeInt(seg.getExtensionY());
+				}
+			}
+			out.flush();
+		} catch (IOException e) {
+			// not thrown as nothing is written
+			throw new IllegalStateException(e);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Determines for each wall of each cell the leaf with the segment that shows it.
+	 * A segment is on the border between two cells and faces the cell on its right hand side
+	 * when going from its start to its end position, see BSPBuilder.
+	 * @param offGrid gets the leaves with segments that do not fit on the borders of cells of the maze
+	 * @return number of the leaf for index (y*width+x)*4 + direction.ordinal(), -1 if there is none
+	 */
+	private int[] mapWallsToLeaves(ArrayList<BSPNode> nodeList, ArrayList<Integer> offGrid) {
+		int[] wallLeaf = new int[width*height*4];
+		Arrays.fill(wallLeaf, -1);
+		for (int i = 0; i < nodeList.size(); i++) {
+			if (!nodeList.get(i).isIsleaf())
+				continue;
+			boolean onGrid = true;
+			for (Seg seg : ((BSPLeaf) nodeList.get(i)).getSlist()) {
+				if (seg.getStartPositionX() % U != 0 || seg.getStartPositionY() % U != 0
+						|| seg.getExtensionX() % U != 0 || seg.getExtensionY() % U != 0
+						|| (seg.getExtensionX() != 0 && seg.getExtensionY() != 0)) {
+					onGrid = false;
+					continue;
+				}
+				int x = seg.getStartPositionX() / U;
+				int y = seg.getStartPositionY() / U;
+				int dx = seg.getExtensionX() / U;
+				int dy = seg.getExtensionY() / U;
+				int len = Math.abs(dx + dy);
+				int sx = Integer.signum(dx);
+				int sy = Integer.signum(dy);
+				CardinalDirection dir;
+				if (dy > 0)
+					dir = CardinalDirection.West; // cells to the right of x
+				else if (dy < 0) {
+					dir = CardinalDirection.East; // cells to the left of x
+					x--;
+					y--;
+				}
+				else if (dx < 0) {
+					dir = CardinalDirection.North; // cells below y
+					x--;
+				}
+				else {
+					dir = CardinalDirection.South; // cells above y
+					y--;
+				}
+				for (int j = 0; j < len; j++, x += sx, y += sy) {
+					if (x >= 0 && x < width && y >= 0 && y < height)
+						wallLeaf[(y*width+x)*4 + dir.ordinal()] = i;
+					else
+						onGrid = false;
+				}
+			}
+			if (!onGrid)
+				offGrid.add(i);
+		}
+		return wallLeaf;
+	}
+
+	/**
+	 * Adds a node and all its ancestors to the set that starts at base.
+	 */
+	private void mark(int base, int node) {
+		// ancestors of a node in the set are already in the set
+		for (int i = node; i >= 0 && 0 == (bits[base + (i >>> 6)] & (1L << i)); i = parent[i])
+			bits[base + (i >>> 6)] |= 1L << i;
+	}
+
+	/**
+	 * Floods the maze from a cell along lines of sight, reuses its arrays for all cells.
+	 */
+	private class Flood {
+		private final Cells cells;
+		private final int[] wallLeaf;
+		// (a,b) coordinates of the polygons that reach each cell in the current flood,
+		// valid if the stamp of the cell is the current one
+		private final double[][] incoming;
+		private final int[] stamp;
+		private int currentStamp;
+		// cells of the current and the next step of a flood
+		private int[] layer;
+		private int[] nextLayer;
+
+		Flood(Cells cells, int[] wallLeaf) {
+			this.cells = cells;
+			this.wallLeaf = wallLeaf;
+			incoming = new double[width*height][];
+			stamp = new int[width*height];
+			layer = new int[width*height];
+			nextLayer = new int[width*height];
+		}
+
+		/**
+		 * Computes the set of cell (x,y).
+		 */
+		void fill(int x, int y) {
+			final int base = (y*width+x)*words;
+			// all walls of a cell can be seen from inside
+			for (CardinalDirection dir : CardinalDirection.values())
+				markWall(base, x, y, dir);
+			for (int steep = 0; steep < 2; steep++) {
+				for (int sx = -1; sx <= 1; sx += 2) {
+					for (int sy = -1; sy <= 1; sy += 2)
+						fill(base, x, y, 1 == steep, sx, sy);
+				}
+			}
+		}
+
+		/**
+		 * Follows all lines from cell (x,y) that go into direction (sx,sy) with the given steepness.
+		 */
+		private void fill(int base, int x, int y, boolean steep, int sx, int sy) {
+			// slope a is positive if x and y go the same way
+			final boolean rising = sx == sy;
+			// any line through the maze with such a slope has |b| below this bound
+			final double bound = 2*(width + height) + 2;
+			final double amin = rising ? 0 : -1;
+			final double amax = rising ? 1 : 0;
+			double[] lines = { amin, -bound, amax, -bound, amax, bound, amin, bound };
+			lines = meet(lines, steep, rising, x, x+1, y, y+1);
+			currentStamp++;
+			incoming[y*width+x] = lines;
+			stamp[y*width+x] = currentStamp;
+			int size = 0;
+			layer[size++] = y*width+x;
+			// cells of one layer are the same number of steps away from (x,y)
+			while (size > 0) {
+				int nextSize = 0;
+				for (int k = 0; k < size; k++) {
+					final int cx = layer[k] % width;
+					final int cy = layer[k] / width;
+					final double[] polygon = hull(incoming[layer[k]]);
+					// the border that is crossed when going in x direction and the one in y direction
+					final int bx = (sx > 0) ? cx+1 : cx;
+					final int by = (sy > 0) ? cy+1 : cy;
+					nextSize = cross(base, polygon, meet(polygon, steep, rising, bx, bx, cy, cy+1), cx, cy,
+							(sx > 0) ? CardinalDirection.East : CardinalDirection.West, cx+sx, cy, nextSize);
+					nextSize = cross(base, polygon, meet(polygon, steep, rising, cx, cx+1, by, by), cx, cy,
+							(sy > 0) ? CardinalDirection.South : CardinalDirection.North, cx, cy+sy, nextSize);
+				}
+				int[] tmp = layer;
+				layer = nextLayer;
+				nextLayer = tmp;
+				size = nextSize;
+			}
+		}
+
+		/**
+		 * Handles the lines that meet a border of cell (x,y), they see the wall if there is one,
+		 * otherwise they continue in the next cell.
+		 * @return new size of the next layer
+		 */
+		private int cross(int base, double[] polygon, double[] lines, int x, int y, CardinalDirection dir,
+				int nx, int ny, int nextSize) {
+			if (0 == lines.length)
+				return nextSize;
+			if (cells.hasWall(x, y, dir)) {
+				markWall(base, x, y, dir);
+				return nextSize;
+			}
+			if (nx < 0 || nx >= width || ny < 0 || ny >= height)
+				return nextSize; // lines leave the maze
+			final int next = ny*width+nx;
+			if (stamp[next] != currentStamp) {
+				stamp[next] = currentStamp;
+				incoming[next] = lines;
+				nextLayer[nextSize++] = next;
+			}
+			else {
+				// lines from both ways, the convex hull is taken when the cell is processed
+				double[] both = Arrays.copyOf(incoming[next], incoming[next].length + lines.length);
+				System.arraycopy(lines, 0, both, incoming[next].length, lines.length);
+				incoming[next] = both;
+			}
+			return nextSize;
+		}
+
+		private void markWall(int base, int x, int y, CardinalDirection dir) {
+			final int leaf = wallLeaf[(y*width+x)*4 + dir.ordinal()];
+			if (leaf >= 0)
+				mark(base, leaf);
+		}
+	}
+
+	/**
+	 * Restricts a polygon of lines to those that meet the rectangle [x0,x1]x[y0,y1], which may be
+	 * a border of a cell if x0 == x1 or y0 == y1.
+	 * @param polygon vertices (a,b) of a convex polygon of lines
+	 * @param steep true if lines are x = a*y + b, false if y = a*x + b
+	 * @param rising true if a >= 0 for all lines, false if a <= 0
+	 * @return vertices of the resulting polygon, an empty array if no line meets the rectangle
+	 */
+	private static double[] meet(double[] polygon, boolean steep, boolean rising, double x0, double x1, double y0, double y1) {
+		// with u = a*t + b for the coordinate t that the line is a function of,
+		// the line meets the rectangle if u <= u1 at one end of [t0,t1] and u >= u0 at the other end
+		final double t0 = steep ? y0 : x0;
+		final double t1 = steep ? y1 : x1;
+		final double u0 = steep ? x0 : y0;
+		final double u1 = steep ? x1 : y1;
+		final double low = rising ? t0 : t1; // where u is smallest
+		final double high = rising ? t1 : t0; // where u is largest
+		// a*low + b <= u1 and -a*high - b <= -u0
+		return clip(clip(polygon, low, 1, u1), -high, -1, -u0);
+	}
+
+	/**
+	 * Clips a convex polygon with the half plane p*a + q*b <= r.
+	 * Works as well for polygons that degenerated to a line or a point.
+	 * @return vertices of the resulting polygon, an empty array if nothing remains
+	 */
+	private static double[] clip(double[] polygon, double p, double q, double r) {
+		final int n = polygon.length / 2;
+		double[] result = new double[4*n];
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			final int j = (i+1) % n;
+			final double di = p*polygon[2*i] + q*polygon[2*i+1] - r;
+			final double dj = p*polygon[2*j] + q*polygon[2*j+1] - r;
+			if (di <= EPS) {
+				result[size++] = polygon[2*i];
+				result[size++] = polygon[2*i+1];
+			}
+			if ((di <= EPS) != (dj <= EPS)) {
+				final double t = di / (di - dj);
+				result[size++] = polygon[2*i] + t*(polygon[2*j] - polygon[2*i]);
+				result[size++] = polygon[2*i+1] + t*(polygon[2*j+1] - polygon[2*i+1]);
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Computes the convex hull of a set of points with Andrew's monotone chain.
+	 * @param points coordinates (a,b) of points
+	 * @return vertices of the convex hull in counterclockwise order
+	 */
+	private static double[] hull(double[] points) {
+		final int n = points.length / 2;
+		if (n <= 2)
+			return points;
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		final double[] p = points;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i, Integer j) {
+				int c = Double.compare(p[2*i], p[2*j]);
+				return (0 != c) ? c : Double.compare(p[2*i+1], p[2*j+1]);
+			}
+		});
+		int[] chain = new int[2*n];
+		int k = 0;
+		// lower hull, then upper hull
+		for (int i = 0; i < n; i++) {
+			while (k >= 2 && cross(p, chain[k-2], chain[k-1], order[i]) <= 0)
+				k--;
+			chain[k++] = order[i];
+		}
+		for (int i = n-2, lower = k+1; i >= 0; i--) {
+			while (k >= lower && cross(p, chain[k-2], chain[k-1], order[i]) <= 0)
+				k--;
+			chain[k++] = order[i];
+		}
+		k--; // last point is the first one
+		if (k < 1)
+			k = 1; // all points are the same
+		double[] result = new double[2*k];
+		for (int i = 0; i < k; i++) {
+			result[2*i] = p[2*chain[i]];
+			result[2*i+1] = p[2*chain[i]+1];
+		}
+		return result;
+	}
+
+	private static double cross(double[] p, int o, int a, int b) {
+		return (p[2*a] - p[2*o])*(p[2*b+1] - p[2*o+1]) - (p[2*a+1] - p[2*o+1])*(p[2*b] - p[2*o]);
+	}
+
+	/**
+	 * Gives the index of a cell for mayBeVisible.
+	 * @param x coordinate of cell
+	 * @param y coordinate of cell
+	 * @return index of cell, -1 if (x,y) is outside of the maze
+	 */
+	public int getCellIndex(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			return -1;
+		return y*width+x;
+	}
+
+	/**
+	 * Tells if any leaf of the subtree may be visible from the given cell.
+	 * @param cell index of cell as given by getCellIndex, -1 for a position outside the maze
+	 * @param node root of subtree
+	 * @return false if no leaf of the subtree is visible from anywhere in the cell
+	 */
+	public boolean mayBeVisible(int cell, BSPNode node) {
+		final int i = node.getVisibilityIndex();
+		if (cell < 0 || i < 0)
+			return true; // nothing known
+		return (bits[cell*words + (i >>> 6)] & (1L << i)) != 0;
+	}
+
+	/**
+	 * @return number of nodes in the tree
+	 */
+	public int getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * Writes the sets in a binary format.
+	 * @param out to write to
+	 * @throws IOException if writing fails
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(REVISION);
+		out.writeInt(width);
+		out.writeInt(height);
+		out.writeInt(nodes);
+		out.writeLong(checksum);
+		for (long word : bits)
+			out.writeLong(word);
+	}
+
+	/**
+	 * Reads sets as written by write for the given maze. The nodes of the tree get numbered
+	 * in the same way as when the sets were computed.
+	 * @param in to read from
+	 * @param root of the tree of segments that the sets were computed for
+	 * @param cells walls of the maze
+	 * @param width of maze
+	 * @param height of maze
+	 * @return the sets
+	 * @throws IOException if reading fails or the sets were computed for a different maze
+	 */
+	public static PotentiallyVisibleSet read(DataInput in, BSPNode root, Cells cells, int width, int height) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a potentially visible set");
+		if (in.readInt() != REVISION)
+			throw new IOException("Potentially visible set is of a different revision");
+		if (in.readInt() != width || in.readInt() != height)
+			throw new IOException("Potentially visible set is for a maze of different size");
+		ArrayList<BSPNode> nodeList = new ArrayList<BSPNode>();
+		numberNodes(root, -1, nodeList, new ArrayList<Integer>());
+		if (in.readInt() != nodeList.size())
+			throw new IOException("Potentially visible set is for a different tree");
+		final long checksum = checksum(nodeList, cells, width, height);
+		if (in.readLong() != checksum)
+			throw new IOException("Potentially visible set is for different walls or a different tree");
+		PotentiallyVisibleSet pvs = new PotentiallyVisibleSet(width, height, nodeList.size(), checksum);
+		for (int i = 0; i < pvs.bits.length; i++)
+			pvs.bits[i] = in.readLong();
+		return pvs;
+	}
+}
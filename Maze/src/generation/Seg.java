@@ -58,13 +58,37 @@ public class Seg {
 		// all fields initialized
 	}
 
+	/**
+	 * @return a segment with the same position, extension, distance, color and flags
+	 */
+	Seg copy() {
+		Seg result = new Seg(x, y, dx, dy, dist, 0);
+		result.col = col;
+		result.partition = partition;
+		result.seen = seen;
+		return result;
+	}
+
 	/**
 	 * Determine and set the color for this segment
 	 * @param distance to exit
 	 * @param cc obscure
 	 */
 	private void initColor(int distance, int cc) {
-		int add = (getExtensionX() != 0) ? 1 : 0;
+		setColor(computeColor(getExtensionX(), distance, cc));
+	}
+
+	/**
+	 * Computes the color that the constructor assigns to a segment, 
+	 * such that it can be reconstructed from the segment's data, see BSPCodec,
+	 * or determined for a wall without a segment, see RaycastDrawer.
+	 * @param dx extension of the segment in x direction
+	 * @param distance to exit
+	 * @param cc obscure
+	 * @return color for segment
+	 */
+	public static Color computeColor(int dx, int distance, int cc) {
+		int add = (dx != 0) ? 1 : 0;
 		// 7 in binary is 0...0111
 		// use AND to get last 3 digits of distance
 		distance /= 4;
@@ -74,13 +98,13 @@ public class Seg {
 		// compute rgb value, depends on distance and x direction
 		int rgbValue = ((part1 + 2 + add) * 70)/8 + 80;
 		switch (part2) {
-		case 0: setColor(new Color(rgbValue, 20, 20)); break;
-		case 1: setColor(new Color(20, rgbValue, 20)); break;
-		case 2: setColor(new Color(20, 20, rgbValue)); break;
-		case 3: setColor(new Color(rgbValue, rgbValue, 20)); break;
-		case 4: setColor(new Color(20, rgbValue, rgbValue)); break;
-		case 5: setColor(new Color(rgbValue, 20, rgbValue)); break;
-		default: setColor(new Color(20, 20, 20)); break;
+		case 0: return new Color(rgbValue, 20, 20);
+		case 1: return new Color(20, rgbValue, 20);
+		case 2: return new Color(20, 20, rgbValue);
+		case 3: return new Color(rgbValue, rgbValue, 20);
+		case 4: return new Color(20, rgbValue, rgbValue);
+		case 5: return new Color(rgbValue, 20, rgbValue);
+		default: return new Color(20, 20, 20);
 		}
 	}
 
@@ -0,0 +1,66 @@
+package generation;
+
+import java.util.ArrayList;
+
+/**
+ * A growing buffer of segments in primitive form, i.e. five ints per segment for
+ * its position (x,y), its extension (dx,dy) and its distance to the exit.
+ * The BSPBuilder fills one buffer per band of rows or columns such that bands can be
+ * scanned concurrently without sharing a list. Seg objects are only created when
+ * the buffers are appended to the segment list in a fixed order.
+ *
+ * @author Ben Zhang
+ *
+ */
+final class SegmentBuffer {
+	private static final int FIELDS = 5; // x, y, dx, dy, dist
+	private int[] data;
+	private int size; // number of segments in buffer
+
+	/**
+	 * Constructor
+	 * @param capacity initial number of segments the buffer can hold
+	 */
+	SegmentBuffer(int capacity) {
+		data = new int[Math.max(1, capacity) * FIELDS];
+		size = 0;
+	}
+
+	/**
+	 * Adds a segment, parameters are the same as for the Seg constructor.
+	 */
+	void add(int x, int y, int dx, int dy, int dist) {
+		if ((size + 1) * FIELDS > data.length) {
+			int[] tmp = new int[data.length * 2];
+			System.arraycopy(data, 0, tmp, 0, size * FIELDS);
+			data = tmp;
+		}
+		int i = size * FIELDS;
+		data[i] = x;
+		data[i+1] = y;
+		data[i+2] = dx;
+		data[i+3] = dy;
+		data[i+4] = dist;
+		size++;
+	}
+
+	/**
+	 * @return number of segments in buffer
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Creates a Seg for each segment in the buffer and appends it to the list
+	 * in the order the segments have been added.
+	 * @param sl list of segments to append to
+	 * @param colchange passed on to Seg constructor to determine colors
+	 */
+	void appendTo(ArrayList<Seg> sl, int colchange) {
+		sl.ensureCapacity(sl.size() + size);
+		for (int i = 0; i < size * FIELDS; i += FIELDS) {
+			sl.add(new Seg(data[i], data[i+1], data[i+2], data[i+3], data[i+4], colchange));
+		}
+	}
+}
@@ -28,14 +28,14 @@ public class BasicRobotTest extends BasicRobot{
 	 * @param y
 	 */
 	protected void teleportTo(int x, int y){
-		getMaze().setCurrentPosition(x, y);
+		((MazeController) getMaze()).setCurrentPosition(x, y);
 	}
 	
 	@Before
 	public void setUp(){
 		setMaze( new MazeController("test/data/input.xml") );
 		reset();
-		getMaze().init();
+		((MazeController) getMaze()).init();
 		//getMaze().getMazeConfiguration().getMazedists().prettyPrint();
 	}
 	
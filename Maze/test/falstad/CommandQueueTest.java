@@ -0,0 +1,145 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import falstad.CommandQueue.Kind;
+
+/**
+ * Tests the CommandQueue with a handler that records the commands and that can be held up,
+ * such that commands pile up in the queue.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class CommandQueueTest {
+
+	private static final int CAPACITY = 4;
+
+	private CommandQueue queue;
+	private final List<String> handled = new ArrayList<String>();
+	private final Semaphore proceed = new Semaphore(0); // permits for the handler to return
+	private final Semaphore started = new Semaphore(0); // released when the handler is called
+
+	@Before
+	public void setUp() {
+		queue = new CommandQueue(new CommandQueue.Handler() {
+			@Override
+			public void execute(Kind kind, int value) {
+				started.release();
+				proceed.acquireUninterruptibly();
+				synchronized (handled) {
+					handled.add(kind + " " + value);
+				}
+			}
+		}, CAPACITY);
+		queue.start();
+	}
+
+	@After
+	public void tearDown() {
+		queue.stop();
+	}
+
+	/**
+	 * Holds up the handler with the given key until proceed is released.
+	 */
+	private void blockWithKey(int key) throws InterruptedException {
+		assertTrue(queue.key(key));
+		assertTrue("Handler should be called", started.tryAcquire(1, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Test that commands are carried out in the order of their input.
+	 */
+	@Test
+	public final void testOrder() throws InterruptedException {
+		proceed.release(10);
+		queue.key('k');
+		queue.rotate(1);
+		queue.key('j');
+		assertTrue("Queue should become idle", queue.awaitIdle(1, TimeUnit.SECONDS));
+		assertEquals("[KEY 107, ROTATE 1, KEY 106]", handled.toString());
+		assertEquals(3, queue.getExecutedCount());
+	}
+
+	/**
+	 * Test that rotations which wait in the queue are coalesced and that turns which cancel out are dropped.
+	 */
+	@Test
+	public final void testRotationsAreCoalesced() throws InterruptedException {
+		blockWithKey('k');
+		queue.rotate(1);
+		queue.rotate(1);
+		queue.rotate(1); // three quarter turns are one in the other direction
+		queue.key('j');
+		queue.rotate(1);
+		queue.rotate(-1); // no turn at all
+		queue.rotate(-1);
+		queue.rotate(-1);
+		proceed.release(10);
+		assertTrue("Queue should become idle", queue.awaitIdle(1, TimeUnit.SECONDS));
+		assertEquals("[KEY 107, ROTATE -1, KEY 106, ROTATE 2]", handled.toString());
+		assertEquals(4, queue.getCoalescedCount());
+	}
+
+	/**
+	 * Test that input beyond the capacity of the queue is dropped.
+	 */
+	@Test
+	public final void testBoundedBacklog() throws InterruptedException {
+		blockWithKey('k');
+		for (int i = 0; i < CAPACITY; i++)
+			assertTrue("Key " + i + " should be queued", queue.key('0' + i));
+		assertFalse("Key beyond capacity should be dropped", queue.key('j'));
+		assertFalse("Rotation beyond capacity should be dropped", queue.rotate(1));
+		proceed.release(10);
+		assertTrue("Queue should become idle", queue.awaitIdle(1, TimeUnit.SECONDS));
+		assertEquals(CAPACITY + 1, handled.size());
+		assertEquals(2, queue.getDroppedCount());
+	}
+
+	/**
+	 * Test that the latency is measured from the input to the first frame that began after the command was carried out.
+	 */
+	@Test
+	public final void testLatency() throws InterruptedException {
+		queue.frameDrawn(System.nanoTime());
+		assertEquals("No latency without commands", 0, queue.getAverageLatencyNanos());
+		blockWithKey('k');
+		Thread.sleep(20);
+		final long begin = System.nanoTime();
+		queue.frameDrawn(begin); // command has not been carried out yet
+		assertEquals("No latency before the command is carried out", 0, queue.getMaxLatencyNanos());
+		proceed.release();
+		assertTrue("Queue should become idle", queue.awaitIdle(1, TimeUnit.SECONDS));
+		queue.frameDrawn(begin); // frame began before the command was carried out
+		assertEquals("No latency for a frame that began before the command was carried out", 0, queue.getMaxLatencyNanos());
+		queue.frameDrawn(System.nanoTime());
+		assertTrue("Latency should include the wait", queue.getMaxLatencyNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+		assertEquals(queue.getMaxLatencyNanos(), queue.getAverageLatencyNanos());
+		queue.resetStatistics();
+		assertEquals("Statistics should be reset", 0, queue.getExecutedCount());
+	}
+
+	/**
+	 * Test that a stopped queue carries out no more commands.
+	 */
+	@Test
+	public final void testStop() throws InterruptedException {
+		proceed.release(10);
+		queue.stop();
+		assertFalse("Queue should not run", queue.isRunning());
+		queue.key('k');
+		Thread.sleep(100);
+		assertTrue("No command should be carried out", handled.isEmpty());
+	}
+}
@@ -0,0 +1,97 @@
+package falstad;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+import falstad.Constants.RenderMode;
+import falstad.Constants.StateGUI;
+import generation.MazeConfiguration;
+import generation.MazeFactory;
+import generation.MazeFactoryTest;
+import generation.Order.Builder;
+import generation.TestOrder;
+
+/**
+ * Measures how many frames per second the FirstPersonDrawer renders into an off-screen image.
+ * The view turns around in full circles at the starting position of a deterministic maze,
+ * by default of skill level 15 ('f'). Not a JUnit test as it takes a while, run its main method.
+ * The render mode can be selected as with the MazeApplication, i.e. java2d, raster, rasteraa, parallel
+ * or raycast, followed by the size of the view. The drawer is created as in the game, 
+ * see MazeController.createFirstPersonView, e.g. the parallel mode uses one strip per processor.
+ * With skill level "all", the java2d, raster and raycast modes are compared on every skill level.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class FirstPersonDrawerBenchmark {
+
+	private static final int WARMUP_FRAMES = 500;
+	private static final int FRAMES = 3000;
+	private static final RenderMode[] COMPARED_MODES = { RenderMode.JAVA2D, RenderMode.RASTER, RenderMode.RAYCAST };
+
+	/**
+	 * @param args optional skill level, 15 by default, optional render mode, java2d by default,
+	 * optional width and height of the view
+	 */
+	public static void main(String[] args) {
+		RenderMode mode = RenderMode.forName((args.length > 1) ? args[1] : "java2d");
+		if (null == mode)
+			throw new IllegalArgumentException("Unknown render mode: " + args[1]);
+		int width = (args.length > 2) ? Integer.parseInt(args[2]) : Constants.VIEW_WIDTH;
+		int height = (args.length > 3) ? Integer.parseInt(args[3]) : Constants.VIEW_HEIGHT;
+		if (args.length > 0 && "all".equalsIgnoreCase(args[0])) {
+			for (int skill = 0; skill <= 15; skill++) {
+				MazeConfiguration mazeConfig = generate(skill);
+				for (RenderMode m : COMPARED_MODES)
+					measure(mazeConfig, skill, m, width, height);
+			}
+			return;
+		}
+		int skill = (args.length > 0) ? Integer.parseInt(args[0], 16) : 15;
+		measure(generate(skill), skill, mode, width, height);
+	}
+
+	/**
+	 * Generates a deterministic maze.
+	 */
+	private static MazeConfiguration generate(int skill) {
+		MazeFactory factory = new MazeFactory(true);
+		TestOrder order = MazeFactoryTest.placeOrder(Builder.DFS, false, factory, skill);
+		factory.waitTillDelivered();
+		return order.getResult();
+	}
+
+	/**
+	 * Renders frames with the given mode and prints the number of frames per second.
+	 */
+	private static void measure(MazeConfiguration mazeConfig, int skill, RenderMode mode, int width, int height) {
+		SeenWalls seencells = new SeenWalls(mazeConfig.getWidth()+1, mazeConfig.getHeight()+1);
+		Viewer drawer = MazeController.createFirstPersonView(mode, mazeConfig, seencells, width, height);
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics gc = image.getGraphics();
+		RangeSet rset = new RangeSet();
+		int[] start = mazeConfig.getStartingPosition();
+
+		render(drawer, gc, rset, start, WARMUP_FRAMES);
+		long begin = System.nanoTime();
+		render(drawer, gc, rset, start, FRAMES);
+		long nanos = System.nanoTime() - begin;
+		System.out.println("FirstPersonDrawerBenchmark: skill " + Integer.toHexString(skill) + ", " + mode + ", "
+				+ width + "x" + height + ", "
+				+ FRAMES + " frames in " + nanos/1000000 + " ms, "
+				+ String.format("%.1f", FRAMES * 1e9 / nanos) + " frames per second");
+		gc.dispose();
+	}
+
+	/**
+	 * Draws the given number of frames, turning by one degree per frame.
+	 */
+	private static void render(Viewer drawer, Graphics gc, RangeSet rset, int[] pos, int frames) {
+		for (int i = 0; i < frames; i++) {
+			int angle = i % 360;
+			int viewdx = (int) (Math.cos(Math.PI*angle/180)*(1<<16));
+			int viewdy = (int) (Math.sin(Math.PI*angle/180)*(1<<16));
+			drawer.redraw(gc, StateGUI.STATE_PLAY, pos[0], pos[1], viewdx, viewdy, 0, Constants.VIEW_OFFSET, rset, angle);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the clipping of the FirstPersonDrawer against the floating point clipper it replaced, 
+ * which is kept here as a reference. Both agree on visibility. Clipped coordinates agree as well, 
+ * except where the exact result is an integer and the floating point expression of the reference 
+ * ends up just below it, there the integer clipper gives the exact value, which is one more.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class FirstPersonDrawerTest {
+
+	private final FirstPersonDrawer drawer = new FirstPersonDrawer(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT,
+			Constants.MAP_UNIT, Constants.STEP_SIZE, new SeenWalls(2, 2), null);
+
+	/////////////// reference implementation with floating point math ///////////////
+	private static boolean cliptReference(int denom, int num, double[] fp) {
+		if (denom > 0) {
+			double t = num * 1.0 / denom;
+			if (t > fp[1])
+				return false;
+			if (t > fp[0])
+				fp[0] = t;
+		} else if (denom < 0) {
+			double t = num * 1.0 / denom;
+			if (t < fp[0])
+				return false;
+			if (t < fp[1])
+				fp[1] = t;
+		} else if (num > 0)
+			return false;
+		return true;
+	}
+
+	private static boolean clip3dReference(int[] rp) {
+		int x1 = rp[0], z1 = rp[1], x2 = rp[2], z2 = rp[3];
+		if (z1 > -4 && z2 > -4)
+			return false;
+		if (x1 > -z1 && x2 > -z2)
+			return false;
+		if (-x1 > -z1 && -x2 > -z2)
+			return false;
+		int dx = x2-x1;
+		int dz = z2-z1;
+		double[] fp = { 0, 1 };
+		if (!cliptReference(-dx-dz, x1+z1, fp))
+			return false;
+		if (!cliptReference( dx-dz,-x1+z1, fp))
+			return false;
+		if (!cliptReference(-dz, z1-4, fp))
+			return false;
+		if (fp[1] < 1) {
+			rp[2] = (int) (x1 + fp[1]*dx);
+			rp[3] = (int) (z1 + fp[1]*dz);
+		}
+		if (fp[0] > 0) {
+			rp[0] += fp[0]*dx;
+			rp[1] += fp[0]*dz;
+		}
+		return true;
+	}
+
+	/**
+	 * Compares the integer clipper with the reference for the given coordinates.
+	 */
+	private void checkClip(int x1, int z1, int x2, int z2) {
+		int[] expected = { x1, z1, x2, z2 };
+		boolean visible = clip3dReference(expected);
+		FirstPersonDrawer.RangePair rp = drawer.new RangePair(x1, z1, x2, z2);
+		String input = " for " + x1 + "," + z1 + "," + x2 + "," + z2;
+		assertEquals("Visibility should match" + input, visible, FirstPersonDrawer.clip3d(rp, new long[4]));
+		if (visible) {
+			checkCoordinate("x1" + input, expected[0], rp.x1);
+			checkCoordinate("z1" + input, expected[1], rp.z1);
+			checkCoordinate("x2" + input, expected[2], rp.x2);
+			checkCoordinate("z2" + input, expected[3], rp.z2);
+		}
+	}
+
+	/**
+	 * Checks that a clipped coordinate matches the reference or is the exact value the reference misses
+	 * by rounding, i.e. one further away from zero.
+	 */
+	private static void checkCoordinate(String message, int expected, int actual) {
+		if (expected != actual)
+			assertEquals(message + " should match or be exact", expected + Integer.signum(actual), actual);
+	}
+
+	/**
+	 * Test that a clipped coordinate that is exactly an integer comes out as that integer.
+	 */
+	@Test
+	public final void testClip3dExact() {
+		// the segment at z = -6 crosses the side plane x = z exactly at x = -6, the reference gives -5
+		FirstPersonDrawer.RangePair rp = drawer.new RangePair(-20, -6, 5, -6);
+		assertTrue(FirstPersonDrawer.clip3d(rp, new long[4]));
+		assertEquals(-6, rp.x1);
+		assertEquals(-6, rp.z1);
+		assertEquals(5, rp.x2);
+		assertEquals(-6, rp.z2);
+	}
+
+	/**
+	 * Test that random segments close to the viewer are clipped exactly as by the reference.
+	 * Small coordinates make clip parameters that hit integers more likely.
+	 */
+	@Test
+	public final void testClip3dNearby() {
+		Random random = new Random(1);
+		for (int i = 0; i < 500000; i++) {
+			checkClip(random.nextInt(257)-128, random.nextInt(257)-128, random.nextInt(257)-128, random.nextInt(257)-128);
+		}
+	}
+
+	/**
+	 * Test that random segments across a large maze are clipped exactly as by the reference.
+	 */
+	@Test
+	public final void testClip3dFar() {
+		final int range = 300*Constants.MAP_UNIT;
+		Random random = new Random(2);
+		for (int i = 0; i < 500000; i++) {
+			checkClip(random.nextInt(2*range)-range, random.nextInt(2*range)-range,
+					random.nextInt(2*range)-range, random.nextInt(2*range)-range);
+		}
+	}
+
+	/**
+	 * Test the poses the renderer produces for axis aligned segments one map unit long,
+	 * seen from all angles at distances of a few cells.
+	 */
+	@Test
+	public final void testClip3dRecordedPoses() {
+		final int u = Constants.MAP_UNIT;
+		for (int angle = 0; angle < 360; angle++) {
+			int viewdx = (int) (Math.cos(Math.PI*angle/180)*(1<<16));
+			int viewdy = (int) (Math.sin(Math.PI*angle/180)*(1<<16));
+			for (int ox = -4*u; ox <= 4*u; ox += u/4) {
+				for (int oy = -4*u; oy <= 4*u; oy += u/4) {
+					for (int d = 0; d < 4; d++) {
+						int ex = ox + ((d == 0) ? u : (d == 1) ? -u : 0);
+						int ey = oy + ((d == 2) ? u : (d == 3) ? -u : 0);
+						// same transformation as in FirstPersonDrawer.drawSegment
+						checkClip(-drawer.viewd_unscale(viewdy*ox-viewdx*oy), -drawer.viewd_unscale(viewdx*ox+viewdy*oy),
+								-drawer.viewd_unscale(viewdy*ex-viewdx*ey), -drawer.viewd_unscale(viewdx*ex+viewdy*ey));
+					}
+				}
+			}
+		}
+	}
+}
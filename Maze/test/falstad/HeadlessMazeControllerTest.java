@@ -0,0 +1,106 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import falstad.Constants.StateGUI;
+import falstad.Robot.Turn;
+import generation.CardinalDirection;
+import generation.MazeConfiguration;
+import generation.MazeFactory;
+import generation.MazeFactoryTest;
+import generation.Order.Builder;
+import generation.TestOrder;
+
+/**
+ * Tests the HeadlessMazeController with robots and drivers and against the MazeController.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class HeadlessMazeControllerTest {
+
+	private static MazeConfiguration mazeConfig;
+
+	@BeforeClass
+	public static void setUpClass() {
+		MazeFactory factory = new MazeFactory(true);
+		TestOrder order = MazeFactoryTest.placeOrder(Builder.Kruskal, false, factory, 3);
+		factory.waitTillDelivered();
+		mazeConfig = order.getResult();
+	}
+
+	/**
+	 * Sets up a driver with a new robot in a new headless maze.
+	 */
+	private static HeadlessMazeController setUp(BasicRobotDriver driver, MazeConfiguration config) {
+		HeadlessMazeController controller = new HeadlessMazeController(config);
+		Robot robot = new BasicRobot();
+		robot.setMaze(controller);
+		driver.reset();
+		driver.setRobot(robot);
+		driver.setupUsingMaze(controller);
+		return controller;
+	}
+
+	/**
+	 * Test that the pose changes as in the MazeController for walks and turns.
+	 */
+	@Test
+	public final void testSameAsMazeController() {
+		MazeController reference = new MazeController("test/data/input.xml");
+		reference.init();
+		reference.setState(StateGUI.STATE_PLAY);
+		HeadlessMazeController controller = new HeadlessMazeController(reference.getMazeConfiguration());
+		assertArrayEquals("Should start at the same position", reference.getCurrentPosition(), controller.getCurrentPosition());
+		assertEquals("Should start facing east", CardinalDirection.East, controller.getCurrentDirection());
+		Turn[] turns = { Turn.LEFT, Turn.AROUND, Turn.RIGHT, Turn.RIGHT, Turn.LEFT };
+		for (int i = 0; i < 20; i++) {
+			Turn turn = turns[i % turns.length];
+			reference.rotate(turn);
+			controller.rotate(turn);
+			assertEquals("Direction after turn " + i, reference.getCurrentDirection(), controller.getCurrentDirection());
+			boolean backwards = 0 == i % 3;
+			reference.walk(backwards);
+			controller.walk(backwards);
+			assertArrayEquals("Position after walk " + i, reference.getCurrentPosition(), controller.getCurrentPosition());
+		}
+		assertEquals(20, controller.getRotationCount());
+	}
+
+	/**
+	 * Test that the Wizard takes the shortest path and that the game is finished once it is out.
+	 */
+	@Test
+	public final void testWizard() throws Exception {
+		Wizard wizard = new Wizard();
+		HeadlessMazeController controller = setUp(wizard, mazeConfig);
+		int[] start = mazeConfig.getStartingPosition();
+		assertTrue("Wizard should reach the exit", wizard.drive2Exit());
+		assertEquals("Wizard should take the shortest path", mazeConfig.getDistanceToExit(start[0], start[1]), wizard.getPathLength());
+		assertEquals("Every step should be a move", wizard.getPathLength(), controller.getMoveCount());
+		assertFalse("Wizard should be out of the maze", mazeConfig.isValidPosition(controller.getCurrentPosition()[0], controller.getCurrentPosition()[1]));
+		assertEquals("Game should be finished", StateGUI.STATE_FINISH, controller.getState());
+	}
+
+	/**
+	 * Test that the WallFollower reaches the exit and that the controller can be used again after a reset.
+	 */
+	@Test
+	public final void testWallFollower() throws Exception {
+		WallFollower follower = new WallFollower();
+		HeadlessMazeController controller = setUp(follower, mazeConfig);
+		assertTrue("WallFollower should reach the exit", follower.drive2Exit());
+		final int steps = follower.getPathLength();
+		final float energy = follower.getEnergyConsumption();
+		controller.reset();
+		assertEquals("Reset should start playing again", StateGUI.STATE_PLAY, controller.getState());
+		assertArrayEquals(mazeConfig.getStartingPosition(), controller.getCurrentPosition());
+		controller = setUp(follower, mazeConfig);
+		assertTrue("WallFollower should reach the exit again", follower.drive2Exit());
+		assertEquals("Runs should be the same", steps, follower.getPathLength());
+		assertEquals("Runs should be the same", energy, follower.getEnergyConsumption(), 0.01f);
+	}
+}
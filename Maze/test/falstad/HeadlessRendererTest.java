@@ -0,0 +1,147 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import falstad.Constants.RenderMode;
+import falstad.HeadlessRenderer.Pose;
+import generation.MazeConfiguration;
+import generation.MazeFactory;
+import generation.MazeFactoryTest;
+import generation.Order.Builder;
+import generation.TestOrder;
+
+/**
+ * Tests the HeadlessRenderer on a small deterministic maze, draws into images only.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class HeadlessRendererTest {
+
+	private static final int SKILL = 2;
+
+	private static MazeConfiguration mazeConfig;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void setUpClass() {
+		MazeFactory factory = new MazeFactory(true);
+		TestOrder order = MazeFactoryTest.placeOrder(Builder.DFS, false, factory, SKILL);
+		factory.waitTillDelivered();
+		mazeConfig = order.getResult();
+	}
+
+	/**
+	 * Test that a script of rotations gives the intermediate angles and ends where it started.
+	 */
+	@Test
+	public final void testScriptRotations() {
+		int[] start = mazeConfig.getStartingPosition();
+		List<Pose> path = HeadlessRenderer.scriptPath(mazeConfig, "llrr", 3);
+		assertEquals("Each rotation should take three frames", 13, path.size());
+		assertEquals("Path should begin at the start", new Pose(start[0], start[1], 0, 0), path.get(0));
+		assertEquals("First frame should turn by a third", 30, path.get(1).getAngle());
+		assertEquals("Left should increase the angle", 180, path.get(6).getAngle());
+		assertEquals("Path should end facing east", new Pose(start[0], start[1], 0, 0), path.get(12));
+	}
+
+	/**
+	 * Test that the path to the exit only moves between neighboring cells without walls in between
+	 * and ends at the exit.
+	 */
+	@Test
+	public final void testMovesToExit() {
+		String moves = HeadlessRenderer.movesToExit(mazeConfig);
+		int[] start = mazeConfig.getStartingPosition();
+		List<Pose> path = HeadlessRenderer.scriptPath(mazeConfig, moves, 4);
+		int forward = moves.replaceAll("[^f]", "").length();
+		assertEquals("Path should be as long as the distance to the exit",
+				mazeConfig.getDistanceToExit(start[0], start[1]), forward);
+		Pose previous = path.get(0);
+		for (Pose p : path) {
+			assertTrue("Moves should be to neighboring cells", 1 >= Math.abs(p.getX()-previous.getX()) + Math.abs(p.getY()-previous.getY()));
+			assertTrue("Steps should stay within a cell", Math.abs(p.getWalkStep()) < 4);
+			previous = p;
+		}
+		Pose last = path.get(path.size()-1);
+		assertEquals("Path should end at the exit", 1, mazeConfig.getDistanceToExit(last.getX(), last.getY()));
+		assertEquals("Path should end with a step out of the maze", 3, last.getWalkStep());
+	}
+
+	/**
+	 * Test that moves into walls are skipped and that moving backward goes in the opposite direction.
+	 */
+	@Test
+	public final void testWallsBlockMoves() {
+		int[] start = mazeConfig.getStartingPosition();
+		String turns = "";
+		for (int n = 0; n < 4; n++, turns += "l") {
+			int dx = (int) Math.cos(Math.toRadians(n*90));
+			int dy = (int) Math.sin(Math.toRadians(n*90));
+			boolean free = mazeConfig.getMazecells().hasMaskedBitsFalse(start[0], start[1], Constants.MASKS[n]);
+			List<Pose> path = HeadlessRenderer.scriptPath(mazeConfig, turns + "f", 1);
+			Pose last = path.get(path.size()-1);
+			assertEquals("Forward move in direction " + n + " should only be made without a wall", 
+					free ? new Pose(start[0]+dx, start[1]+dy, n*90, 0) : new Pose(start[0], start[1], n*90, 0), last);
+			// turning around and moving backward ends up in the same cell
+			path = HeadlessRenderer.scriptPath(mazeConfig, turns + "llb", 1);
+			last = path.get(path.size()-1);
+			assertEquals("Backward move in direction " + n + " should only be made without a wall", 
+					free ? new Pose(start[0]+dx, start[1]+dy, n*90+180, 0) : new Pose(start[0], start[1], n*90+180, 0), last);
+		}
+	}
+
+	/**
+	 * Test that every render mode draws a frame that is not blank and that the map shows the current position.
+	 */
+	@Test
+	public final void testRender() {
+		int[] start = mazeConfig.getStartingPosition();
+		for (RenderMode mode : RenderMode.values()) {
+			HeadlessRenderer renderer = new HeadlessRenderer(mazeConfig, mode, 200, 200);
+			long nanos = renderer.render(new Pose(start[0], start[1], 0, 0));
+			assertTrue("Render time should be measured", nanos > 0);
+			BufferedImage image = renderer.getImage();
+			assertNotEquals("Frame of " + mode + " should show walls", image.getRGB(0, 0), image.getRGB(100, 100));
+			renderer.setMapMode(true, true, true);
+			renderer.render(new Pose(start[0], start[1], 0, 0));
+			assertEquals("Map should show the position in red", Color.red.getRGB(), image.getRGB(100, 100));
+		}
+	}
+
+	/**
+	 * Test that frames are written as PNG files that match the drawn frames.
+	 */
+	@Test
+	public final void testWriteFrames() throws IOException, InterruptedException {
+		File directory = folder.newFolder("frames");
+		List<Pose> path = HeadlessRenderer.scriptPath(mazeConfig, "lflf", 4);
+		HeadlessRenderer renderer = new HeadlessRenderer(mazeConfig, RenderMode.RASTER, 100, 100);
+		long[] nanos = renderer.render(path, directory, 2);
+		assertEquals("Each frame should be timed", path.size(), nanos.length);
+		for (int i = 0; i < path.size(); i++)
+			assertTrue("Frame " + i + " should be written", new File(directory, String.format("frame%05d.png", i)).isFile());
+		BufferedImage last = ImageIO.read(new File(directory, String.format("frame%05d.png", path.size()-1)));
+		BufferedImage image = renderer.getImage();
+		for (int y = 0; y < 100; y++)
+			for (int x = 0; x < 100; x++) {
+				if (last.getRGB(x, y) != image.getRGB(x, y))
+					fail("Last frame differs at " + x + "," + y);
+			}
+	}
+}
@@ -0,0 +1,242 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import falstad.Constants.StateGUI;
+import falstad.HeadlessRenderer.Pose;
+import generation.MazeConfiguration;
+import generation.MazeFactory;
+import generation.MazeFactoryTest;
+import generation.Order.Builder;
+import generation.TestOrder;
+
+/**
+ * Tests that the MapDrawer draws the same map with its cache of tiles as without it,
+ * while the set of seen walls grows along the path to the exit, and that it draws
+ * the solution as before.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class MapDrawerTest {
+
+	private static final int SKILL = 4;
+	private static final int SIZE = 400;
+
+	private static MazeConfiguration mazeConfig;
+
+	@BeforeClass
+	public static void setUpClass() {
+		MazeFactory factory = new MazeFactory(true);
+		TestOrder order = MazeFactoryTest.placeOrder(Builder.DFS, false, factory, SKILL);
+		factory.waitTillDelivered();
+		mazeConfig = order.getResult();
+	}
+
+	/**
+	 * Test that the cached map matches the map drawn cell by cell at every pose of the path to the exit,
+	 * at several scales and with and without the walls that have not been seen.
+	 */
+	@Test
+	public final void testTilesMatchDirectDrawing() {
+		for (int scale : new int[] { 10, 3, 25 }) {
+			for (boolean showMaze : new boolean[] { false, true }) {
+				SeenWalls seencells = new SeenWalls(mazeConfig.getWidth()+1, mazeConfig.getHeight()+1);
+				MapDrawer cached = new MapDrawer(SIZE, SIZE, Constants.MAP_UNIT, Constants.STEP_SIZE, seencells, scale, mazeConfig);
+				MapDrawer direct = new MapDrawer(SIZE, SIZE, Constants.MAP_UNIT, Constants.STEP_SIZE, seencells, scale, mazeConfig);
+				direct.cacheTiles = false;
+				FirstPersonDrawer firstPerson = new FirstPersonDrawer(SIZE, SIZE, Constants.MAP_UNIT, Constants.STEP_SIZE,
+						seencells, mazeConfig.getRootnode());
+				BufferedImage view = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+				Graphics viewGc = view.getGraphics();
+				RangeSet rset = new RangeSet();
+				List<Pose> path = HeadlessRenderer.scriptPath(mazeConfig, HeadlessRenderer.movesToExit(mazeConfig), 4);
+				for (int i = 0; i < path.size(); i += 3) {
+					Pose p = path.get(i);
+					int viewdx = (int) (Math.cos(Math.toRadians(p.getAngle()))*(1<<16));
+					int viewdy = (int) (Math.sin(Math.toRadians(p.getAngle()))*(1<<16));
+					// the first person view adds the walls it sees
+					firstPerson.redraw(viewGc, StateGUI.STATE_PLAY, p.getX(), p.getY(), viewdx, viewdy, p.getWalkStep(),
+							Constants.VIEW_OFFSET, rset, p.getAngle());
+					assertSameMap("Scale " + scale + ", showMaze " + showMaze + ", pose " + p,
+							draw(direct, p, viewdx, viewdy, showMaze), draw(cached, p, viewdx, viewdy, showMaze));
+				}
+				viewGc.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Test that a tile is drawn again when a wall in it is seen.
+	 */
+	@Test
+	public final void testSeenWallUpdatesTile() {
+		SeenWalls seencells = new SeenWalls(mazeConfig.getWidth()+1, mazeConfig.getHeight()+1);
+		MapDrawer cached = new MapDrawer(SIZE, SIZE, Constants.MAP_UNIT, Constants.STEP_SIZE, seencells, 10, mazeConfig);
+		MapDrawer direct = new MapDrawer(SIZE, SIZE, Constants.MAP_UNIT, Constants.STEP_SIZE, seencells, 10, mazeConfig);
+		direct.cacheTiles = false;
+		int[] start = mazeConfig.getStartingPosition();
+		Pose p = new Pose(start[0], start[1], 0, 0);
+		BufferedImage before = draw(cached, p, 1<<16, 0, false);
+		// mark all walls around the start as seen
+		addWallsAround(seencells, start[0], start[1]);
+		BufferedImage after = draw(cached, p, 1<<16, 0, false);
+		assertSameMap("Seen walls should be drawn", draw(direct, p, 1<<16, 0, false), after);
+		boolean changed = false;
+		for (int y = 0; y < SIZE && !changed; y++)
+			for (int x = 0; x < SIZE && !changed; x++)
+				changed = before.getRGB(x, y) != after.getRGB(x, y);
+		assertTrue("Map should change when walls are seen", changed);
+	}
+
+	/**
+	 * Test that the first level of the mipmaps looks like the lines at its scale, such that there
+	 * is no visible change when the map switches from one to the other, while the set of seen walls grows.
+	 */
+	@Test
+	public final void testMipmapMatchesLinesAtFirstLevel() {
+		for (boolean showMaze : new boolean[] { false, true }) {
+			SeenWalls seencells = new SeenWalls(mazeConfig.getWidth()+1, mazeConfig.getHeight()+1);
+			MapDrawer mipmap = new MapDrawer(SIZE, SIZE, Constants.MAP_UNIT, Constants.STEP_SIZE, seencells, 4, mazeConfig);
+			mipmap.lodScale = 5; // scale 4 is drawn from the first level
+			MapDrawer direct = new MapDrawer(SIZE, SIZE, Constants.MAP_UNIT, Constants.STEP_SIZE, seencells, 4, mazeConfig);
+			direct.cacheTiles = false;
+			FirstPersonDrawer firstPerson = new FirstPersonDrawer(SIZE, SIZE, Constants.MAP_UNIT, Constants.STEP_SIZE,
+					seencells, mazeConfig.getRootnode());
+			BufferedImage view = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+			Graphics viewGc = view.getGraphics();
+			RangeSet rset = new RangeSet();
+			List<Pose> path = HeadlessRenderer.scriptPath(mazeConfig, HeadlessRenderer.movesToExit(mazeConfig), 4);
+			for (int i = 0; i < path.size(); i += 5) {
+				Pose p = path.get(i);
+				int viewdx = (int) (Math.cos(Math.toRadians(p.getAngle()))*(1<<16));
+				int viewdy = (int) (Math.sin(Math.toRadians(p.getAngle()))*(1<<16));
+				firstPerson.redraw(viewGc, StateGUI.STATE_PLAY, p.getX(), p.getY(), viewdx, viewdy, p.getWalkStep(),
+						Constants.VIEW_OFFSET, rset, p.getAngle());
+				assertSameMap("showMaze " + showMaze + ", pose " + p,
+						draw(direct, p, viewdx, viewdy, showMaze), draw(mipmap, p, viewdx, viewdy, showMaze));
+			}
+			viewGc.dispose();
+		}
+	}
+
+	/**
+	 * Test that the smaller levels of the mipmaps show the walls and the walls that have been seen.
+	 */
+	@Test
+	public final void testMipmapLevels() {
+		int[] start = mazeConfig.getStartingPosition();
+		Pose p = new Pose(start[0], start[1], 0, 0);
+		for (int scale = 1; scale < 3; scale++) {
+			SeenWalls seencells = new SeenWalls(mazeConfig.getWidth()+1, mazeConfig.getHeight()+1);
+			MapDrawer map = new MapDrawer(SIZE, SIZE, Constants.MAP_UNIT, Constants.STEP_SIZE, seencells, scale, mazeConfig);
+			assertEquals("Nothing has been seen at scale " + scale, 0, countLit(draw(map, p, 1<<16, 0, false)));
+			int all = countLit(draw(map, p, 1<<16, 0, true));
+			assertTrue("Walls should be shown at scale " + scale, all > 0);
+			addWallsAround(seencells, start[0], start[1]);
+			int seen = countLit(draw(map, p, 1<<16, 0, false));
+			assertTrue("Seen walls should be shown at scale " + scale + ": " + seen + " of " + all, seen > 0 && seen < all);
+		}
+	}
+
+	/**
+	 * Counts the pixels that are not black.
+	 */
+	private int countLit(BufferedImage image) {
+		int count = 0;
+		for (int y = 0; y < SIZE; y++)
+			for (int x = 0; x < SIZE; x++) {
+				if (0 != (image.getRGB(x, y) & 0xffffff))
+					count++;
+			}
+		return count;
+	}
+
+	/**
+	 * Test that the polyline of the solution matches the path to the exit drawn cell by cell
+	 * while moving to the exit, back to the start and to other places.
+	 */
+	@Test
+	public final void testSolutionMatchesPath() {
+		SeenWalls seencells = new SeenWalls(mazeConfig.getWidth()+1, mazeConfig.getHeight()+1);
+		MapDrawer map = new MapDrawer(SIZE, SIZE, Constants.MAP_UNIT, Constants.STEP_SIZE, seencells, 5, mazeConfig);
+		List<int[]> positions = new ArrayList<int[]>();
+		int[] cell = mazeConfig.getStartingPosition();
+		while (mazeConfig.getDistanceToExit(cell[0], cell[1]) > 1) {
+			positions.add(cell);
+			cell = mazeConfig.getNeighborCloserToExit(cell[0], cell[1]);
+		}
+		positions.add(cell);
+		for (int i = positions.size()-1; i >= 0; i--)
+			positions.add(positions.get(i));
+		positions.add(new int[] { 0, 0 });
+		positions.add(new int[] { mazeConfig.getWidth()-1, mazeConfig.getHeight()-1 });
+		positions.add(new int[] { 0, 0 });
+		for (int[] p : positions) {
+			// offsets such that (0,0) is in the lower left corner
+			BufferedImage expected = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+			Graphics gc = expected.getGraphics();
+			gc.setColor(Color.yellow);
+			int sx = p[0];
+			int sy = p[1];
+			while (mazeConfig.getDistanceToExit(sx, sy) > 1) {
+				int[] next = mazeConfig.getNeighborCloserToExit(sx, sy);
+				gc.drawLine(sx*5 + 2, SIZE-1 - sy*5 - 2, next[0]*5 + 2, SIZE-1 - next[1]*5 - 2);
+				sx = next[0];
+				sy = next[1];
+			}
+			gc.dispose();
+			BufferedImage actual = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+			gc = actual.getGraphics();
+			map.draw_solution(gc, 0, 0, p[0], p[1]);
+			gc.dispose();
+			for (int y = 0; y < SIZE; y++)
+				for (int x = 0; x < SIZE; x++) {
+					if (expected.getRGB(x, y) != actual.getRGB(x, y))
+						fail("Solution from " + p[0] + "," + p[1] + " differs at " + x + "," + y);
+				}
+		}
+	}
+
+	/**
+	 * Draws the map for the given pose on a black image.
+	 */
+	private BufferedImage draw(MapDrawer map, Pose p, int viewdx, int viewdy, boolean showMaze) {
+		BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+		Graphics gc = image.getGraphics();
+		map.draw_map(gc, p.getX(), p.getY(), p.getWalkStep(), viewdx, viewdy, showMaze, false);
+		gc.dispose();
+		return image;
+	}
+
+	/**
+	 * Fails if the images differ. Drawing cell by cell leaves out the cells left of and below the view,
+	 * whose lines may end on its first column or last row, while a tile has all its cells,
+	 * so the first column and the last row are not compared.
+	 */
+	private void assertSameMap(String message, BufferedImage expected, BufferedImage actual) {
+		for (int y = 0; y < SIZE; y++)
+			for (int x = 0; x < SIZE; x++) {
+				if (expected.getRGB(x, y) != actual.getRGB(x, y) && x > 0 && y < SIZE-1)
+					fail(message + ": maps differ at " + x + "," + y);
+			}
+	}
+	/**
+	 * Marks the walls on all four sides of the given cell as seen.
+	 */
+	private static void addWallsAround(SeenWalls seencells, int x, int y) {
+		seencells.addNorthWalls(x, y, 1);
+		seencells.addNorthWalls(x, y+1, 1);
+		seencells.addWestWalls(x, y, 1);
+		seencells.addWestWalls(x+1, y, 1);
+	}
+}
@@ -0,0 +1,125 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import java.awt.Event;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import falstad.Constants.StateGUI;
+import falstad.Robot.Turn;
+import generation.Distance;
+
+/**
+ * Tests how the MazeController paces a driver that it starts in the playing screen, with and without turbo mode,
+ * and how it turns for keys.
+ * Timing on a build machine varies, so the bounds are generous.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class MazeControllerTest {
+
+	/**
+	 * Number of quarter turns the driver makes.
+	 */
+	private static final int TURNS = 6;
+
+	/**
+	 * Plays the input.xml maze with a driver that turns left and right,
+	 * each turn is a quarter turn that is animated for ANIMATION_NANOS.
+	 * @param actionsPerFrame turbo mode actions per frame, 0 for no turbo mode
+	 * @return time in nanoseconds the driver takes for its turns
+	 */
+	private static long timeDrive(int actionsPerFrame) {
+		final MazeController controller = new MazeController("test/data/input.xml");
+		controller.setTurboMode(actionsPerFrame, 0);
+		final long[] nanos = new long[1];
+		controller.setDriver(new RobotDriver() {
+			@Override
+			public boolean drive2Exit() {
+				final long start = System.nanoTime();
+				for (int i = 0; i < TURNS; i++)
+					controller.rotate((0 == i % 2) ? Turn.LEFT : Turn.RIGHT);
+				nanos[0] = System.nanoTime() - start;
+				return false;
+			}
+			@Override
+			public void setRobot(Robot r) {
+			}
+			@Override
+			public void setDimensions(int width, int height) {
+			}
+			@Override
+			public void setDistance(Distance distance) {
+			}
+			@Override
+			public float getEnergyConsumption() {
+				return 0;
+			}
+			@Override
+			public int getPathLength() {
+				return 0;
+			}
+		});
+		// loads the maze and runs the driver
+		controller.init();
+		controller.getRenderScheduler().stop();
+		controller.getCommandQueue().stop();
+		return nanos[0];
+	}
+
+	/**
+	 * Test that each action of a driver is shown, the driver waits for the animation of each turn.
+	 */
+	@Test
+	public final void testDriverIsAnimated() {
+		final long nanos = timeDrive(0);
+		assertTrue("Turns should take about " + TURNS + " animations: " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms",
+				nanos >= TURNS * MazeController.ANIMATION_NANOS * 9 / 10 && nanos < TURNS * MazeController.ANIMATION_NANOS * 5);
+	}
+
+	/**
+	 * Test that a driver in turbo mode does not wait for animations and runs much faster than without it.
+	 */
+	@Test
+	public final void testTurboModeIsFaster() {
+		final long paced = timeDrive(0);
+		final long turbo = timeDrive(1);
+		assertTrue("Turbo mode should not wait for animations: " + TimeUnit.NANOSECONDS.toMillis(turbo) + " ms",
+				turbo < MazeController.ANIMATION_NANOS);
+		assertTrue("Turbo mode should be faster: " + TimeUnit.NANOSECONDS.toMillis(turbo) + " ms instead of " 
+				+ TimeUnit.NANOSECONDS.toMillis(paced) + " ms", 4 * turbo < paced);
+	}
+
+	/**
+	 * Test that turn keys turn the same way whether they are queued for the game loop or handled right away,
+	 * and the same way as the robot turns.
+	 */
+	@Test
+	public final void testTurnKeys() throws InterruptedException {
+		MazeController queued = new MazeController("test/data/input.xml");
+		queued.init();
+		MazeController direct = new MazeController("test/data/input.xml");
+		direct.init();
+		direct.getCommandQueue().stop();
+		MazeController robot = new MazeController("test/data/input.xml");
+		robot.init();
+		int[] keys = { Event.LEFT, 'h', '4', Event.RIGHT, 'l', '6', Event.RIGHT };
+		Turn[] turns = { Turn.RIGHT, Turn.RIGHT, Turn.RIGHT, Turn.LEFT, Turn.LEFT, Turn.LEFT, Turn.LEFT };
+		for (int i = 0; i < keys.length; i++) {
+			assertEquals(StateGUI.STATE_PLAY, queued.getState());
+			queued.keyDown(keys[i]);
+			assertTrue("Game loop should carry out the key", queued.getCommandQueue().awaitIdle(1, TimeUnit.SECONDS));
+			direct.keyDown(keys[i]);
+			robot.rotate(turns[i]);
+			assertEquals("Queued key " + i + " should turn as the robot", robot.getCurrentDirection(), queued.getCurrentDirection());
+			assertEquals("Key " + i + " should turn as the robot", robot.getCurrentDirection(), direct.getCurrentDirection());
+		}
+		for (MazeController controller : new MazeController[] { queued, direct, robot }) {
+			controller.getRenderScheduler().stop();
+			controller.getCommandQueue().stop();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import generation.BSPBranch;
+import generation.BSPLeaf;
+import generation.BSPNode;
+import generation.MazeConfiguration;
+import generation.MazeFactory;
+import generation.MazeFactoryTest;
+import generation.Order.Builder;
+import generation.PotentiallyVisibleSet;
+import generation.Seg;
+import generation.TestOrder;
+
+/**
+ * Tests that the MazeFileReader recovers the colchange value that determines the colors of walls,
+ * from the file or, for older files without it, from the colors of the segments,
+ * and that it only loads a potentially visible set for the maze it was computed for.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class MazeFileReaderTest {
+
+	private static void collectSegments(BSPNode n, ArrayList<Seg> segments) {
+		if (n.isIsleaf()) {
+			segments.addAll(((BSPLeaf) n).getSlist());
+			return;
+		}
+		collectSegments(((BSPBranch) n).getLeftBranch(), segments);
+		collectSegments(((BSPBranch) n).getRightBranch(), segments);
+	}
+
+	/**
+	 * Test that the colchange value of a generated maze is stored and read back.
+	 */
+	@Test
+	public final void testColchangeIsStored() throws IOException {
+		MazeFactory factory = new MazeFactory(true);
+		TestOrder order = MazeFactoryTest.placeOrder(Builder.DFS, false, factory, 2);
+		factory.waitTillDelivered();
+		MazeConfiguration mazeConfig = order.getResult();
+		File file = File.createTempFile("maze", ".xml");
+		file.deleteOnExit();
+		int[] start = mazeConfig.getStartingPosition();
+		MazeFileWriter.store(file.getPath(), mazeConfig.getWidth(), mazeConfig.getHeight(), 0, 0,
+				mazeConfig.getRootnode(), mazeConfig.getColchange(), mazeConfig.getMazecells(),
+				mazeConfig.getMazedists().getDists(), start[0], start[1]);
+
+		MazeConfiguration loaded = new MazeFileReader(file.getPath()).getMazeConfiguration();
+		assertEquals("Colchange should be read from the file", mazeConfig.getColchange(), loaded.getColchange());
+		assertTrue(file.delete());
+	}
+
+	/**
+	 * Test that the colchange value guessed for a file without it reproduces the colors of all segments.
+	 */
+	@Test
+	public final void testColchangeIsGuessedForOldFiles() {
+		MazeConfiguration loaded = new MazeFileReader("test/data/input.xml").getMazeConfiguration();
+		ArrayList<Seg> segments = new ArrayList<Seg>();
+		collectSegments(loaded.getRootnode(), segments);
+		assertFalse("Maze should have segments", segments.isEmpty());
+		for (Seg se : segments) {
+			assertEquals("Color of segment at " + se.getStartPositionX() + "," + se.getStartPositionY(),
+					se.getColor().getRGB(),
+					Seg.computeColor(se.getExtensionX(), se.getDistance(), loaded.getColchange()).getRGB());
+		}
+	}
+
+	/**
+	 * Test that a stored potentially visible set is loaded for its maze and ignored for a maze with other walls.
+	 */
+	@Test
+	public final void testPotentiallyVisibleSetIsChecked() throws IOException, InterruptedException {
+		MazeConfiguration mazeConfig = new MazeFileReader("test/data/input.xml").getMazeConfiguration();
+		MazeFactory factory = new MazeFactory(true);
+		// same size as the maze in the file
+		TestOrder order = MazeFactoryTest.placeOrder(Builder.DFS, true, factory, 3);
+		factory.waitTillDelivered();
+		MazeConfiguration other = order.getResult();
+		assertEquals(mazeConfig.getWidth(), other.getWidth());
+		assertEquals(mazeConfig.getHeight(), other.getHeight());
+		File file = File.createTempFile("maze", ".pvs");
+		file.deleteOnExit();
+		MazeFileWriter.storePotentiallyVisibleSet(file.getPath(), PotentiallyVisibleSet.build(mazeConfig.getRootnode(), 
+				mazeConfig.getMazecells(), mazeConfig.getWidth(), mazeConfig.getHeight()));
+
+		assertNotNull("Set should be loaded for its maze", MazeFileReader.loadPotentiallyVisibleSet(file.getPath(), 
+				mazeConfig.getRootnode(), mazeConfig.getMazecells(), mazeConfig.getWidth(), mazeConfig.getHeight()));
+		assertNull("Set should be ignored for other walls", MazeFileReader.loadPotentiallyVisibleSet(file.getPath(), 
+				mazeConfig.getRootnode(), other.getMazecells(), mazeConfig.getWidth(), mazeConfig.getHeight()));
+		assertNull("Set should be ignored for another maze", MazeFileReader.loadPotentiallyVisibleSet(file.getPath(), 
+				other.getRootnode(), other.getMazecells(), mazeConfig.getWidth(), mazeConfig.getHeight()));
+		assertTrue(file.delete());
+		assertNull("Missing file should give no set", MazeFileReader.loadPotentiallyVisibleSet(file.getPath(), 
+				mazeConfig.getRootnode(), mazeConfig.getMazecells(), mazeConfig.getWidth(), mazeConfig.getHeight()));
+	}
+}
@@ -0,0 +1,82 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the RangeSet against a simple model that keeps one flag per screen column.
+ * Ranges in the set are disjoint and never adjacent, so each range corresponds to a maximal
+ * run of columns that are still in the set.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class RangeSetTest {
+
+	private static final int WIDTH = 400;
+
+	/**
+	 * Finds the expected intersection of [min,max] with the first run of covered columns.
+	 * @return {min,max} of the intersection or null if there is none
+	 */
+	private static int[] expectedIntersection(boolean[] covered, int min, int max) {
+		int lo = Math.max(min, 0);
+		int hi = Math.min(max, WIDTH-1);
+		for (int c = lo; c <= hi; c++) {
+			if (covered[c]) {
+				int end = c;
+				while (end < hi && covered[end+1])
+					end++;
+				return new int[] { c, end };
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Test that random removals and intersections give the same results as the column model,
+	 * for both the primitive and the Point based intersect.
+	 */
+	@Test
+	public final void testAgainstColumnModel() {
+		Random random = new Random(42);
+		RangeSet rset = new RangeSet();
+		for (int frame = 0; frame < 200; frame++) {
+			rset.set(0, WIDTH-1);
+			boolean[] covered = new boolean[WIDTH];
+			Arrays.fill(covered, true);
+			while (!rset.isEmpty()) {
+				int a = random.nextInt(WIDTH+40) - 20;
+				int b = a + random.nextInt(60);
+				int[] expected = expectedIntersection(covered, a, b);
+				assertEquals("Intersection should exist as in model", null != expected, rset.intersect(a, b));
+				if (null != expected) {
+					assertEquals("Lower bound of intersection", expected[0], rset.getIntersectionMin());
+					assertEquals("Upper bound of intersection", expected[1], rset.getIntersectionMax());
+				}
+				Point p = new Point(a, b);
+				assertEquals("Point based intersect should agree", null != expected, rset.intersect(p));
+				if (null != expected) {
+					assertEquals("Lower bound of intersection in point", expected[0], p.x);
+					assertEquals("Upper bound of intersection in point", expected[1], p.y);
+				}
+				// remove in either order of bounds
+				if (random.nextBoolean())
+					rset.remove(a, b);
+				else
+					rset.remove(b, a);
+				for (int c = Math.max(a, 0); c <= Math.min(b, WIDTH-1); c++)
+					covered[c] = false;
+				boolean any = false;
+				for (boolean c : covered)
+					any |= c;
+				assertEquals("Set should be empty when model is empty", !any, rset.isEmpty());
+			}
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import falstad.Constants.StateGUI;
+import generation.MazeConfiguration;
+import generation.MazeFactory;
+import generation.MazeFactoryTest;
+import generation.Order.Builder;
+import generation.TestOrder;
+
+/**
+ * Tests the RasterFirstPersonDrawer against the FirstPersonDrawer. The two backends fill the edges of
+ * walls differently, so frames are not identical, but apart from pixels on edges they have to agree.
+ * Also tests the ParallelFirstPersonDrawer against the RasterFirstPersonDrawer. A wall that crosses the
+ * border of a strip is drawn in two parts. The right corners of a part are computed for its last column 
+ * but placed one column further, so the edges of the parts follow a slightly different line.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class RasterFirstPersonDrawerTest {
+
+	/**
+	 * Share of pixels that may differ between the backends, i.e. pixels on the edges of walls.
+	 */
+	private static final double MAX_DIFFERENT = 0.03;
+
+	/**
+	 * Share of pixels that may differ between drawing in one piece or in strips.
+	 */
+	private static final double MAX_STRIP_DIFFERENT = 0.005;
+
+	private static MazeConfiguration mazeConfig;
+
+	/**
+	 * Generates a deterministic maze to look at.
+	 */
+	@BeforeClass
+	public static void setUpClass(){
+		MazeFactory factory = new MazeFactory(true);
+		TestOrder order = MazeFactoryTest.placeOrder(Builder.DFS, false, factory, 4);
+		factory.waitTillDelivered();
+		mazeConfig = order.getResult();
+		assertNotNull("Maze should be delivered", mazeConfig);
+	}
+
+	/**
+	 * Renders a frame with the given drawer.
+	 */
+	private static int[] render(FirstPersonDrawer drawer, int px, int py, int angle, int walkStep) {
+		BufferedImage image = new BufferedImage(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics gc = image.getGraphics();
+		int viewdx = (int) (Math.cos(Math.PI*angle/180)*(1<<16));
+		int viewdy = (int) (Math.sin(Math.PI*angle/180)*(1<<16));
+		drawer.redraw(gc, StateGUI.STATE_PLAY, px, py, viewdx, viewdy, walkStep, Constants.VIEW_OFFSET, new RangeSet(), angle);
+		gc.dispose();
+		return image.getRGB(0, 0, Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT, null, 0, Constants.VIEW_WIDTH);
+	}
+
+	private static FirstPersonDrawer createDrawer(boolean raster, boolean antialias) {
+		SeenWalls seencells = new SeenWalls(mazeConfig.getWidth()+1, mazeConfig.getHeight()+1);
+		if (!raster)
+			return new FirstPersonDrawer(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT,
+					Constants.MAP_UNIT, Constants.STEP_SIZE, seencells, mazeConfig.getRootnode());
+		return new RasterFirstPersonDrawer(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT,
+				Constants.MAP_UNIT, Constants.STEP_SIZE, seencells, mazeConfig.getRootnode(), antialias);
+	}
+
+	/**
+	 * Compares frames for all directions and walk steps at the starting position.
+	 */
+	private void checkPoses(boolean antialias) {
+		FirstPersonDrawer java2d = createDrawer(false, false);
+		FirstPersonDrawer raster = createDrawer(true, antialias);
+		int[] start = mazeConfig.getStartingPosition();
+		for (int angle = 0; angle < 360; angle += 15) {
+			for (int walkStep = 0; walkStep < 4; walkStep++) {
+				int[] expected = render(java2d, start[0], start[1], angle, walkStep);
+				int[] actual = render(raster, start[0], start[1], angle, walkStep);
+				int different = 0;
+				for (int i = 0; i < expected.length; i++) {
+					if (expected[i] != actual[i])
+						different++;
+				}
+				assertTrue("Frames should only differ at edges for angle " + angle + " and step " + walkStep
+						+ ": " + different + " pixels differ", different <= MAX_DIFFERENT * expected.length);
+			}
+		}
+	}
+
+	/**
+	 * Test that frames without antialiasing agree with the Java2D backend except for edges.
+	 */
+	@Test
+	public final void testRasterMatchesJava2D() {
+		checkPoses(false);
+	}
+
+	/**
+	 * Test that frames with antialiasing agree with the Java2D backend except for edges.
+	 */
+	@Test
+	public final void testRasterAntialiasedMatchesJava2D() {
+		checkPoses(true);
+	}
+
+	/**
+	 * Test that frames drawn in strips agree with frames drawn in one piece except for a few edge pixels,
+	 * a single strip has to be identical.
+	 */
+	@Test
+	public final void testParallelMatchesRaster() {
+		FirstPersonDrawer raster = createDrawer(true, false);
+		int[] start = mazeConfig.getStartingPosition();
+		for (int strips : new int[] { 1, 2, 3, 7, 16 }) {
+			SeenWalls seencells = new SeenWalls(mazeConfig.getWidth()+1, mazeConfig.getHeight()+1);
+			FirstPersonDrawer parallel = new ParallelFirstPersonDrawer(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT,
+					Constants.MAP_UNIT, Constants.STEP_SIZE, seencells, mazeConfig.getRootnode(), false, strips);
+			double maxDifferent = (1 == strips) ? 0 : MAX_STRIP_DIFFERENT;
+			for (int angle = 0; angle < 360; angle += 15) {
+				for (int walkStep = 0; walkStep < 4; walkStep++) {
+					int[] expected = render(raster, start[0], start[1], angle, walkStep);
+					int[] actual = render(parallel, start[0], start[1], angle, walkStep);
+					int different = 0;
+					for (int i = 0; i < expected.length; i++) {
+						if (expected[i] != actual[i])
+							different++;
+					}
+					assertTrue("Frames should only differ at edges for " + strips + " strips, angle " + angle 
+							+ " and step " + walkStep + ": " + different + " pixels differ", 
+							different <= maxDifferent * expected.length);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import falstad.Constants.StateGUI;
+import generation.CardinalDirection;
+import generation.MazeConfiguration;
+import generation.MazeFactory;
+import generation.MazeFactoryTest;
+import generation.Order.Builder;
+import generation.TestOrder;
+
+/**
+ * Tests the RaycastDrawer against the RasterFirstPersonDrawer which draws the same walls
+ * from the BSP tree. Walls have to appear in the same columns with the same colors,
+ * the drawers only round the edges of walls differently.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class RaycastDrawerTest {
+
+	/**
+	 * Share of pixels that may differ, i.e. pixels on the edges of walls.
+	 */
+	private static final double MAX_DIFFERENT = 0.03;
+
+	private static MazeConfiguration mazeConfig;
+
+	/**
+	 * Generates a deterministic maze with rooms to look at.
+	 */
+	@BeforeClass
+	public static void setUpClass(){
+		MazeFactory factory = new MazeFactory(true);
+		TestOrder order = MazeFactoryTest.placeOrder(Builder.DFS, false, factory, 4);
+		factory.waitTillDelivered();
+		mazeConfig = order.getResult();
+		assertNotNull("Maze should be delivered", mazeConfig);
+	}
+
+	/**
+	 * Renders a frame with the given drawer.
+	 */
+	private static int[] render(Viewer drawer, int px, int py, int angle, int walkStep) {
+		BufferedImage image = new BufferedImage(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics gc = image.getGraphics();
+		int viewdx = (int) (Math.cos(Math.PI*angle/180)*(1<<16));
+		int viewdy = (int) (Math.sin(Math.PI*angle/180)*(1<<16));
+		drawer.redraw(gc, StateGUI.STATE_PLAY, px, py, viewdx, viewdy, walkStep, Constants.VIEW_OFFSET, new RangeSet(), angle);
+		gc.dispose();
+		return image.getRGB(0, 0, Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT, null, 0, Constants.VIEW_WIDTH);
+	}
+
+	/**
+	 * Test that frames agree with the RasterFirstPersonDrawer except for edges, 
+	 * for all directions and walk steps at a number of positions.
+	 */
+	@Test
+	public final void testMatchesRaster() {
+		SeenWalls seen = new SeenWalls(mazeConfig.getWidth()+1, mazeConfig.getHeight()+1);
+		Viewer raster = new RasterFirstPersonDrawer(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT,
+				Constants.MAP_UNIT, Constants.STEP_SIZE, seen, mazeConfig.getRootnode(), false);
+		Viewer raycast = new RaycastDrawer(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT, Constants.MAP_UNIT, 
+				Constants.STEP_SIZE, new SeenWalls(mazeConfig.getWidth()+1, mazeConfig.getHeight()+1), 
+				mazeConfig.getMazecells(), mazeConfig.getMazedists(), mazeConfig.getColchange());
+		for (int px = 0; px < mazeConfig.getWidth(); px += 3) {
+			for (int py = 0; py < mazeConfig.getHeight(); py += 3) {
+				for (int angle = 0; angle < 360; angle += 30) {
+					for (int walkStep = 0; walkStep < 4; walkStep++) {
+						int[] expected = render(raster, px, py, angle, walkStep);
+						int[] actual = render(raycast, px, py, angle, walkStep);
+						int different = 0;
+						for (int i = 0; i < expected.length; i++) {
+							if (expected[i] != actual[i])
+								different++;
+						}
+						assertTrue("Frames should only differ at edges at (" + px + "," + py + ") for angle " + angle 
+								+ " and step " + walkStep + ": " + different + " pixels differ", 
+								different <= MAX_DIFFERENT * expected.length);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test that walls which are drawn are marked as seen.
+	 */
+	@Test
+	public final void testMarksSeenWalls() {
+		SeenWalls seen = new SeenWalls(mazeConfig.getWidth()+1, mazeConfig.getHeight()+1);
+		Viewer raycast = new RaycastDrawer(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT, Constants.MAP_UNIT, 
+				Constants.STEP_SIZE, seen, mazeConfig.getMazecells(), mazeConfig.getMazedists(), 0);
+		int[] start = mazeConfig.getStartingPosition();
+		int x = start[0];
+		int y = start[1];
+		// look at each wall of the starting position
+		render(raycast, x, y, 0, 0);
+		render(raycast, x, y, 90, 0);
+		render(raycast, x, y, 180, 0);
+		render(raycast, x, y, 270, 0);
+		assertEquals("East wall should be seen", mazeConfig.hasWall(x, y, CardinalDirection.East), 
+				seen.hasWestWall(x+1, y));
+		assertEquals("West wall should be seen", mazeConfig.hasWall(x, y, CardinalDirection.West), 
+				seen.hasWestWall(x, y));
+		assertEquals("South wall should be seen", mazeConfig.hasWall(x, y, CardinalDirection.South), 
+				seen.hasNorthWall(x, y+1));
+		assertEquals("North wall should be seen", mazeConfig.hasWall(x, y, CardinalDirection.North), 
+				seen.hasNorthWall(x, y));
+	}
+}
@@ -0,0 +1,162 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the RenderScheduler with frames that only count how often they are drawn.
+ * Timing on a build machine varies, so the bounds are generous.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class RenderSchedulerTest {
+
+	private static final int FPS = 100;
+
+	private RenderScheduler scheduler;
+
+	@After
+	public void tearDown() {
+		if (null != scheduler)
+			scheduler.stop();
+	}
+
+	/**
+	 * Test that a request is served by a frame and that the thread is idle afterwards.
+	 */
+	@Test
+	public final void testRequestFrame() throws InterruptedException {
+		final Semaphore drawn = new Semaphore(0);
+		scheduler = new RenderScheduler(new Runnable() {
+			@Override
+			public void run() {
+				drawn.release();
+			}
+		}, FPS);
+		scheduler.start();
+		assertTrue("Scheduler should run", scheduler.isRunning());
+		scheduler.requestFrame();
+		assertTrue("Frame should be drawn", drawn.tryAcquire(1, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertEquals("No frames should be drawn without requests", 0, drawn.availablePermits());
+		assertEquals("One frame should be counted", 1, scheduler.getFrameCount());
+	}
+
+	/**
+	 * Test that requests before the next tick are served by a single frame.
+	 */
+	@Test
+	public final void testRequestsAreCoalesced() throws InterruptedException {
+		final AtomicInteger count = new AtomicInteger();
+		scheduler = new RenderScheduler(new Runnable() {
+			@Override
+			public void run() {
+				count.incrementAndGet();
+			}
+		}, FPS);
+		scheduler.start();
+		for (int i = 0; i < 1000; i++)
+			scheduler.requestFrame();
+		Thread.sleep(200);
+		assertTrue("Requests should be served by few frames: " + count.get(), count.get() >= 1 && count.get() <= 3);
+	}
+
+	/**
+	 * Test that an animation gets frames at the rate of the scheduler, not more.
+	 */
+	@Test
+	public final void testAnimate() throws InterruptedException {
+		final AtomicInteger count = new AtomicInteger();
+		scheduler = new RenderScheduler(new Runnable() {
+			@Override
+			public void run() {
+				count.incrementAndGet();
+			}
+		}, FPS);
+		scheduler.start();
+		scheduler.animate(TimeUnit.MILLISECONDS.toNanos(200));
+		Thread.sleep(400);
+		// 20 ticks in 200 ms plus the final frame
+		assertTrue("Animation should get about 20 frames: " + count.get(), count.get() >= 5 && count.get() <= 22);
+		final int frames = count.get();
+		Thread.sleep(100);
+		assertEquals("Frames should stop after the animation", frames, count.get());
+	}
+
+	/**
+	 * Test that a caller waiting for an animation returns after its last frame.
+	 */
+	@Test
+	public final void testAwaitAnimation() throws InterruptedException {
+		final AtomicInteger count = new AtomicInteger();
+		scheduler = new RenderScheduler(new Runnable() {
+			@Override
+			public void run() {
+				count.incrementAndGet();
+			}
+		}, FPS);
+		scheduler.start();
+		assertTrue("Nothing to wait for without an animation", scheduler.awaitAnimation(0, TimeUnit.MILLISECONDS));
+		final long start = System.nanoTime();
+		scheduler.animate(TimeUnit.MILLISECONDS.toNanos(200));
+		assertFalse("Animation should not be shown yet", scheduler.awaitAnimation(50, TimeUnit.MILLISECONDS));
+		assertTrue("Animation should be shown", scheduler.awaitAnimation(1, TimeUnit.SECONDS));
+		assertTrue("Wait should last for the animation", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+		assertTrue("Frames should have been drawn: " + count.get(), count.get() >= 5);
+	}
+
+	/**
+	 * Test that slow frames make the scheduler drop ticks instead of falling behind.
+	 */
+	@Test
+	public final void testDropsFramesUnderLoad() throws InterruptedException {
+		final AtomicInteger count = new AtomicInteger();
+		scheduler = new RenderScheduler(new Runnable() {
+			@Override
+			public void run() {
+				count.incrementAndGet();
+				try {
+					Thread.sleep(35); // three and a half ticks
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, FPS);
+		scheduler.start();
+		scheduler.animate(TimeUnit.MILLISECONDS.toNanos(300));
+		Thread.sleep(500);
+		assertTrue("Slow frames should be fewer than ticks: " + count.get(), count.get() <= 10);
+		assertTrue("Ticks should be dropped", scheduler.getDroppedFrameCount() >= 2*count.get());
+		assertTrue("Frame time should be measured", scheduler.getMaxFrameNanos() >= TimeUnit.MILLISECONDS.toNanos(35));
+		assertTrue("Average frame time should be measured", scheduler.getAverageFrameNanos() >= TimeUnit.MILLISECONDS.toNanos(35));
+		scheduler.resetStatistics();
+		assertEquals("Statistics should be reset", 0, scheduler.getFrameCount());
+	}
+
+	/**
+	 * Test that a stopped scheduler draws no more frames.
+	 */
+	@Test
+	public final void testStop() throws InterruptedException {
+		final AtomicInteger count = new AtomicInteger();
+		scheduler = new RenderScheduler(new Runnable() {
+			@Override
+			public void run() {
+				count.incrementAndGet();
+			}
+		}, FPS);
+		scheduler.start();
+		scheduler.stop();
+		assertFalse("Scheduler should not run", scheduler.isRunning());
+		scheduler.requestFrame();
+		Thread.sleep(100);
+		assertEquals("No frames should be drawn", 0, count.get());
+	}
+}
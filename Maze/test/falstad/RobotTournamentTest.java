@@ -0,0 +1,99 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import falstad.RobotTournament.Contestant;
+import falstad.RobotTournament.Format;
+import falstad.RobotTournament.Statistics;
+import generation.Order.Builder;
+
+/**
+ * Tests the RobotTournament on a few small mazes.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class RobotTournamentTest {
+
+	private static final int[] SKILLS = { 0, 1 };
+	private static final int[] SEEDS = { 1, 2 };
+
+	private static RobotTournament tournament(int workers) {
+		return new RobotTournament(Arrays.asList(Builder.DFS, Builder.Prim), SKILLS, SEEDS,
+				Arrays.asList(Contestant.values()), true, workers);
+	}
+
+	/**
+	 * @return the lines of the sink without the time of each run, sorted such that the order of the runs does not matter
+	 */
+	private static String[] withoutTimes(String sink) {
+		String[] lines = sink.trim().split("\\r?\\n");
+		for (int i = 0; i < lines.length; i++)
+			lines[i] = lines[i].replaceAll(",[0-9]+$", "").replaceAll(",\"nanos\":[0-9]+", "");
+		Arrays.sort(lines);
+		return lines;
+	}
+
+	/**
+	 * Test that every combination is run once and written to the sink, and that the statistics count all runs.
+	 */
+	@Test
+	public final void testRunsAllCombinations() throws IOException, InterruptedException {
+		StringWriter sink = new StringWriter();
+		Map<Contestant, Statistics> statistics = tournament(2).run(sink, Format.CSV);
+		String[] lines = sink.toString().trim().split("\\r?\\n");
+		assertEquals("CSV should start with a header", RobotTournament.Result.CSV_HEADER, lines[0]);
+		assertEquals("Each driver should run on each maze", 1 + 2*SKILLS.length*SEEDS.length*Contestant.values().length, lines.length);
+		for (Contestant c : Contestant.values()) {
+			assertEquals("Runs of " + c, 2*SKILLS.length*SEEDS.length, statistics.get(c).getRuns());
+			assertTrue("Runs of " + c + " should be timed", statistics.get(c).getNanosPercentile(50) > 0);
+		}
+		Statistics wizard = statistics.get(Contestant.WIZARD);
+		assertEquals("Wizard should always reach the exit", wizard.getRuns(), wizard.getExits());
+		assertTrue("Wizard should not take longer paths than a wall follower on a perfect maze", 
+				wizard.getPathLengthPercentile(100) <= statistics.get(Contestant.WALL_FOLLOWER_LEFT).getPathLengthPercentile(100));
+	}
+
+	/**
+	 * Test that the same seeds give the same results with a different number of workers and in JSON.
+	 */
+	@Test
+	public final void testReproducible() throws IOException, InterruptedException {
+		StringWriter serial = new StringWriter();
+		tournament(1).run(serial, Format.CSV);
+		StringWriter parallel = new StringWriter();
+		tournament(3).run(parallel, Format.CSV);
+		assertArrayEquals("Results should not depend on the workers", withoutTimes(serial.toString()), withoutTimes(parallel.toString()));
+		StringWriter json = new StringWriter();
+		tournament(2).run(json, Format.JSON);
+		String[] lines = withoutTimes(json.toString());
+		assertEquals(2*SKILLS.length*SEEDS.length*Contestant.values().length, lines.length);
+		assertTrue("JSON line " + lines[0], lines[0].matches("\\{\"builder\":\"DFS\",\"skill\":[01],\"seed\":[12],\"driver\":\"\\w+\",\"exit\":(true|false),\"pathLength\":[0-9]+,\"energy\":[0-9.]+\\}"));
+	}
+
+	/**
+	 * Test the percentiles by the nearest rank.
+	 */
+	@Test
+	public final void testPercentiles() {
+		Statistics s = new Statistics();
+		assertEquals("No runs give 0", 0, s.getPathLengthPercentile(50));
+		for (int i = 10; i >= 1; i--)
+			s.add(new RobotTournament.Result(Builder.DFS, 0, i, Contestant.WIZARD, i != 5, i, 2.5f*i, 1000*i));
+		assertEquals(10, s.getRuns());
+		assertEquals(9, s.getExits());
+		assertEquals("Median of the exits leaves out the failed run", 6, s.getPathLengthPercentile(50));
+		assertEquals(10, s.getPathLengthPercentile(100));
+		assertEquals(1, s.getPathLengthPercentile(1));
+		assertEquals(25f, s.getEnergyPercentile(90), 0.001f);
+		assertEquals("Median of the time covers all runs", 5000, s.getNanosPercentile(50));
+		assertEquals(9000, s.getNanosPercentile(90));
+	}
+}
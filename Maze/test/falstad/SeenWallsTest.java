@@ -0,0 +1,99 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the SeenWalls with ranges of walls that cross the boundaries of the words of its bitsets.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class SeenWallsTest {
+
+	private static final int WIDTH = 50;
+	private static final int HEIGHT = 30;
+
+	private SeenWalls seen;
+
+	@Before
+	public void setUp() {
+		seen = new SeenWalls(WIDTH, HEIGHT);
+	}
+
+	/**
+	 * Test that a range of north walls sets exactly the walls of its cells in its row,
+	 * the row starts at bit 50 and the range ends at bit 147.
+	 */
+	@Test
+	public final void testAddNorthWalls() {
+		seen.addNorthWalls(3, 1, 45);
+		seen.addNorthWalls(40, 2, 8);
+		for (int y = 0; y < HEIGHT; y++)
+			for (int x = 0; x < WIDTH; x++) {
+				boolean expected = (1 == y && x >= 3 && x < 48) || (2 == y && x >= 40 && x < 48);
+				assertEquals("North wall of " + x + "," + y, expected, seen.hasNorthWall(x, y));
+				assertFalse("West wall of " + x + "," + y, seen.hasWestWall(x, y));
+			}
+	}
+
+	/**
+	 * Test that a range of west walls sets exactly the walls of its cells in its column.
+	 */
+	@Test
+	public final void testAddWestWalls() {
+		seen.addWestWalls(2, 0, HEIGHT);
+		seen.addWestWalls(3, 1, 1);
+		for (int x = 0; x < WIDTH; x++)
+			for (int y = 0; y < HEIGHT; y++) {
+				boolean expected = (2 == x) || (3 == x && 1 == y);
+				assertEquals("West wall of " + x + "," + y, expected, seen.hasWestWall(x, y));
+				assertFalse("North wall of " + x + "," + y, seen.hasNorthWall(x, y));
+			}
+	}
+
+	/**
+	 * Test that the next wall is found within a row or column only.
+	 */
+	@Test
+	public final void testNextWall() {
+		seen.addNorthWalls(45, 1, 1);
+		seen.addNorthWalls(2, 3, 1);
+		assertEquals(45, seen.nextNorthWall(0, 1));
+		assertEquals(45, seen.nextNorthWall(45, 1));
+		assertEquals("Walls of the next row should not be found", -1, seen.nextNorthWall(46, 1));
+		assertEquals(-1, seen.nextNorthWall(0, 2));
+		assertEquals(2, seen.nextNorthWall(0, 3));
+		assertEquals("Start beyond the row should find nothing", -1, seen.nextNorthWall(WIDTH, 3));
+		seen.addWestWalls(4, 25, 2);
+		assertEquals(25, seen.nextWestWall(4, 0));
+		assertEquals(26, seen.nextWestWall(4, 26));
+		assertEquals(-1, seen.nextWestWall(4, 27));
+		assertEquals(-1, seen.nextWestWall(5, 0));
+	}
+
+	/**
+	 * Test that a revision only changes if a wall of its region is added that has not been seen before.
+	 */
+	@Test
+	public final void testRevisions() {
+		assertEquals(0, seen.getRevision(0, 0));
+		seen.addNorthWalls(6, 0, 4); // two walls in each of the first two regions
+		assertEquals(2, seen.getRevision(0, 0));
+		assertEquals(2, seen.getRevision(8, 7));
+		assertEquals(0, seen.getRevision(16, 0));
+		assertEquals(0, seen.getRevision(0, 8));
+		// adding walls that have been seen is no change
+		seen.addNorthWalls(7, 0, 2);
+		assertEquals(2, seen.getRevision(0, 0));
+		assertEquals(2, seen.getRevision(8, 0));
+		seen.addWestWalls(0, 7, 2);
+		assertEquals(3, seen.getRevision(0, 0));
+		assertEquals(1, seen.getRevision(0, 8));
+		// the last region is smaller
+		seen.addWestWalls(WIDTH-1, HEIGHT-1, 1);
+		assertEquals(1, seen.getRevision(WIDTH-1, HEIGHT-1));
+	}
+}
@@ -0,0 +1,66 @@
+package falstad;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests the table of view directions against the cosine and sine of the angles.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class ViewDirectionsTest {
+
+	/**
+	 * Test that the quarter turns are exact unit vectors along the axes.
+	 */
+	@Test
+	public final void testQuarterTurns() {
+		for (int steps : new int[] { 4, 360, 1024 }) {
+			ViewDirections directions = new ViewDirections(steps);
+			for (int a = 0; a < 4; a++) {
+				int step = directions.toSteps(a*90);
+				assertEquals("Quarter turn " + a + " with " + steps + " steps", Constants.DIRS_X[a] << 16, directions.getDx(step));
+				assertEquals("Quarter turn " + a + " with " + steps + " steps", Constants.DIRS_Y[a] << 16, directions.getDy(step));
+				assertEquals(a*90, directions.toDegrees(step));
+			}
+		}
+	}
+
+	/**
+	 * Test that every step is the rounded cosine and sine of its angle in 16.16 fixed point
+	 * and that steps outside of a full turn wrap around.
+	 */
+	@Test
+	public final void testDirections() {
+		ViewDirections directions = new ViewDirections(360);
+		for (int step = -720; step < 720; step++) {
+			assertEquals("Cosine of " + step, Math.cos(Math.toRadians(step))*(1<<16), directions.getDx(step), 0.5);
+			assertEquals("Sine of " + step, Math.sin(Math.toRadians(step))*(1<<16), directions.getDy(step), 0.5);
+		}
+		assertEquals(270, directions.toDegrees(-90));
+		assertEquals(-90, directions.toSteps(-90));
+	}
+
+	/**
+	 * Test that a finer resolution has steps between the degrees.
+	 */
+	@Test
+	public final void testResolution() {
+		ViewDirections directions = new ViewDirections(1440);
+		assertEquals(4, directions.toSteps(1));
+		assertEquals(360, directions.toSteps(90));
+		assertEquals(0, directions.toDegrees(3));
+		assertEquals(1, directions.toDegrees(4));
+		assertTrue("Direction should turn between degrees", directions.getDy(2) > directions.getDy(0) && directions.getDy(2) < directions.getDy(4));
+	}
+
+	/**
+	 * Test that the number of steps has to be a multiple of 4.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public final void testIllegalSteps() {
+		new ViewDirections(90);
+	}
+}
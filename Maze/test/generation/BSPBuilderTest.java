@@ -0,0 +1,269 @@
+package generation;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import falstad.Constants;
+import generation.Order.Builder;
+
+/**
+ * Tests the BSPBuilder, in particular that an incremental update of a tree of BSP nodes
+ * after walls have changed describes the same walls as a tree that is built from scratch.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class BSPBuilderTest {
+
+	/**
+	 * The skill level of the maze used for testing.
+	 */
+	private static final int SKILL = 4;
+
+	private MazeConfiguration mazeConfig;
+
+	/**
+	 * Generates a deterministic maze to work on.
+	 */
+	@Before
+	public void setUp(){
+		MazeFactory factory = new MazeFactory(true);
+		TestOrder order = MazeFactoryTest.placeOrder(Builder.DFS, false, factory, SKILL);
+		factory.waitTillDelivered();
+		mazeConfig = order.getResult();
+		assertNotNull("Maze should be delivered", mazeConfig);
+	}
+
+	/**
+	 * Creates a builder for the current maze configuration.
+	 */
+	private BSPBuilder createBuilder(){
+		return new BSPBuilder(null, mazeConfig.getMazedists(), mazeConfig.getMazecells(),
+				mazeConfig.getWidth(), mazeConfig.getHeight(), 0, Constants.SKILL_PARTCT[SKILL]);
+	}
+
+	/**
+	 * Collects all wall units that are covered by segments in the tree, each unit is
+	 * described by its position and the direction of the segment.
+	 * @param n root of the tree
+	 * @param units set to add units to
+	 */
+	private static void collectWallUnits(BSPNode n, Set<String> units){
+		if (n instanceof BSPLazyNode)
+			n = ((BSPLazyNode) n).expand();
+		if (n.isIsleaf()) {
+			for (Seg se : ((BSPLeaf) n).getSlist()) {
+				int steps = Math.abs(se.getExtensionX() + se.getExtensionY()) / Constants.MAP_UNIT;
+				int sx = Integer.signum(se.getExtensionX()) * Constants.MAP_UNIT;
+				int sy = Integer.signum(se.getExtensionY()) * Constants.MAP_UNIT;
+				for (int i = 0; i < steps; i++) {
+					String unit = (se.getStartPositionX() + i*sx) + "," + (se.getStartPositionY() + i*sy) + "," + se.getDir();
+					assertTrue("Wall unit should be covered by a single segment: " + unit, units.add(unit));
+				}
+			}
+			return;
+		}
+		BSPBranch b = (BSPBranch) n;
+		assertTrue("Bounding box of branch should contain left branch", contains(b, b.getLeftBranch()));
+		assertTrue("Bounding box of branch should contain right branch", contains(b, b.getRightBranch()));
+		collectWallUnits(b.getLeftBranch(), units);
+		collectWallUnits(b.getRightBranch(), units);
+	}
+
+	/**
+	 * Checks that every segment of the tree lies on the side of each partition above it
+	 * that the branch of its subtree stands for, as partitionSegments distributes them. 
+	 * A segment on a partition line may be on either side.
+	 * @param n root of the subtree
+	 * @param partitions (x,y,dx,dy) of the partitions above n
+	 * @param sides for each partition, 1 if n is in its right branch, -1 if in its left branch
+	 */
+	private static void checkSides(BSPNode n, ArrayList<int[]> partitions, ArrayList<Integer> sides){
+		if (n instanceof BSPLazyNode)
+			n = ((BSPLazyNode) n).expand();
+		if (n.isIsleaf()) {
+			for (Seg se : ((BSPLeaf) n).getSlist()) {
+				for (int i = 0; i < partitions.size(); i++) {
+					int[] p = partitions.get(i);
+					// the normal (dy,-dx) points to the right hand side
+					int dot1 = (se.getStartPositionX()-p[0])*p[3] - (se.getStartPositionY()-p[1])*p[2];
+					int dot2 = (se.getEndPositionX()-p[0])*p[3] - (se.getEndPositionY()-p[1])*p[2];
+					assertTrue("Segment at " + se.getStartPositionX() + "," + se.getStartPositionY() 
+							+ " should be on the side of partition " + i + " of its branch",
+							sides.get(i)*dot1 >= 0 && sides.get(i)*dot2 >= 0);
+				}
+			}
+			return;
+		}
+		BSPBranch b = (BSPBranch) n;
+		partitions.add(new int[] { b.getX(), b.getY(), b.getDx(), b.getDy() });
+		sides.add(-1);
+		checkSides(b.getLeftBranch(), partitions, sides);
+		sides.set(sides.size()-1, 1);
+		checkSides(b.getRightBranch(), partitions, sides);
+		partitions.remove(partitions.size()-1);
+		sides.remove(sides.size()-1);
+	}
+
+	/**
+	 * Checks that every segment of the tree lies on the correct side of all partitions above it.
+	 */
+	private static void checkSides(BSPNode root){
+		checkSides(root, new ArrayList<int[]>(), new ArrayList<Integer>());
+	}
+
+	/**
+	 * Tells if the bounding box of the outer node contains the bounding box of the inner node
+	 */
+	private static boolean contains(BSPNode outer, BSPNode inner){
+		return outer.getLowerBoundX() <= inner.getLowerBoundX() && inner.getUpperBoundX() <= outer.getUpperBoundX()
+				&& outer.getLowerBoundY() <= inner.getLowerBoundY() && inner.getUpperBoundY() <= outer.getUpperBoundY();
+	}
+
+	/**
+	 * Toggles a few internal walls across the maze.
+	 * @return the walls that have been added or removed
+	 */
+	private ArrayList<Wall> toggleWalls(){
+		Cells cells = mazeConfig.getMazecells();
+		ArrayList<Wall> changed = new ArrayList<Wall>();
+		for (int i = 1; i < mazeConfig.getWidth()-1; i += 4) {
+			int y = (i * 3) % (mazeConfig.getHeight()-1);
+			Wall wall = new Wall(i, y, (i % 8 == 1) ? CardinalDirection.East : CardinalDirection.South);
+			if (cells.hasWall(i, y, wall.getDirection()))
+				cells.deleteWall(wall);
+			else
+				cells.addWall(wall, true);
+			changed.add(wall);
+		}
+		return changed;
+	}
+
+	/**
+	 * Test that an updated tree covers exactly the walls of a tree that is built from scratch
+	 * after internal walls have been removed and added.
+	 */
+	@Test
+	public final void testUpdateBSPNodes() throws InterruptedException {
+		BSPNode root = createBuilder().generateBSPNodes();
+		BSPNode updated = createBuilder().updateBSPNodes(root, toggleWalls());
+		assertNotSame("Tree should have changed", root, updated);
+		checkSides(updated);
+
+		Set<String> expected = new HashSet<String>();
+		collectWallUnits(createBuilder().generateBSPNodes(), expected);
+		Set<String> actual = new HashSet<String>();
+		collectWallUnits(updated, actual);
+		assertEquals("Updated tree should cover the same walls as a new tree", expected, actual);
+	}
+
+	/**
+	 * Test that a lazy tree is not partitioned up front and that it covers
+	 * the same walls as a tree that is built from scratch once it is expanded.
+	 */
+	@Test
+	public final void testGenerateLazyBSPNodes() throws InterruptedException {
+		BSPNode root = createBuilder().generateLazyBSPNodes();
+		assertTrue("Root should be a lazy node", root instanceof BSPLazyNode);
+		assertFalse("Root should not be expanded yet", ((BSPLazyNode) root).isExpanded());
+
+		Set<String> expected = new HashSet<String>();
+		collectWallUnits(createBuilder().generateBSPNodes(), expected);
+		Set<String> actual = new HashSet<String>();
+		collectWallUnits(root, actual);
+		assertTrue("Root should be expanded after traversal", ((BSPLazyNode) root).isExpanded());
+		assertEquals("Lazy tree should cover the same walls as a new tree", expected, actual);
+	}
+
+	/**
+	 * Test that expanding around a position leaves remote parts of a lazy tree unexpanded.
+	 */
+	@Test
+	public final void testExpandAround() throws InterruptedException {
+		BSPLazyNode root = (BSPLazyNode) createBuilder().generateLazyBSPNodes();
+		root.expandAround(Constants.MAP_UNIT/2, Constants.MAP_UNIT/2, Constants.MAP_UNIT);
+		assertTrue("Root should be expanded", root.isExpanded());
+		assertTrue("Some remote node should remain lazy", hasLazyNode(root.expand()));
+		root.expandAll();
+		assertFalse("No node should remain lazy", hasLazyNode(root.expand()));
+	}
+
+	/**
+	 * Test that a lazy tree can be updated while another thread expands it, 
+	 * as the drawer and the prefetch thread do during play.
+	 */
+	@Test
+	public final void testUpdateWhileExpanding() throws InterruptedException {
+		final BSPLazyNode root = (BSPLazyNode) createBuilder().generateLazyBSPNodes();
+		root.expandAround(0, 0, Constants.MAP_UNIT);
+		final Throwable[] failure = new Throwable[1];
+		Thread expander = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					root.expandAll();
+				} catch (Throwable t) {
+					failure[0] = t;
+				}
+			}
+		});
+		expander.start();
+		BSPNode updated = createBuilder().updateBSPNodes(root, toggleWalls());
+		expander.join();
+		assertNull("Expansion should not fail", failure[0]);
+		checkSides(updated);
+
+		Set<String> expected = new HashSet<String>();
+		collectWallUnits(createBuilder().generateBSPNodes(), expected);
+		Set<String> actual = new HashSet<String>();
+		collectWallUnits(updated, actual);
+		assertEquals("Updated tree should cover the same walls as a new tree", expected, actual);
+	}
+
+	/**
+	 * Tells if the tree contains a node that has not been expanded
+	 */
+	private static boolean hasLazyNode(BSPNode n){
+		if (n instanceof BSPLazyNode)
+			return !((BSPLazyNode) n).isExpanded() || hasLazyNode(((BSPLazyNode) n).expand());
+		if (n.isIsleaf())
+			return false;
+		return hasLazyNode(((BSPBranch) n).getLeftBranch()) || hasLazyNode(((BSPBranch) n).getRightBranch());
+	}
+
+	/**
+	 * Test that scanning the walls in parallel bands gives the same segments in the same order
+	 * as the serial scan.
+	 */
+	@Test
+	public final void testGenerateSegmentsInBands() throws InterruptedException {
+		ArrayList<Seg> serial = createBuilder().generateSegments(1);
+		ArrayList<Seg> parallel = createBuilder().generateSegments(3);
+		assertEquals("Number of segments should match", serial.size(), parallel.size());
+		for (int i = 0; i < serial.size(); i++) {
+			Seg s = serial.get(i);
+			Seg p = parallel.get(i);
+			assertEquals("Start x of segment " + i, s.getStartPositionX(), p.getStartPositionX());
+			assertEquals("Start y of segment " + i, s.getStartPositionY(), p.getStartPositionY());
+			assertEquals("Extension x of segment " + i, s.getExtensionX(), p.getExtensionX());
+			assertEquals("Extension y of segment " + i, s.getExtensionY(), p.getExtensionY());
+			assertEquals("Distance of segment " + i, s.getDistance(), p.getDistance());
+			assertEquals("Color of segment " + i, s.getColor(), p.getColor());
+		}
+	}
+
+	/**
+	 * Test that an update without any changed walls leaves the tree untouched.
+	 */
+	@Test
+	public final void testUpdateBSPNodesNoChange() throws InterruptedException {
+		BSPNode root = createBuilder().generateBSPNodes();
+		assertSame("Tree should be unchanged", root, createBuilder().updateBSPNodes(root, new ArrayList<Wall>()));
+	}
+}
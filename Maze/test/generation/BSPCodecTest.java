@@ -0,0 +1,137 @@
+package generation;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import falstad.Constants;
+import generation.Order.Builder;
+
+/**
+ * Tests the binary format of the BSPCodec, in particular that a round trip
+ * gives a tree that matches the original tree in all nodes and segments.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class BSPCodecTest {
+
+	/**
+	 * Compares two trees node by node, segments are compared with Seg.equals
+	 * which includes colors and flags.
+	 */
+	private static void assertSameTree(BSPNode expected, BSPNode actual) {
+		if (expected instanceof BSPLazyNode)
+			expected = ((BSPLazyNode) expected).expand();
+		assertEquals("Node types should match", expected.isIsleaf(), actual.isIsleaf());
+		assertEquals("Lower x bound should match", expected.getLowerBoundX(), actual.getLowerBoundX());
+		assertEquals("Lower y bound should match", expected.getLowerBoundY(), actual.getLowerBoundY());
+		assertEquals("Upper x bound should match", expected.getUpperBoundX(), actual.getUpperBoundX());
+		assertEquals("Upper y bound should match", expected.getUpperBoundY(), actual.getUpperBoundY());
+		if (expected.isIsleaf()) {
+			assertEquals("Segments should match", ((BSPLeaf) expected).getSlist(), ((BSPLeaf) actual).getSlist());
+			return;
+		}
+		BSPBranch e = (BSPBranch) expected;
+		BSPBranch a = (BSPBranch) actual;
+		assertEquals("Partition x should match", e.getX(), a.getX());
+		assertEquals("Partition y should match", e.getY(), a.getY());
+		assertEquals("Partition dx should match", e.getDx(), a.getDx());
+		assertEquals("Partition dy should match", e.getDy(), a.getDy());
+		assertSameTree(e.getLeftBranch(), a.getLeftBranch());
+		assertSameTree(e.getRightBranch(), a.getRightBranch());
+	}
+
+	/**
+	 * Test that a tree of a generated maze survives a round trip.
+	 */
+	@Test
+	public final void testRoundTripGeneratedMaze() throws IOException {
+		MazeFactory factory = new MazeFactory(true);
+		TestOrder order = MazeFactoryTest.placeOrder(Builder.DFS, false, factory, 4);
+		factory.waitTillDelivered();
+		BSPNode root = order.getResult().getRootnode();
+		assertNotNull("Maze should be delivered", root);
+
+		byte[] data = BSPCodec.encode(root, order.getResult().getColchange());
+		assertSameTree(root, BSPCodec.decode(data));
+	}
+
+	/**
+	 * Collects the segments of a tree in preorder.
+	 */
+	private static void collectSegments(BSPNode n, ArrayList<Seg> segments) {
+		if (n instanceof BSPLazyNode)
+			n = ((BSPLazyNode) n).expand();
+		if (n.isIsleaf()) {
+			segments.addAll(((BSPLeaf) n).getSlist());
+			return;
+		}
+		collectSegments(((BSPBranch) n).getLeftBranch(), segments);
+		collectSegments(((BSPBranch) n).getRightBranch(), segments);
+	}
+
+	/**
+	 * Test that the colors of a generated maze are reconstructed from its colchange value, not written.
+	 * A color that is written takes 4 bytes, so an encoding with a wrong colchange value is larger
+	 * by 4 bytes for each segment whose color the wrong value does not reproduce.
+	 */
+	@Test
+	public final void testColorsAreNotWritten() throws IOException {
+		MazeFactory factory = new MazeFactory(true);
+		TestOrder order = MazeFactoryTest.placeOrder(Builder.DFS, false, factory, 4);
+		factory.waitTillDelivered();
+		BSPNode root = order.getResult().getRootnode();
+		final int colchange = order.getResult().getColchange();
+		ArrayList<Seg> segments = new ArrayList<Seg>();
+		collectSegments(root, segments);
+		for (Seg se : segments) {
+			assertEquals("Colchange should reproduce the color of each segment", se.getColor().getRGB(),
+					Seg.computeColor(se.getExtensionX(), se.getDistance(), colchange).getRGB());
+		}
+		final int wrong = colchange + 1;
+		int mismatches = 0;
+		for (Seg se : segments) {
+			if (Seg.computeColor(se.getExtensionX(), se.getDistance(), wrong).getRGB() != se.getColor().getRGB())
+				mismatches++;
+		}
+		assertTrue("Another colchange should give other colors", mismatches > 0);
+		assertEquals("Only segments with other colors should be written with their color", 
+				BSPCodec.encode(root, colchange).length + 4*mismatches, BSPCodec.encode(root, wrong).length);
+	}
+
+	/**
+	 * Test that segments that do not follow the usual scheme, i.e. with explicit colors,
+	 * flags set and coordinates off the grid, survive a round trip.
+	 */
+	@Test
+	public final void testRoundTripSpecialSegments() throws IOException {
+		final int u = Constants.MAP_UNIT;
+		ArrayList<Seg> left = new ArrayList<Seg>();
+		left.add(new Seg(u, 2*u, 3*u, 0, 17, 5));
+		Seg colored = new Seg(4*u, 2*u, 0, -2*u, 40, 5);
+		colored.setColor(new Color(1, 2, 3, 4));
+		colored.setSeen(true);
+		left.add(colored);
+		ArrayList<Seg> right = new ArrayList<Seg>();
+		Seg offGrid = new Seg(-7, 3, 0, 5, -2, 5);
+		offGrid.setPartition(true);
+		right.add(offGrid);
+		BSPNode root = new BSPBranch(u, 2*u, 3*u, 0, new BSPLeaf(left),
+				new BSPBranch(1, 2, 0, 3, new BSPLeaf(right), new BSPLeaf(new ArrayList<Seg>())));
+
+		assertSameTree(root, BSPCodec.decode(BSPCodec.encode(root, 5)));
+	}
+
+	/**
+	 * Test that data in another format is rejected.
+	 */
+	@Test(expected = IOException.class)
+	public final void testDecodeInvalidData() throws IOException {
+		BSPCodec.decode(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+	}
+}
@@ -2,6 +2,8 @@ package generation;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -429,4 +431,60 @@ public class MazeFactoryTest {
 	public final void testNonDeterministicPrim(){
 		testNonDeterministic(Builder.Prim);
 	}
+	
+	/**
+	 * Test that a build listener receives all phases in order and statistics for a consistent tree, 
+	 * and that progress is reported in increasing steps that do not exceed 100%.
+	 */
+	@Test
+	public final void testBuildListener(){
+		final List<MazeBuildListener.Phase> phases = new ArrayList<MazeBuildListener.Phase>();
+		final List<BSPTreeStats> stats = new ArrayList<BSPTreeStats>();
+		deterministicFactory.setBuildListener(new MazeBuildListener() {
+			@Override
+			public void phaseCompleted(Phase phase, long nanos, long allocatedBytes) {
+				assertTrue("Time should not be negative", nanos >= 0);
+				phases.add(phase);
+			}
+			@Override
+			public void treeCompleted(BSPTreeStats treeStats) {
+				stats.add(treeStats);
+			}
+		});
+		final List<Integer> progress = new ArrayList<Integer>();
+		TestOrder order = new TestOrder(ORDER_SKILL, Builder.DFS, false) {
+			@Override
+			public void updateProgress(int percentage) {
+				progress.add(percentage);
+			}
+		};
+		assertTrue("Factory should accept order", deterministicFactory.order(order));
+		deterministicFactory.waitTillDelivered();
+		assertTrue("Order should be delivered", order.isDelivered());
+
+		List<MazeBuildListener.Phase> expected = new ArrayList<MazeBuildListener.Phase>();
+		for (MazeBuildListener.Phase phase : MazeBuildListener.Phase.values())
+			expected.add(phase);
+		if (0 == Constants.SKILL_ROOMS[ORDER_SKILL])
+			expected.remove(MazeBuildListener.Phase.ROOMS);
+		assertEquals("All phases should be reported in order", expected, phases);
+
+		assertEquals("Tree statistics should be reported once", 1, stats.size());
+		BSPTreeStats treeStats = stats.get(0);
+		assertEquals("Binary tree should have one leaf more than splits", treeStats.getSplits()+1, treeStats.getLeaves());
+		int leaves = 0;
+		for (int n : treeStats.getDepthHistogram())
+			leaves += n;
+		assertEquals("Depth histogram should count all leaves", treeStats.getLeaves(), leaves);
+		assertEquals("Expected iterations should come from skill level", 
+				Constants.SKILL_PARTCT[ORDER_SKILL], treeStats.getExpectedPartitionIterations());
+
+		int last = 0;
+		for (int percentage : progress) {
+			assertTrue("Progress should not decrease", percentage >= last);
+			assertTrue("Progress should not exceed 100%", percentage <= 100);
+			last = percentage;
+		}
+		assertEquals("Progress should end at 100%", 100, last);
+	}
 }
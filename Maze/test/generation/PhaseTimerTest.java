@@ -0,0 +1,55 @@
+package generation;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+/**
+ * Tests the PhaseTimer, in particular that memory allocated by tasks on other threads
+ * is reported for the phase.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class PhaseTimerTest {
+
+	private static final int TASK_BYTES = 4 << 20;
+
+	private long reportedBytes;
+
+	/**
+	 * Test that the memory a measured task allocates on a pool thread is added to the phase.
+	 */
+	@Test
+	public final void testMeasureTaskOnOtherThread() throws Exception {
+		PhaseTimer timer = new PhaseTimer(new MazeBuildListener() {
+			@Override
+			public void phaseCompleted(Phase phase, long nanos, long allocatedBytes) {
+				reportedBytes = allocatedBytes;
+			}
+			@Override
+			public void treeCompleted(BSPTreeStats stats) {
+			}
+		});
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			timer.start();
+			byte[] result = pool.submit(timer.measure(new Callable<byte[]>() {
+				@Override
+				public byte[] call() {
+					return new byte[TASK_BYTES];
+				}
+			})).get();
+			timer.stop(MazeBuildListener.Phase.SEGMENTS);
+			assertEquals(TASK_BYTES, result.length);
+		} finally {
+			pool.shutdown();
+		}
+		if (-1 != reportedBytes)
+			assertTrue("Allocation of the task should be included: " + reportedBytes, reportedBytes >= TASK_BYTES);
+	}
+}
@@ -0,0 +1,195 @@
+package generation;
+
+import static org.junit.Assert.*;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import falstad.Constants;
+import falstad.Constants.StateGUI;
+import falstad.FirstPersonDrawer;
+import falstad.RangeSet;
+import falstad.RasterFirstPersonDrawer;
+import falstad.SeenWalls;
+import generation.Order.Builder;
+
+/**
+ * Tests the PotentiallyVisibleSet, in particular that skipping the subtrees it rules out
+ * does not change a single pixel of what the FirstPersonDrawer draws, and that a stored set
+ * is only read back for the maze it was computed for.
+ *
+ * @author Ben Zhang
+ *
+ */
+public class PotentiallyVisibleSetTest {
+
+	/**
+	 * Directions for angles 0, 90, 180 and 270, y goes down.
+	 */
+	private static final CardinalDirection[] DIRECTIONS = { 
+		CardinalDirection.East, CardinalDirection.South, CardinalDirection.West, CardinalDirection.North };
+
+	private static MazeConfiguration generate(int skill, boolean perfect) {
+		MazeFactory factory = new MazeFactory(true);
+		TestOrder order = MazeFactoryTest.placeOrder(Builder.DFS, perfect, factory, skill);
+		factory.waitTillDelivered();
+		MazeConfiguration mazeConfig = order.getResult();
+		assertNotNull("Maze should be delivered", mazeConfig);
+		return mazeConfig;
+	}
+
+	private static PotentiallyVisibleSet build(MazeConfiguration mazeConfig) throws InterruptedException {
+		return PotentiallyVisibleSet.build(mazeConfig.getRootnode(), mazeConfig.getMazecells(), 
+				mazeConfig.getWidth(), mazeConfig.getHeight());
+	}
+
+	private static byte[] write(PotentiallyVisibleSet pvs) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		pvs.write(new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	private static PotentiallyVisibleSet read(byte[] bytes, BSPNode root, Cells cells, int width, int height) throws IOException {
+		return PotentiallyVisibleSet.read(new DataInputStream(new ByteArrayInputStream(bytes)), root, cells, width, height);
+	}
+
+	/**
+	 * Renders a frame with the given drawer.
+	 */
+	private static int[] render(FirstPersonDrawer drawer, int px, int py, int angle, int walkStep) {
+		BufferedImage image = new BufferedImage(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics gc = image.getGraphics();
+		int viewdx = (int) (Math.cos(Math.PI*angle/180)*(1<<16));
+		int viewdy = (int) (Math.sin(Math.PI*angle/180)*(1<<16));
+		drawer.redraw(gc, StateGUI.STATE_PLAY, px, py, viewdx, viewdy, walkStep, Constants.VIEW_OFFSET, new RangeSet(), angle);
+		gc.dispose();
+		return image.getRGB(0, 0, Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT, null, 0, Constants.VIEW_WIDTH);
+	}
+
+	/**
+	 * Compares frames drawn with and without the set at every cell for all four directions
+	 * and the diagonals, walking in each direction where there is no wall.
+	 */
+	private void checkFrames(MazeConfiguration mazeConfig) throws InterruptedException {
+		PotentiallyVisibleSet pvs = build(mazeConfig);
+		int width = mazeConfig.getWidth();
+		int height = mazeConfig.getHeight();
+		FirstPersonDrawer plain = new RasterFirstPersonDrawer(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT,
+				Constants.MAP_UNIT, Constants.STEP_SIZE, new SeenWalls(width+1, height+1), mazeConfig.getRootnode(), false);
+		FirstPersonDrawer pruned = new RasterFirstPersonDrawer(Constants.VIEW_WIDTH, Constants.VIEW_HEIGHT,
+				Constants.MAP_UNIT, Constants.STEP_SIZE, new SeenWalls(width+1, height+1), mazeConfig.getRootnode(), false);
+		pruned.setPotentiallyVisibleSet(pvs);
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				for (int angle = 0; angle < 360; angle += 45) {
+					// walking only happens through an open border to the next cell
+					int maxStep = 0;
+					if (0 == angle % 90 && mazeConfig.getMazecells().hasNoWall(x, y, DIRECTIONS[angle/90]))
+						maxStep = 3;
+					for (int walkStep = 0; walkStep <= maxStep; walkStep++) {
+						int[] expected = render(plain, x, y, angle, walkStep);
+						int[] actual = render(pruned, x, y, angle, walkStep);
+						for (int i = 0; i < expected.length; i++) {
+							if (expected[i] != actual[i])
+								fail("Frames should be the same at (" + x + "," + y + ") for angle " + angle 
+										+ " and step " + walkStep + " in column " + i % Constants.VIEW_WIDTH);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test that the set does not change the frames for a maze with rooms.
+	 */
+	@Test
+	public final void testFramesUnchangedWithRooms() throws InterruptedException {
+		checkFrames(generate(3, false));
+	}
+
+	/**
+	 * Test that the set does not change the frames for a perfect maze.
+	 */
+	@Test
+	public final void testFramesUnchangedPerfect() throws InterruptedException {
+		checkFrames(generate(3, true));
+	}
+
+	/**
+	 * Test that the set actually rules out subtrees, otherwise it would be of no use,
+	 * and that the root is visible from everywhere.
+	 */
+	@Test
+	public final void testPrunesSubtrees() throws InterruptedException {
+		MazeConfiguration mazeConfig = generate(4, true);
+		PotentiallyVisibleSet pvs = build(mazeConfig);
+		BSPBranch root = (BSPBranch) mazeConfig.getRootnode();
+		int hidden = 0;
+		for (int x = 0; x < mazeConfig.getWidth(); x++) {
+			for (int y = 0; y < mazeConfig.getHeight(); y++) {
+				int cell = pvs.getCellIndex(x, y);
+				assertTrue("Root should be visible", pvs.mayBeVisible(cell, root));
+				if (!pvs.mayBeVisible(cell, root.getLeftBranch()) || !pvs.mayBeVisible(cell, root.getRightBranch()))
+					hidden++;
+			}
+		}
+		assertTrue("Half of the maze should be hidden from some cells", hidden > 0);
+		assertTrue("Positions outside of the maze should not rule out anything", pvs.mayBeVisible(pvs.getCellIndex(-1, 0), root.getLeftBranch()));
+	}
+
+	/**
+	 * Test that a set that has been written and read gives the same answers for all nodes and cells.
+	 */
+	@Test
+	public final void testRoundTrip() throws InterruptedException, IOException {
+		MazeConfiguration mazeConfig = generate(3, false);
+		PotentiallyVisibleSet pvs = build(mazeConfig);
+		PotentiallyVisibleSet copy = read(write(pvs), mazeConfig.getRootnode(), mazeConfig.getMazecells(), 
+				mazeConfig.getWidth(), mazeConfig.getHeight());
+		assertEquals("Number of nodes should match", pvs.getNodeCount(), copy.getNodeCount());
+		for (int x = 0; x < mazeConfig.getWidth(); x++) {
+			for (int y = 0; y < mazeConfig.getHeight(); y++)
+				checkSameAnswers(pvs, copy, pvs.getCellIndex(x, y), mazeConfig.getRootnode());
+		}
+	}
+
+	private static void checkSameAnswers(PotentiallyVisibleSet expected, PotentiallyVisibleSet actual, int cell, BSPNode n) {
+		assertEquals("Answers should match", expected.mayBeVisible(cell, n), actual.mayBeVisible(cell, n));
+		if (!n.isIsleaf()) {
+			checkSameAnswers(expected, actual, cell, ((BSPBranch) n).getLeftBranch());
+			checkSameAnswers(expected, actual, cell, ((BSPBranch) n).getRightBranch());
+		}
+	}
+
+	/**
+	 * Test that reading a set for a maze of a different size fails.
+	 */
+	@Test(expected = IOException.class)
+	public final void testReadRejectsOtherSize() throws InterruptedException, IOException {
+		MazeConfiguration mazeConfig = generate(3, false);
+		read(write(build(mazeConfig)), mazeConfig.getRootnode(), mazeConfig.getMazecells(), 
+				mazeConfig.getWidth()+1, mazeConfig.getHeight());
+	}
+
+	/**
+	 * Test that reading a set for a maze of the same size and the same tree but different walls fails,
+	 * such that a stale set is not used for a maze that has changed.
+	 */
+	@Test(expected = IOException.class)
+	public final void testReadRejectsOtherWalls() throws InterruptedException, IOException {
+		MazeConfiguration mazeConfig = generate(3, false);
+		MazeConfiguration other = generate(3, true);
+		assertEquals(mazeConfig.getWidth(), other.getWidth());
+		assertEquals(mazeConfig.getHeight(), other.getHeight());
+		read(write(build(mazeConfig)), mazeConfig.getRootnode(), other.getMazecells(), 
+				mazeConfig.getWidth(), mazeConfig.getHeight());
+	}
+}